@@ -1,12 +1,16 @@
-import com.kendb.userauth.Authorization;
-
-
-//This be the main class for our KenDB program.
-public class KenDBMain {
-	// Main function to run our KenDB application.
-	public static void main(String[] args) throws Exception {
-		Authorization auth = new Authorization();
-		auth.menu(); // Calling the menu function to show the user an options for the KenDB application.
-	}
-
-}
+import java.nio.file.Paths;
+import com.kendb.query.QueryChecker;
+import com.kendb.replication.Replication;
+import com.kendb.userauth.Authorization;
+
+
+//This be the main class for our KenDB program.
+public class KenDBMain {
+	// Main function to run our KenDB application.
+	public static void main(String[] args) throws Exception {
+		Replication.start(Paths.get(QueryChecker.DATA_DIR)); // primary or follower, if configured
+		Authorization auth = new Authorization();
+		auth.menu(); // Calling the menu function to show the user an options for the KenDB application.
+	}
+
+}
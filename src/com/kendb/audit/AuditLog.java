@@ -0,0 +1,330 @@
+package com.kendb.audit;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * The `AuditLog` keeps a binary record of every executed statement in segment files named
+ * `audit-<start time>.kal`. A new segment is started when the current one is too large or too old.
+ * Next to every segment a sparse index `audit-<start time>.idx` lists, for each block of records,
+ * where it starts, its first and last time and which users appear in it. SHOW AUDIT reads only
+ * the blocks whose time range and users can match.
+ * The segments are kept in `.audit` of the data folder. Every process writes a segment of its own,
+ * processes sharing the folder only read the segments of the others.
+ */
+public class AuditLog {
+
+	public static String AUDIT_PATH = System.getProperty("kendb.audit.dir",
+			Paths.get(System.getProperty("kendb.dataDir", "src/resources/Database/"), ".audit").toString()); // folder of the segments
+	public static long MAX_SEGMENT_BYTES = Long.getLong("kendb.audit.maxBytes", 4L * 1024 * 1024); // size of a segment before rotation
+	public static long MAX_SEGMENT_AGE_MILLIS = Long.getLong("kendb.audit.maxAgeMillis", 24L * 60 * 60 * 1000); // age of a segment before rotation
+	public static int BLOCK_RECORDS = Integer.getInteger("kendb.audit.blockRecords", 256); // records per index entry
+
+	static int SEGMENT_MAGIC = 0x4B444241; // KDBA
+	static int INDEX_MAGIC = 0x4B444249; // KDBI
+	static AuditLog shared;
+
+	Path folder;
+	Path segmentFile;
+	long segmentStart;
+	DataOutputStream out;
+	long size;
+	SegmentIndex index;
+
+	/**
+	 * The sparse index of one segment.
+	 */
+	static class SegmentIndex {
+		long indexedLength; // bytes of the segment described by the index
+		int recordCount;
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+		List<long[]> blocks = new ArrayList<>(); // offset, first time, last time
+		Map<String, BitSet> userBlocks = new HashMap<>();
+		int blockRecords; // records in the last block
+
+		void add(long offset, long length, AuditRecord record) {
+			if (blocks.isEmpty() || blockRecords >= BLOCK_RECORDS) {
+				blocks.add(new long[] {offset, record.timestamp, record.timestamp});
+				blockRecords = 0;
+			}
+			long[] block = blocks.get(blocks.size() - 1);
+			block[1] = Math.min(block[1], record.timestamp);
+			block[2] = Math.max(block[2], record.timestamp);
+			blockRecords++;
+			recordCount++;
+			minTime = Math.min(minTime, record.timestamp);
+			maxTime = Math.max(maxTime, record.timestamp);
+			userBlocks.computeIfAbsent(record.user.toLowerCase(), user -> new BitSet()).set(blocks.size() - 1);
+			indexedLength = offset + length;
+		}
+
+		void write(Path file) throws IOException {
+			Path newFile = file.resolveSibling(file.getFileName() + ".tmp");
+			try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(newFile)))) {
+				index.writeInt(INDEX_MAGIC);
+				index.writeLong(indexedLength);
+				index.writeInt(recordCount);
+				index.writeLong(minTime);
+				index.writeLong(maxTime);
+				index.writeInt(blocks.size());
+				for (long[] block : blocks) {
+					index.writeLong(block[0]);
+					index.writeLong(block[1]);
+					index.writeLong(block[2]);
+				}
+				index.writeInt(userBlocks.size());
+				for (Map.Entry<String, BitSet> user : userBlocks.entrySet()) {
+					index.writeUTF(user.getKey());
+					long[] words = user.getValue().toLongArray();
+					index.writeInt(words.length);
+					for (long word : words) {
+						index.writeLong(word);
+					}
+				}
+			}
+			Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		static SegmentIndex read(Path file) throws IOException {
+			if (!Files.exists(file)) {
+				return null;
+			}
+			SegmentIndex index = new SegmentIndex();
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+				if (in.readInt() != INDEX_MAGIC) {
+					return null;
+				}
+				index.indexedLength = in.readLong();
+				index.recordCount = in.readInt();
+				index.minTime = in.readLong();
+				index.maxTime = in.readLong();
+				int blockCount = in.readInt();
+				for (int i = 0; i < blockCount; i++) {
+					index.blocks.add(new long[] {in.readLong(), in.readLong(), in.readLong()});
+				}
+				int userCount = in.readInt();
+				for (int i = 0; i < userCount; i++) {
+					String user = in.readUTF();
+					long[] words = new long[in.readInt()];
+					for (int w = 0; w < words.length; w++) {
+						words[w] = in.readLong();
+					}
+					index.userBlocks.put(user, BitSet.valueOf(words));
+				}
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Constructor for the AuditLog, it starts a new segment. The newest segment is not continued,
+	 * another process using the same folder may still be writing it.
+	 *
+	 * @param folder The folder of the segments.
+	 * @throws IOException If the folder cannot be used.
+	 */
+	public AuditLog(Path folder) throws IOException {
+		this.folder = folder;
+		Files.createDirectories(folder);
+		startSegment();
+	}
+
+	/**
+	 * @return The audit log shared by all sessions of this process.
+	 * @throws IOException If the audit folder cannot be used.
+	 */
+	public static synchronized AuditLog getInstance() throws IOException {
+		if (shared == null) {
+			shared = new AuditLog(Paths.get(AUDIT_PATH));
+		}
+		return shared;
+	}
+
+	/**
+	 * Add a record, a new segment is started first if the current one is full.
+	 *
+	 * @param record The record.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public synchronized void append(AuditRecord record) throws IOException {
+		if (size >= MAX_SEGMENT_BYTES || System.currentTimeMillis() - segmentStart >= MAX_SEGMENT_AGE_MILLIS) {
+			closeSegment();
+			startSegment();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		record.write(new DataOutputStream(bytes));
+		bytes.writeTo(out);
+		out.flush();
+		int blocksBefore = index.blocks.size();
+		index.add(size, bytes.size(), record);
+		size += bytes.size();
+		// the index on disk is brought up to date whenever a block is started
+		if (index.blocks.size() != blocksBefore) {
+			index.write(indexPath(segmentFile));
+		}
+	}
+
+	/**
+	 * Find the records that match a query, oldest first.
+	 *
+	 * @param query The condition.
+	 * @param limit The largest number of records to return, -1 for all.
+	 * @return The matching records.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public synchronized List<AuditRecord> search(AuditQuery query, long limit) throws IOException {
+		if (out != null) {
+			out.flush();
+		}
+		List<AuditRecord> result = new ArrayList<>();
+		for (Path segment : listSegments()) {
+			SegmentIndex segmentIndex = segment.equals(segmentFile) ? index : SegmentIndex.read(indexPath(segment));
+			if (segmentIndex == null) {
+				// the segment of another process is indexed by that process when it closes the segment
+				segmentIndex = buildIndex(segment, null);
+			}
+			long length = Files.size(segment);
+			boolean tail = segmentIndex.indexedLength < length;
+			if (!tail && (segmentIndex.maxTime < query.getFromTime() || segmentIndex.minTime > query.getToTime())) {
+				continue;
+			}
+			BitSet userBlocks = query.getUser() == null ? null : segmentIndex.userBlocks.get(query.getUser().toLowerCase());
+			if (query.getUser() != null && userBlocks == null && !tail) {
+				continue;
+			}
+			try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "r")) {
+				List<long[]> blocks = segmentIndex.blocks;
+				for (int i = 0; i < blocks.size(); i++) {
+					long[] block = blocks.get(i);
+					if (block[2] < query.getFromTime() || block[1] > query.getToTime()
+							|| (query.getUser() != null && (userBlocks == null || !userBlocks.get(i)))) {
+						continue;
+					}
+					long end = i + 1 < blocks.size() ? blocks.get(i + 1)[0] : segmentIndex.indexedLength;
+					if (!readRecords(file, block[0], end, query, limit, result)) {
+						return result;
+					}
+				}
+				// records written after the index
+				if (tail && !readRecords(file, segmentIndex.indexedLength, length, query, limit, result)) {
+					return result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Close the current segment and write its index.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public synchronized void close() throws IOException {
+		closeSegment();
+	}
+
+	private boolean readRecords(RandomAccessFile file, long start, long end, AuditQuery query, long limit, List<AuditRecord> result) throws IOException {
+		byte[] data = new byte[(int) (end - start)];
+		file.seek(start);
+		file.readFully(data);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		while (in.available() > 0) {
+			AuditRecord record;
+			try {
+				record = AuditRecord.read(in);
+			} catch (EOFException e) {
+				// the last record of a segment that is being written, or was cut off when its process stopped
+				break;
+			}
+			if (query.matches(record)) {
+				result.add(record);
+				if (limit >= 0 && result.size() >= limit) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void startSegment() throws IOException {
+		segmentStart = System.currentTimeMillis();
+		while (true) {
+			segmentFile = folder.resolve("audit-" + segmentStart + ".kal");
+			try {
+				// only one process gets a name, another one that started the same millisecond takes the next
+				out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segmentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+				break;
+			} catch (FileAlreadyExistsException e) {
+				segmentStart++;
+			}
+		}
+		out.writeInt(SEGMENT_MAGIC);
+		out.flush();
+		size = Integer.BYTES;
+		index = new SegmentIndex();
+		index.indexedLength = size;
+	}
+
+	private void closeSegment() throws IOException {
+		if (out != null) {
+			out.close();
+			index.write(indexPath(segmentFile));
+			out = null;
+		}
+	}
+
+	/**
+	 * Read a whole segment to build its index, used when the index is missing.
+	 *
+	 * @param segment   Path of the segment.
+	 * @param indexFile Where to save the index, `null` to keep it only in memory.
+	 */
+	private SegmentIndex buildIndex(Path segment, Path indexFile) throws IOException {
+		SegmentIndex segmentIndex = new SegmentIndex();
+		segmentIndex.indexedLength = Integer.BYTES;
+		byte[] data = Files.readAllBytes(segment);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if (data.length < Integer.BYTES || in.readInt() != SEGMENT_MAGIC) {
+			throw new IOException("Not an audit segment: " + segment);
+		}
+		long offset = Integer.BYTES;
+		while (in.available() > 0) {
+			AuditRecord record;
+			try {
+				record = AuditRecord.read(in);
+			} catch (IOException e) {
+				// cut off when the process stopped
+				break;
+			}
+			long next = data.length - in.available();
+			segmentIndex.add(offset, next - offset, record);
+			offset = next;
+		}
+		if (indexFile != null) {
+			segmentIndex.write(indexFile);
+		}
+		return segmentIndex;
+	}
+
+	private List<Path> listSegments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(folder)) {
+			files.filter(file -> file.getFileName().toString().matches("audit-\\d+\\.kal")).forEach(segments::add);
+		}
+		segments.sort(Comparator.comparingLong(AuditLog::startOf));
+		return segments;
+	}
+
+	private static long startOf(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring("audit-".length(), name.length() - ".kal".length()));
+	}
+
+	private static Path indexPath(Path segment) {
+		String name = segment.getFileName().toString();
+		return segment.resolveSibling(name.substring(0, name.length() - ".kal".length()) + ".idx");
+	}
+}
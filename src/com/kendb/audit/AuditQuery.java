@@ -0,0 +1,199 @@
+package com.kendb.audit;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The `AuditQuery` is the condition of SHOW AUDIT, a list of comparisons joined with AND.
+ * The columns are user, database, table, type, status, time and duration (in milliseconds).
+ * Time values are written like `'2026-10-12'` or `'2026-10-12 14:30:00'`.
+ * A join has several tables, `table` matches it if one of them matches.
+ */
+public class AuditQuery {
+
+	static Pattern CONDITION = Pattern.compile("(\\w+) ?(<=|>=|!=|<>|=|<|>) ?('[^']*'|[^ ]+)", Pattern.CASE_INSENSITIVE);
+	static Pattern AND = Pattern.compile(" and ", Pattern.CASE_INSENSITIVE);
+
+	long fromTime = Long.MIN_VALUE;
+	long toTime = Long.MAX_VALUE;
+	String user;
+	List<Predicate<AuditRecord>> tests = new ArrayList<>();
+
+	/**
+	 * Parse the condition of SHOW AUDIT.
+	 *
+	 * @param where The text after WHERE, or `null` for all records.
+	 * @return The query.
+	 * @throws IllegalArgumentException If the condition is not valid.
+	 */
+	public static AuditQuery parse(String where) {
+		AuditQuery query = new AuditQuery();
+		if (where == null) {
+			return query;
+		}
+		for (String part : AND.split(where.trim())) {
+			Matcher matcher = CONDITION.matcher(part.trim());
+			if (!matcher.matches()) {
+				throw new IllegalArgumentException("Invalid audit condition: " + part.trim());
+			}
+			String column = matcher.group(1).toLowerCase();
+			String operator = matcher.group(2);
+			String value = matcher.group(3);
+			if (value.startsWith("'") && value.endsWith("'") && value.length() >= 2) {
+				value = value.substring(1, value.length() - 1);
+			}
+			switch (column) {
+				case "time":
+				case "timestamp":
+					query.addTime(operator, parseTime(value));
+					break;
+				case "duration":
+					double millis;
+					try {
+						millis = Double.parseDouble(value);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid duration: " + value);
+					}
+					query.tests.add(compare(operator, record -> Double.compare(record.getDurationMillis(), millis)));
+					break;
+				case "user":
+					if (operator.equals("=")) {
+						query.user = value;
+					}
+					query.addText(operator, value, AuditRecord::getUser);
+					break;
+				case "database":
+					query.addText(operator, value, AuditRecord::getDatabase);
+					break;
+				case "table":
+					query.addNames(operator, value, AuditRecord::getTable);
+					break;
+				case "type":
+					query.addText(operator, value, AuditRecord::getType);
+					break;
+				case "status":
+					query.addText(operator, value, AuditRecord::getStatus);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown audit column: " + matcher.group(1));
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * @return The earliest time a matching record can have.
+	 */
+	public long getFromTime() {
+		return fromTime;
+	}
+
+	/**
+	 * @return The latest time a matching record can have.
+	 */
+	public long getToTime() {
+		return toTime;
+	}
+
+	/**
+	 * @return The user every matching record has, or `null` if any user matches.
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	public boolean matches(AuditRecord record) {
+		for (Predicate<AuditRecord> test : tests) {
+			if (!test.test(record)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void addTime(String operator, long time) {
+		switch (operator) {
+			case "=":
+				fromTime = Math.max(fromTime, time);
+				toTime = Math.min(toTime, time);
+				break;
+			case ">":
+				fromTime = Math.max(fromTime, time + 1);
+				break;
+			case ">=":
+				fromTime = Math.max(fromTime, time);
+				break;
+			case "<":
+				toTime = Math.min(toTime, time - 1);
+				break;
+			case "<=":
+				toTime = Math.min(toTime, time);
+				break;
+			default:
+				break;
+		}
+		tests.add(compare(operator, record -> Long.compare(record.getTimestamp(), time)));
+	}
+
+	private void addText(String operator, String value, Function<AuditRecord, String> field) {
+		if (operator.equals("=")) {
+			tests.add(record -> field.apply(record).equalsIgnoreCase(value));
+		} else if (operator.equals("!=") || operator.equals("<>")) {
+			tests.add(record -> !field.apply(record).equalsIgnoreCase(value));
+		} else {
+			tests.add(compare(operator, record -> field.apply(record).compareToIgnoreCase(value)));
+		}
+	}
+
+	/**
+	 * A condition on a field holding names joined with `,`, like the tables of a join.
+	 * It holds if one of the names matches, `!=` holds if none of them is equal.
+	 */
+	private void addNames(String operator, String value, Function<AuditRecord, String> field) {
+		boolean negated = operator.equals("!=") || operator.equals("<>");
+		String nameOperator = negated ? "=" : operator;
+		tests.add(record -> {
+			for (String name : field.apply(record).split(",")) {
+				if (holds(nameOperator, name.compareToIgnoreCase(value))) {
+					return !negated;
+				}
+			}
+			return negated;
+		});
+	}
+
+	private static Predicate<AuditRecord> compare(String operator, ToIntFunction<AuditRecord> comparison) {
+		return record -> holds(operator, comparison.applyAsInt(record));
+	}
+
+	private static boolean holds(String operator, int compared) {
+		switch (operator) {
+			case "=":
+				return compared == 0;
+			case "!=":
+			case "<>":
+				return compared != 0;
+			case "<":
+				return compared < 0;
+			case "<=":
+				return compared <= 0;
+			case ">":
+				return compared > 0;
+			default:
+				return compared >= 0;
+		}
+	}
+
+	private static long parseTime(String value) {
+		try {
+			return Timestamp.valueOf(value.contains(" ") ? value : value + " 00:00:00").getTime();
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid time: " + value + ", use 'yyyy-mm-dd' or 'yyyy-mm-dd hh:mm:ss'");
+		}
+	}
+}
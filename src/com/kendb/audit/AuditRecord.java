@@ -0,0 +1,114 @@
+package com.kendb.audit;
+
+import java.io.*;
+import java.sql.Timestamp;
+
+/**
+ * The `AuditRecord` is one executed statement in the audit log.
+ * It is stored as the timestamp, the duration in microseconds, one byte each for the statement type
+ * and the status, and the user, database and table names.
+ */
+public class AuditRecord {
+
+	public static final String[] TYPES = {"OTHER", "SELECT", "INSERT", "UPDATE", "DELETE", "CREATE", "DROP", "BEGIN", "COMPRESS", "COMPACT", "SHOW", "ANALYZE", "EXPLAIN", "REFRESH"};
+	public static final String[] STATUSES = {"Valid", "Invalid", "Failed"};
+
+	public static final byte STATUS_VALID = 0;
+	public static final byte STATUS_INVALID = 1;
+	public static final byte STATUS_FAILED = 2;
+
+	long timestamp;
+	int durationMicros;
+	byte type;
+	byte status;
+	String user;
+	String database;
+	String table;
+
+	/**
+	 * Constructor for the AuditRecord.
+	 *
+	 * @param timestamp      The time the statement started, in milliseconds.
+	 * @param durationMicros How long the statement ran.
+	 * @param type           The statement type, an index of `TYPES`.
+	 * @param status         The status, one of the `STATUS_` values.
+	 * @param user           The user that ran the statement.
+	 * @param database       The active database.
+	 * @param table          The table of the statement, empty if none.
+	 */
+	public AuditRecord(long timestamp, int durationMicros, byte type, byte status, String user, String database, String table) {
+		this.timestamp = timestamp;
+		this.durationMicros = durationMicros;
+		this.type = type;
+		this.status = status;
+		this.user = user == null ? "" : user;
+		this.database = database == null ? "" : database;
+		this.table = table == null ? "" : table;
+	}
+
+	/**
+	 * The type of a statement from its first word.
+	 *
+	 * @param query The statement.
+	 * @return The index of the type in `TYPES`.
+	 */
+	public static byte typeOf(String query) {
+		String word = query.trim().split("[\\s;(]", 2)[0];
+		for (byte i = 1; i < TYPES.length; i++) {
+			if (TYPES[i].equalsIgnoreCase(word)) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getDatabase() {
+		return database;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public String getType() {
+		return TYPES[type];
+	}
+
+	public String getStatus() {
+		return STATUSES[status];
+	}
+
+	public double getDurationMillis() {
+		return durationMicros / 1000.0;
+	}
+
+	/**
+	 * @return The values as they are shown by SHOW AUDIT.
+	 */
+	public String[] toRow() {
+		return new String[] {new Timestamp(timestamp).toString(), user, database, table, getType(),
+				String.format("%.3f", getDurationMillis()), getStatus()};
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeLong(timestamp);
+		out.writeInt(durationMicros);
+		out.writeByte(type);
+		out.writeByte(status);
+		out.writeUTF(user);
+		out.writeUTF(database);
+		out.writeUTF(table);
+	}
+
+	static AuditRecord read(DataInputStream in) throws IOException {
+		return new AuditRecord(in.readLong(), in.readInt(), in.readByte(), in.readByte(), in.readUTF(), in.readUTF(), in.readUTF());
+	}
+}
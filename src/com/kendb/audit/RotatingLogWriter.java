@@ -0,0 +1,95 @@
+package com.kendb.audit;
+
+import java.io.*;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * The `RotatingLogWriter` writes the text query log and starts a new file when the current one
+ * gets too large or too old. The old file is renamed with the time it was closed, like
+ * `logs_query-20261019-153000.txt`. Files are only switched after a complete line.
+ * The time the current file was started is kept next to it in `logs_query.txt.opened`,
+ * the creation time of a file is often not kept by the file system.
+ */
+public class RotatingLogWriter extends Writer {
+
+	public static long MAX_BYTES = Long.getLong("kendb.log.maxBytes", 10L * 1024 * 1024); // size of a log file before rotation
+	public static long MAX_AGE_MILLIS = Long.getLong("kendb.log.maxAgeMillis", 24L * 60 * 60 * 1000); // age of a log file before rotation
+
+	Path logFile;
+	Path openedFile;
+	Writer writer;
+	long size;
+	long openedAt;
+
+	/**
+	 * Constructor for the RotatingLogWriter, it appends to the log file if it exists.
+	 *
+	 * @param logFile Path of the current log file.
+	 * @throws IOException If the log file cannot be opened.
+	 */
+	public RotatingLogWriter(Path logFile) throws IOException {
+		this.logFile = logFile;
+		this.openedFile = logFile.resolveSibling(logFile.getFileName() + ".opened");
+		open();
+	}
+
+	private void open() throws IOException {
+		Files.createDirectories(logFile.toAbsolutePath().getParent());
+		writer = new FileWriter(logFile.toFile(), true);
+		size = Files.exists(logFile) ? Files.size(logFile) : 0;
+		openedAt = size > 0 ? readOpenedAt() : -1;
+		if (openedAt == -1) {
+			// a new file, or one written before its start time was kept, its age counts from now
+			openedAt = System.currentTimeMillis();
+			Files.write(openedFile, String.valueOf(openedAt).getBytes());
+		}
+	}
+
+	private long readOpenedAt() throws IOException {
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(openedFile)).trim());
+		} catch (NoSuchFileException | NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public synchronized void write(char[] buffer, int offset, int length) throws IOException {
+		writer.write(buffer, offset, length);
+		size += length;
+		if (length > 0 && buffer[offset + length - 1] == '\n'
+				&& (size >= MAX_BYTES || System.currentTimeMillis() - openedAt >= MAX_AGE_MILLIS)) {
+			rotate();
+		}
+	}
+
+	/**
+	 * Close the current file, rename it with the current time and start a new one.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public synchronized void rotate() throws IOException {
+		writer.close();
+		String name = logFile.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		Path rotated = logFile.resolveSibling((dot == -1 ? name : name.substring(0, dot)) + "-" + stamp + (dot == -1 ? "" : name.substring(dot)));
+		for (int i = 1; Files.exists(rotated); i++) {
+			rotated = logFile.resolveSibling((dot == -1 ? name : name.substring(0, dot)) + "-" + stamp + "-" + i + (dot == -1 ? "" : name.substring(dot)));
+		}
+		Files.move(logFile, rotated);
+		open();
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
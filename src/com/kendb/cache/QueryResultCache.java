@@ -0,0 +1,293 @@
+package com.kendb.cache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import com.kendb.storage.TableFile;
+import com.kendb.storage.TableLocks;
+
+/**
+ * The `QueryResultCache` keeps the rows of recent SELECT queries in memory.
+ * An entry is found by the query text and is only used while the tables it read have the same
+ * version, a change of one of the tables drops its entries right away.
+ * The cache holds at most `kendb.resultCache.bytes` bytes of rows (0 turns it off), the least
+ * recently used entries are dropped first and results larger than an eighth of it are not kept.
+ */
+public class QueryResultCache {
+
+	public static long CAPACITY_BYTES = Long.getLong("kendb.resultCache.bytes", 16L * 1024 * 1024); // memory for cached rows
+
+	static QueryResultCache shared;
+
+	long capacity;
+	long usedBytes = 0;
+	LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	Map<Path, Set<String>> keysByTable = new HashMap<>();
+	long hits = 0;
+	long misses = 0;
+	long evictions = 0;
+	long invalidations = 0;
+
+	/**
+	 * The rows of one query and the versions of the tables they came from.
+	 */
+	static class Entry {
+		List<Path> tables;
+		long[] versions;
+		List<String[]> rows;
+		long bytes;
+	}
+
+	/**
+	 * Constructor for the QueryResultCache.
+	 *
+	 * @param capacity The memory for cached rows in bytes.
+	 */
+	public QueryResultCache(long capacity) {
+		this.capacity = capacity;
+		TableLocks.addChangeListener(this::invalidate);
+	}
+
+	/**
+	 * @return The cache shared by all sessions of this process.
+	 */
+	public static synchronized QueryResultCache getInstance() {
+		if (shared == null) {
+			shared = new QueryResultCache(CAPACITY_BYTES);
+		}
+		return shared;
+	}
+
+	/**
+	 * The key of a query: the database and the query text with runs of spaces made one.
+	 * Case is kept, table names are file names and may differ only in case.
+	 *
+	 * @param database The name of the database.
+	 * @param query    The query text.
+	 * @return The key.
+	 */
+	public static String key(String database, String query) {
+		StringBuilder key = new StringBuilder(database).append(':');
+		boolean quoted = false;
+		boolean space = false;
+		for (char c : query.trim().toCharArray()) {
+			if (c == '\'') {
+				quoted = !quoted;
+			}
+			if (!quoted && Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (space) {
+				key.append(' ');
+				space = false;
+			}
+			key.append(c);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * The versions of the tables a query reads.
+	 *
+	 * @param tables Paths of the table files.
+	 * @return The versions of all tables one after another.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static long[] versions(List<Path> tables) throws IOException {
+		long[] versions = new long[tables.size() * 3];
+		for (int i = 0; i < tables.size(); i++) {
+			System.arraycopy(TableFile.version(tables.get(i)), 0, versions, i * 3, 3);
+		}
+		return versions;
+	}
+
+	/**
+	 * Find the rows of a query.
+	 *
+	 * @param key      The key of the query.
+	 * @param versions The current versions of the tables the query reads.
+	 * @return The rows, or `null` if they are not cached or the tables changed.
+	 */
+	public synchronized List<String[]> get(String key, long[] versions) {
+		if (capacity <= 0) {
+			return null;
+		}
+		Entry entry = entries.get(key);
+		if (entry != null && !Arrays.equals(entry.versions, versions)) {
+			// changed by another process
+			remove(key);
+			invalidations++;
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.rows;
+	}
+
+	/**
+	 * Keep the rows of a query. The rows are read once, and only as far as the size limit of an entry.
+	 *
+	 * @param key      The key of the query.
+	 * @param tables   Paths of the table files the query reads.
+	 * @param versions The versions of the tables before they were read.
+	 * @param rows     The rows of the result.
+	 * @return `true` if the rows were kept.
+	 */
+	public boolean put(String key, List<Path> tables, long[] versions, Iterable<String[]> rows) {
+		Builder builder = builder(key, tables, versions);
+		for (String[] row : rows) {
+			if (!builder.add(row)) {
+				return false;
+			}
+		}
+		return builder.finish();
+	}
+
+	/**
+	 * Start an entry whose rows are added while they are printed.
+	 *
+	 * @param key      The key of the query.
+	 * @param tables   Paths of the table files the query reads.
+	 * @param versions The versions of the tables before they were read.
+	 * @return The builder of the entry.
+	 */
+	public Builder builder(String key, List<Path> tables, long[] versions) {
+		return new Builder(key, tables, versions);
+	}
+
+	/**
+	 * The `Builder` collects the rows of an entry until they get too large for the cache.
+	 */
+	public class Builder {
+		String key;
+		Entry entry = new Entry();
+		long maxBytes = capacity / 8;
+
+		Builder(String key, List<Path> tables, long[] versions) {
+			this.key = key;
+			entry.tables = new ArrayList<>();
+			for (Path table : tables) {
+				entry.tables.add(table.toAbsolutePath().normalize());
+			}
+			entry.versions = versions;
+			entry.rows = new ArrayList<>();
+			entry.bytes = 64 + key.length() * 2L;
+		}
+
+		/**
+		 * @return `false` once the rows are too large, the rows are not kept then.
+		 */
+		public boolean add(String[] row) {
+			if (entry == null) {
+				return false;
+			}
+			entry.bytes += rowBytes(row);
+			if (entry.bytes > maxBytes) {
+				entry = null;
+				return false;
+			}
+			entry.rows.add(row);
+			return true;
+		}
+
+		/**
+		 * Put the entry in the cache.
+		 *
+		 * @return `true` if the rows were kept.
+		 */
+		public boolean finish() {
+			if (entry == null || maxBytes <= 0) {
+				return false;
+			}
+			synchronized (QueryResultCache.this) {
+				remove(key);
+				entries.put(key, entry);
+				usedBytes += entry.bytes;
+				for (Path table : entry.tables) {
+					keysByTable.computeIfAbsent(table, path -> new HashSet<>()).add(key);
+				}
+				Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+				while (usedBytes > capacity && eldest.hasNext()) {
+					Map.Entry<String, Entry> next = eldest.next();
+					eldest.remove();
+					forget(next.getKey(), next.getValue());
+					evictions++;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Drop the entries that read a table.
+	 *
+	 * @param tableFile The normalized path of the changed table file.
+	 */
+	public synchronized void invalidate(Path tableFile) {
+		Set<String> keys = keysByTable.remove(tableFile);
+		if (keys == null) {
+			return;
+		}
+		for (String key : new ArrayList<>(keys)) {
+			if (remove(key)) {
+				invalidations++;
+			}
+		}
+	}
+
+	/**
+	 * @return The statistics of the cache as one line.
+	 */
+	public synchronized String getStats() {
+		long lookups = hits + misses;
+		return "Result cache: " + entries.size() + " entries, " + usedBytes + " of " + capacity + " bytes, "
+				+ hits + " hits, " + misses + " misses, hit rate "
+				+ (lookups == 0 ? "0.0" : String.format("%.1f", 100.0 * hits / lookups)) + "%, "
+				+ evictions + " evictions, " + invalidations + " invalidations";
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private boolean remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry == null) {
+			return false;
+		}
+		forget(key, entry);
+		return true;
+	}
+
+	private void forget(String key, Entry entry) {
+		usedBytes -= entry.bytes;
+		for (Path table : entry.tables) {
+			Set<String> keys = keysByTable.get(table);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					keysByTable.remove(table);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rough heap size of a row: the array and every string with its characters.
+	 */
+	static long rowBytes(String[] row) {
+		long bytes = 16 + 8L * row.length;
+		for (String value : row) {
+			bytes += 40 + 2L * value.length();
+		}
+		return bytes;
+	}
+}
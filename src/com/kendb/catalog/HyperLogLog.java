@@ -0,0 +1,49 @@
+package com.kendb.catalog;
+
+/**
+ * The `HyperLogLog` estimates the number of distinct values it has seen in a few kilobytes,
+ * however many values there are. Every value is hashed, the first bits of the hash choose a register
+ * and the register keeps the longest run of leading zeros of the other bits.
+ * With 4096 registers the estimate is usually within 2% of the real count.
+ */
+public class HyperLogLog {
+
+	static int PRECISION = 12; // bits of the hash that choose the register
+
+	byte[] registers = new byte[1 << PRECISION];
+
+	/**
+	 * Add a value.
+	 *
+	 * @param hash The 64 bit hash of the value.
+	 */
+	public void add(long hash) {
+		int register = (int) (hash >>> (64 - PRECISION));
+		// the marker bit stops the count when the other bits are all zero
+		byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+		if (rank > registers[register]) {
+			registers[register] = rank;
+		}
+	}
+
+	/**
+	 * @return The estimated number of distinct values.
+	 */
+	public long estimate() {
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte register : registers) {
+			sum += 1.0 / (1L << register);
+			if (register == 0) {
+				zeros++;
+			}
+		}
+		double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			// few values, counting the empty registers is more accurate
+			estimate = m * Math.log((double) m / zeros);
+		}
+		return Math.round(estimate);
+	}
+}
@@ -0,0 +1,209 @@
+package com.kendb.catalog;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The `TableMetadata` is for reading the header line of a table file.
+ * The header looks like `Customers(CustomerID:INT,FirstName:VARCHAR,PRIMARY_KEY:CustomerID)`.
+ * A foreign key is kept as `FOREIGN_KEY:CustomerID->Customers.CustomerID`, the referenced column
+ * is left out when the statement did not name it and the primary key is meant.
+ */
+public class TableMetadata {
+
+	String header;
+	String tableName;
+	List<String> columnNames = new ArrayList<>();
+	List<String> columnTypes = new ArrayList<>();
+	List<String> primaryKeys = new ArrayList<>();
+	List<String> foreignKeys = new ArrayList<>();
+
+	/**
+	 * Parse the metadata from the header line of a table.
+	 *
+	 * @param header The first line of the table file.
+	 */
+	public TableMetadata(String header) {
+		this.header = header;
+		int open = header.indexOf('(');
+		int close = header.lastIndexOf(')');
+		tableName = header.substring(0, open).trim();
+		List<String> currentKeys = null;
+		for (String entry : header.substring(open + 1, close).split(",")) {
+			String[] parts = entry.split(":");
+			String name = parts[0].trim();
+			if (name.equalsIgnoreCase("PRIMARY_KEY") && parts.length > 1) {
+				currentKeys = primaryKeys;
+				currentKeys.add(parts[1].trim());
+			} else if (name.equalsIgnoreCase("FOREIGN_KEY") && parts.length > 1) {
+				currentKeys = foreignKeys;
+				currentKeys.add(parts[1].trim());
+			} else if (parts.length == 1 && currentKeys != null) {
+				// second key of `PRIMARY_KEY:a,b` has no name before it
+				currentKeys.add(name);
+			} else if (!name.isEmpty()) {
+				columnNames.add(name);
+				columnTypes.add(parts.length > 1 ? parts[1].trim() : "VARCHAR");
+			}
+		}
+	}
+
+	/**
+	 * Read the metadata of the given table file.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The metadata of the table, or `null` if the table file is empty.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static TableMetadata load(Path tableFile) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(tableFile)) {
+			String header = reader.readLine();
+			if (header == null || header.indexOf('(') < 0) {
+				return null;
+			}
+			return new TableMetadata(header);
+		}
+	}
+
+	public String getHeader() {
+		return header;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames.toArray(new String[0]);
+	}
+
+	public int getColumnCount() {
+		return columnNames.size();
+	}
+
+	/**
+	 * Find the position of a column.
+	 *
+	 * @param columnName The name of the column, case is ignored.
+	 * @return The index of the column, or -1 if it does not exist.
+	 */
+	public int indexOf(String columnName) {
+		for (int i = 0; i < columnNames.size(); i++) {
+			if (columnNames.get(i).equalsIgnoreCase(columnName.trim())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String getColumnType(int index) {
+		return columnTypes.get(index);
+	}
+
+	/**
+	 * Check whether a column holds integer values.
+	 *
+	 * @param index The index of the column.
+	 * @return `true` if the column type is INT.
+	 */
+	public boolean isIntColumn(int index) {
+		String type = columnTypes.get(index);
+		return type.equalsIgnoreCase("INT") || type.equalsIgnoreCase("INTEGER");
+	}
+
+	public boolean isPrimaryKey(String columnName) {
+		return containsIgnoreCase(primaryKeys, columnName);
+	}
+
+	/**
+	 * Check whether a column is declared as a foreign key to a column of another table.
+	 * A foreign key without a referenced column matches any column, it refers to the primary key.
+	 *
+	 * @param columnName       The column in this table.
+	 * @param referencedTable  The table on the other side.
+	 * @param referencedColumn The column on the other side.
+	 * @return `true` if the foreign key is declared.
+	 */
+	public boolean isForeignKeyTo(String columnName, String referencedTable, String referencedColumn) {
+		for (String foreignKey : foreignKeys) {
+			int arrow = foreignKey.indexOf("->");
+			if (arrow == -1) {
+				// written before the column was kept, it cannot be matched
+				continue;
+			}
+			String[] reference = foreignKey.substring(arrow + 2).split("\\.", 2);
+			if (foreignKey.substring(0, arrow).equalsIgnoreCase(columnName.trim())
+					&& reference[0].equalsIgnoreCase(referencedTable.trim())
+					&& (reference.length == 1 || reference[1].equalsIgnoreCase(referencedColumn.trim()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public List<String> getPrimaryKeys() {
+		return primaryKeys;
+	}
+
+	public List<String> getForeignKeys() {
+		return foreignKeys;
+	}
+
+	/**
+	 * Compare two stored values of a column, INT columns are compared as numbers.
+	 *
+	 * @param index The index of the column.
+	 * @param a     The first value.
+	 * @param b     The second value.
+	 * @return A negative number, zero or a positive number like `Comparator.compare`.
+	 */
+	public int compareValues(int index, String a, String b) {
+		String first = unquote(a);
+		String second = unquote(b);
+		if (isIntColumn(index)) {
+			try {
+				return Long.compare(Long.parseLong(first), Long.parseLong(second));
+			} catch (NumberFormatException e) {
+				// fall back to text order for values that are not numbers
+			}
+		}
+		return first.compareToIgnoreCase(second);
+	}
+
+	/**
+	 * Build a comparator that orders rows by one column.
+	 *
+	 * @param index      The index of the column.
+	 * @param descending `true` for descending order.
+	 * @return The row comparator, missing values sort first.
+	 */
+	public Comparator<String[]> rowComparator(int index, boolean descending) {
+		Comparator<String[]> comparator = (a, b) -> {
+			if (a.length <= index || b.length <= index) {
+				return Integer.compare(a.length <= index ? 0 : 1, b.length <= index ? 0 : 1);
+			}
+			return compareValues(index, a[index], b[index]);
+		};
+		return descending ? comparator.reversed() : comparator;
+	}
+
+	/**
+	 * Remove the quotes around a stored value, `'Parmar'` becomes `Parmar`.
+	 *
+	 * @param value The stored value.
+	 * @return The value without quotes.
+	 */
+	public static String unquote(String value) {
+		return value.replace("'", "").trim();
+	}
+
+	private static boolean containsIgnoreCase(List<String> list, String value) {
+		for (String item : list) {
+			if (item.equalsIgnoreCase(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
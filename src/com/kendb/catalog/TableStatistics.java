@@ -0,0 +1,394 @@
+package com.kendb.catalog;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import com.kendb.storage.BloomFilter;
+import com.kendb.storage.CompressedTable;
+import com.kendb.storage.MemoryTable;
+import com.kendb.storage.TableFile;
+import com.kendb.storage.ZoneMap;
+
+/**
+ * The `TableStatistics` describe the values of a table for the planner: the number of rows and, for
+ * every column, the number of distinct values, the part of empty values, the average width and an
+ * equi-depth histogram, whose buckets hold the same number of values each.
+ * They are collected by ANALYZE and kept in `<table>.stats`: a line `STATS|rows|bytes|time`,
+ * then a line per column `name|distinct|null fraction|average width|bound|bound|...`.
+ * The histogram is made from a sample of the values, so large tables need little memory.
+ */
+public class TableStatistics {
+
+	public static int HISTOGRAM_BUCKETS = Integer.getInteger("kendb.stats.buckets", 32); // buckets of a histogram
+	public static int SAMPLE_ROWS = Integer.getInteger("kendb.stats.sampleRows", 30000); // values sampled per column for the histogram
+
+	static Map<Path, TableStatistics> loaded = new ConcurrentHashMap<>(); // statistics read before, with the modified time of their file
+
+	TableMetadata metadata;
+	long rowCount;
+	long tableBytes; // size of the table files when they were analyzed
+	long analyzedAt;
+	long fileModified;
+	Column[] columns;
+
+	/**
+	 * The statistics of one column.
+	 */
+	public static class Column {
+		long distinct;
+		double nullFraction;
+		double averageWidth;
+		String[] bounds = new String[0]; // the lowest value, the upper bound of every bucket
+
+		public long getDistinct() {
+			return distinct;
+		}
+
+		public double getNullFraction() {
+			return nullFraction;
+		}
+
+		public double getAverageWidth() {
+			return averageWidth;
+		}
+
+		public String[] getBounds() {
+			return bounds;
+		}
+	}
+
+	private TableStatistics(TableMetadata metadata) {
+		this.metadata = metadata;
+		this.columns = new Column[metadata.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new Column();
+		}
+	}
+
+	public static Path path(Path tableFile) {
+		return ZoneMap.sidecarPath(tableFile, ".stats");
+	}
+
+	/**
+	 * Read all rows of a table and save its statistics.
+	 *
+	 * @param table The table, the rows of all partitions are read.
+	 * @return The statistics.
+	 * @throws IOException If the table cannot be read or the statistics cannot be written.
+	 */
+	public static TableStatistics analyze(TableFile table) throws IOException {
+		TableMetadata metadata = table.getMetadata();
+		TableStatistics statistics = new TableStatistics(metadata);
+		int columnCount = metadata.getColumnCount();
+		HyperLogLog[] distinct = new HyperLogLog[columnCount];
+		long[] nulls = new long[columnCount];
+		long[] widths = new long[columnCount];
+		String[] min = new String[columnCount];
+		String[] max = new String[columnCount];
+		List<List<String>> samples = new ArrayList<>();
+		long[] seen = new long[columnCount];
+		for (int c = 0; c < columnCount; c++) {
+			distinct[c] = new HyperLogLog();
+			samples.add(new ArrayList<>());
+		}
+		table.scan(null, (rowNumber, row) -> {
+			statistics.rowCount++;
+			for (int c = 0; c < columnCount; c++) {
+				String value = c < row.length ? row[c] : "";
+				if (isNull(value)) {
+					nulls[c]++;
+					continue;
+				}
+				widths[c] += value.length();
+				distinct[c].add(BloomFilter.hash(BloomFilter.key(metadata, c, value)));
+				if (min[c] == null || metadata.compareValues(c, value, min[c]) < 0) {
+					min[c] = value;
+				}
+				if (max[c] == null || metadata.compareValues(c, value, max[c]) > 0) {
+					max[c] = value;
+				}
+				// reservoir sample, every value has the same chance to be kept
+				List<String> sample = samples.get(c);
+				long index = seen[c]++;
+				if (sample.size() < SAMPLE_ROWS) {
+					sample.add(value);
+				} else {
+					long slot = ThreadLocalRandom.current().nextLong(index + 1);
+					if (slot < SAMPLE_ROWS) {
+						sample.set((int) slot, value);
+					}
+				}
+			}
+			return true;
+		});
+
+		for (int c = 0; c < columnCount; c++) {
+			Column column = statistics.columns[c];
+			long values = statistics.rowCount - nulls[c];
+			column.nullFraction = statistics.rowCount == 0 ? 0 : (double) nulls[c] / statistics.rowCount;
+			column.averageWidth = values == 0 ? 0 : (double) widths[c] / values;
+			column.distinct = Math.min(values, distinct[c].estimate());
+			List<String> sample = samples.get(c);
+			if (sample.isEmpty()) {
+				continue;
+			}
+			int index = c;
+			sample.sort((a, b) -> metadata.compareValues(index, a, b));
+			int buckets = Math.min(HISTOGRAM_BUCKETS, sample.size());
+			column.bounds = new String[buckets + 1];
+			for (int b = 0; b <= buckets; b++) {
+				column.bounds[b] = TableMetadata.unquote(sample.get((int) ((long) b * (sample.size() - 1) / buckets)));
+			}
+			// the real lowest and highest values, the sample may miss them
+			column.bounds[0] = TableMetadata.unquote(min[c]);
+			column.bounds[buckets] = TableMetadata.unquote(max[c]);
+		}
+		statistics.tableBytes = tableBytes(table);
+		statistics.analyzedAt = System.currentTimeMillis();
+		if (table instanceof MemoryTable) {
+			// a memory table keeps its statistics itself, it has no files
+			((MemoryTable) table).setStatistics(statistics);
+		} else {
+			statistics.save(table.getPath());
+		}
+		return statistics;
+	}
+
+	/**
+	 * A value counts as empty if it is missing, blank or NULL.
+	 */
+	static boolean isNull(String value) {
+		String unquoted = TableMetadata.unquote(value);
+		return unquoted.isEmpty() || unquoted.equalsIgnoreCase("null");
+	}
+
+	/**
+	 * @return The size of the files that hold the rows of a table.
+	 */
+	public static long tableBytes(TableFile table) throws IOException {
+		if (table instanceof MemoryTable) {
+			return ((MemoryTable) table).getDataBytes();
+		}
+		long bytes = 0;
+		for (TableFile partition : table.getPartitions()) {
+			Path compressed = CompressedTable.path(partition.getPath());
+			bytes += Files.size(partition.getPath()) + (Files.exists(compressed) ? Files.size(compressed) : 0);
+		}
+		return bytes;
+	}
+
+	private void save(Path tableFile) throws IOException {
+		Path file = path(tableFile);
+		List<String> lines = new ArrayList<>();
+		lines.add("STATS|" + rowCount + "|" + tableBytes + "|" + analyzedAt);
+		String[] names = metadata.getColumnNames();
+		for (int c = 0; c < columns.length; c++) {
+			Column column = columns[c];
+			StringBuilder line = new StringBuilder();
+			line.append(names[c]).append("|").append(column.distinct).append("|").append(column.nullFraction)
+					.append("|").append(column.averageWidth);
+			for (String bound : column.bounds) {
+				line.append("|").append(bound);
+			}
+			lines.add(line.toString());
+		}
+		// written to a new file first so a reader in another thread never sees half of it
+		Path newFile = ZoneMap.createSidecarFile(tableFile, file);
+		Files.write(newFile, lines);
+		Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		fileModified = Files.getLastModifiedTime(file).toMillis();
+		loaded.put(file.toAbsolutePath().normalize(), this);
+	}
+
+	/**
+	 * The statistics of a table, from the table itself if it is kept in memory.
+	 *
+	 * @param table The table.
+	 * @return The statistics, or `null` if the table was not analyzed or its columns changed.
+	 * @throws IOException If the statistics cannot be read.
+	 */
+	public static TableStatistics of(TableFile table) throws IOException {
+		if (table instanceof MemoryTable) {
+			return ((MemoryTable) table).getStatistics();
+		}
+		return load(table.getPath(), table.getMetadata());
+	}
+
+	/**
+	 * Load the statistics of a table, they are read again only when ANALYZE ran since.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @param metadata  Metadata of the table.
+	 * @return The statistics, or `null` if the table was not analyzed or its columns changed.
+	 * @throws IOException If the statistics cannot be read.
+	 */
+	public static TableStatistics load(Path tableFile, TableMetadata metadata) throws IOException {
+		Path file = path(tableFile);
+		Path key = file.toAbsolutePath().normalize();
+		if (!Files.exists(file)) {
+			loaded.remove(key);
+			return null;
+		}
+		long modified = Files.getLastModifiedTime(file).toMillis();
+		TableStatistics cached = loaded.get(key);
+		if (cached != null && cached.fileModified == modified && cached.metadata.getHeader().equals(metadata.getHeader())) {
+			return cached;
+		}
+		List<String> lines = Files.readAllLines(file);
+		String[] head = lines.isEmpty() ? new String[0] : lines.get(0).split("\\|");
+		if (head.length < 4 || !head[0].equals("STATS") || lines.size() != metadata.getColumnCount() + 1) {
+			return null;
+		}
+		TableStatistics statistics = new TableStatistics(metadata);
+		statistics.rowCount = Long.parseLong(head[1]);
+		statistics.tableBytes = Long.parseLong(head[2]);
+		statistics.analyzedAt = Long.parseLong(head[3]);
+		statistics.fileModified = modified;
+		for (int c = 0; c < statistics.columns.length; c++) {
+			String[] parts = lines.get(c + 1).split("\\|", -1);
+			if (parts.length < 4 || !parts[0].equalsIgnoreCase(metadata.getColumnNames()[c])) {
+				return null;
+			}
+			Column column = statistics.columns[c];
+			column.distinct = Long.parseLong(parts[1]);
+			column.nullFraction = Double.parseDouble(parts[2]);
+			column.averageWidth = Double.parseDouble(parts[3]);
+			column.bounds = Arrays.copyOfRange(parts, 4, parts.length);
+		}
+		loaded.put(key, statistics);
+		return statistics;
+	}
+
+	/**
+	 * Delete the statistics of a table, used when the table is dropped.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static void delete(Path tableFile) throws IOException {
+		Path file = path(tableFile);
+		loaded.remove(file.toAbsolutePath().normalize());
+		Files.deleteIfExists(file);
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public long getTableBytes() {
+		return tableBytes;
+	}
+
+	public long getAnalyzedAt() {
+		return analyzedAt;
+	}
+
+	public Column getColumn(int index) {
+		return columns[index];
+	}
+
+	/**
+	 * @return The average number of bytes of a stored row.
+	 */
+	public double getAverageRowWidth() {
+		double width = 1;
+		for (Column column : columns) {
+			width += (column.averageWidth + 1) * (1 - column.nullFraction);
+		}
+		return width;
+	}
+
+	/**
+	 * Estimate the part of the rows that satisfy `column operator value`.
+	 *
+	 * @param column   The index of the column.
+	 * @param operator One of `=`, `!=`, `<>`, `<`, `<=`, `>`, `>=` and `BETWEEN`.
+	 * @param value    The value, without quotes.
+	 * @param upper    The second value of BETWEEN.
+	 * @return The part of the rows, from 0 to 1.
+	 */
+	public double selectivity(int column, String operator, String value, String upper) {
+		Column statistics = columns[column];
+		double present = 1 - statistics.nullFraction;
+		double equal = equalFraction(column, value);
+		double selectivity;
+		switch (operator) {
+			case "=":
+				selectivity = equal;
+				break;
+			case "!=":
+			case "<>":
+				selectivity = present - equal;
+				break;
+			case "<":
+				selectivity = present * lessFraction(column, value);
+				break;
+			case "<=":
+				selectivity = present * lessFraction(column, value) + equal;
+				break;
+			case ">":
+				selectivity = present * (1 - lessFraction(column, value)) - equal;
+				break;
+			case ">=":
+				selectivity = present * (1 - lessFraction(column, value));
+				break;
+			case "BETWEEN":
+				selectivity = present * (lessFraction(column, upper) - lessFraction(column, value)) + equalFraction(column, upper);
+				break;
+			default:
+				selectivity = present;
+		}
+		return Math.max(0, Math.min(1, selectivity));
+	}
+
+	/**
+	 * The part of the rows equal to a value: the values are taken as equally common.
+	 */
+	private double equalFraction(int column, String value) {
+		Column statistics = columns[column];
+		String[] bounds = statistics.bounds;
+		if (statistics.distinct == 0 || bounds.length == 0) {
+			return 0;
+		}
+		if (metadata.compareValues(column, value, bounds[0]) < 0 || metadata.compareValues(column, value, bounds[bounds.length - 1]) > 0) {
+			return 0;
+		}
+		return (1 - statistics.nullFraction) / statistics.distinct;
+	}
+
+	/**
+	 * The part of the values lower than a value, from the histogram. Within a bucket numbers are
+	 * taken as spread evenly, for text the middle of the bucket is used.
+	 */
+	private double lessFraction(int column, String value) {
+		String[] bounds = columns[column].bounds;
+		int buckets = bounds.length - 1;
+		if (buckets < 1) {
+			return 0.5;
+		}
+		if (metadata.compareValues(column, value, bounds[0]) <= 0) {
+			return 0;
+		}
+		if (metadata.compareValues(column, value, bounds[buckets]) > 0) {
+			return 1;
+		}
+		int bucket = 0;
+		while (bucket < buckets - 1 && metadata.compareValues(column, value, bounds[bucket + 1]) > 0) {
+			bucket++;
+		}
+		double within = 0.5;
+		if (metadata.isIntColumn(column)) {
+			try {
+				double low = Long.parseLong(bounds[bucket]);
+				double high = Long.parseLong(bounds[bucket + 1]);
+				double number = Long.parseLong(TableMetadata.unquote(value));
+				within = high > low ? Math.max(0, Math.min(1, (number - low) / (high - low))) : 1;
+			} catch (NumberFormatException e) {
+				// text in an integer column, keep the middle
+			}
+		}
+		return (bucket + within) / buckets;
+	}
+}
@@ -0,0 +1,346 @@
+package com.kendb.query;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import com.kendb.catalog.TableMetadata;
+import com.kendb.catalog.TableStatistics;
+import com.kendb.storage.BloomIndex;
+import com.kendb.storage.CompressedTable;
+import com.kendb.storage.MemoryTable;
+import com.kendb.storage.PartitionedTable;
+import com.kendb.storage.TableFile;
+import com.kendb.storage.Tombstones;
+import com.kendb.storage.ZoneMap;
+
+/**
+ * The `CostModel` chooses how a statement reads its tables. The cost of a plan is counted in bytes
+ * read, a row that is made and tested costs like `kendb.cost.rowBytes` bytes.
+ * The number of rows comes from the zone maps, so it follows the table as it grows, and the part
+ * of the rows a condition keeps comes from the statistics of ANALYZE, or from fixed guesses without them.
+ */
+public class CostModel {
+
+	static double ROW_COST = Double.parseDouble(System.getProperty("kendb.cost.rowBytes", "40")); // cost of making and testing a row
+	static double BLOCK_COST = 64; // cost of checking the filters of a block and moving to it
+	static double HASH_COST = 2; // cost of adding a row to a hash table, times the row cost
+	static double EQUAL_GUESS = 0.005; // part of the rows equal to a value when there are no statistics
+	static double RANGE_GUESS = 0.33; // part of the rows in a range when there are no statistics
+
+	/**
+	 * The `ScanPlan` is the chosen way to read the matching rows of one table.
+	 */
+	public static class ScanPlan {
+		String tableName;
+		TableStatistics statistics;
+		long rows;
+		double selectivity;
+		int partitions = 1;
+		int readPartitions = 1;
+		boolean fullScan;
+		boolean bloomLookup;
+		String bloomColumns = "";
+		boolean memory;
+		String indexColumn;
+		double scanCost;
+		double bloomCost = -1;
+
+		public long getRows() {
+			return rows;
+		}
+
+		public boolean isBloomLookup() {
+			return bloomLookup;
+		}
+
+		public double getCost() {
+			return bloomLookup ? bloomCost : scanCost;
+		}
+
+		/**
+		 * @return The plan as a line for EXPLAIN.
+		 */
+		public String describe() {
+			StringBuilder line = new StringBuilder(tableName).append(": ");
+			line.append(fullScan ? "full scan" : indexColumn != null ? "hash index lookup on " + indexColumn
+					: memory ? "scan in memory" : bloomLookup ? "Bloom filter lookup on " + bloomColumns : "scan with zone maps");
+			if (partitions > 1) {
+				line.append(", ").append(readPartitions).append(" of ").append(partitions).append(" partitions");
+			}
+			line.append(String.format(", about %d of %d rows, cost %.0f", Math.round(rows * selectivity), rows, getCost()));
+			if (bloomCost >= 0 && !bloomLookup) {
+				line.append(String.format(" (Bloom filter lookup %.0f)", bloomCost));
+			} else if (bloomLookup) {
+				line.append(String.format(" (scan %.0f)", scanCost));
+			}
+			if (statistics == null) {
+				line.append(", no statistics");
+			}
+			return line.toString();
+		}
+	}
+
+	/**
+	 * The `JoinPlan` is the chosen way to run a hash join.
+	 */
+	public static class JoinPlan {
+		String leftName;
+		String rightName;
+		long leftRows;
+		long rightRows;
+		boolean buildLeft;
+		boolean spill;
+		double cost;
+		double otherCost;
+
+		public boolean isBuildLeft() {
+			return buildLeft;
+		}
+
+		public boolean isSpill() {
+			return spill;
+		}
+
+		/**
+		 * @return The plan as a line for EXPLAIN.
+		 */
+		public String describe() {
+			String build = buildLeft ? leftName : rightName;
+			String probe = buildLeft ? rightName : leftName;
+			return String.format("Hash join: build %s (about %d rows)%s, probe %s (about %d rows), cost %.0f (other side %.0f)",
+					build, buildLeft ? leftRows : rightRows, spill ? " in partitions on disk" : " in memory",
+					probe, buildLeft ? rightRows : leftRows, cost, otherCost);
+		}
+	}
+
+	/**
+	 * Choose how to read the rows of a table that match a condition and prepare the condition for it:
+	 * the conditions that keep the fewest rows are tested first, and the Bloom filters are only read
+	 * if they skip enough blocks to pay for themselves.
+	 *
+	 * @param table     The table.
+	 * @param condition The condition, it is changed to follow the plan, `null` to read every row.
+	 * @return The plan.
+	 * @throws IOException If the table cannot be read.
+	 */
+	public static ScanPlan planScan(TableFile table, Predicate condition) throws IOException {
+		TableMetadata metadata = table.getMetadata();
+		ScanPlan plan = new ScanPlan();
+		plan.tableName = metadata.getTableName();
+		plan.statistics = TableStatistics.of(table);
+		plan.rows = estimateRows(table);
+		plan.selectivity = 1;
+		plan.fullScan = condition == null;
+		if (condition != null) {
+			condition.orderBySelectivity(plan.statistics);
+			plan.selectivity = condition.selectivity(plan.statistics);
+		}
+
+		double bytes = TableStatistics.tableBytes(table);
+		double partitionPart = 1;
+		if (table instanceof PartitionedTable) {
+			plan.partitions = table.getPartitions().size();
+			plan.readPartitions = condition == null ? plan.partitions : ((PartitionedTable) table).getPartitioning().select(condition).cardinality();
+			partitionPart = (double) plan.readPartitions / plan.partitions;
+		}
+		double rows = plan.rows * partitionPart;
+		plan.scanCost = bytes * partitionPart + rows * ROW_COST;
+		if (table instanceof MemoryTable) {
+			// no bytes are read, and an `=` on the index column makes only the rows with the value
+			MemoryTable memoryTable = (MemoryTable) table;
+			plan.memory = true;
+			List<String> values = condition == null ? null : condition.valuesOf(memoryTable.getIndexColumn());
+			plan.scanCost = rows * ROW_COST;
+			if (values != null) {
+				plan.indexColumn = metadata.getColumnNames()[memoryTable.getIndexColumn()];
+				plan.scanCost = values.size() * HASH_COST * ROW_COST + rows * plan.selectivity * ROW_COST;
+			}
+		}
+
+		// every partition has its own filters on the same columns
+		BloomIndex bloomIndex = null;
+		long bloomBytes = 0;
+		for (TableFile partition : table.getPartitions()) {
+			BloomIndex header = BloomIndex.loadHeader(partition.getPath());
+			if (header != null) {
+				bloomIndex = header;
+				bloomBytes += header.getFileSize();
+			}
+		}
+		// a group of OR needs an `=` on a column with Bloom filters to skip blocks
+		if (bloomIndex != null && condition != null) {
+			int[] bloomColumns = bloomIndex.getColumns();
+			double blocks = Math.max(1, rows / ZoneMap.BLOCK_ROWS);
+			double readPart = 0;
+			Set<String> used = new LinkedHashSet<>();
+			for (List<Predicate.Condition> group : condition.anyOf) {
+				double groupPart = 1;
+				for (Predicate.Condition test : group) {
+					if (test.operator.equals("=") && contains(bloomColumns, test.column)) {
+						// matching rows spread over the blocks, plus the false positives
+						double matches = rows * selectivity(test, plan.statistics);
+						double part = Math.min(1, 1 - Math.exp(-matches / blocks) + bloomIndex.getFalsePositiveRate());
+						if (part < groupPart) {
+							groupPart = part;
+							used.add(metadata.getColumnNames()[test.column]);
+						}
+					}
+				}
+				readPart += groupPart;
+			}
+			if (!used.isEmpty()) {
+				plan.bloomColumns = String.join(", ", used);
+				plan.bloomCost = bloomBytes * partitionPart + blocks * BLOCK_COST + Math.min(1, readPart) * plan.scanCost;
+				plan.bloomLookup = plan.bloomCost < plan.scanCost;
+			}
+		}
+		if (condition != null) {
+			condition.useBloomFilters = plan.bloomLookup;
+		}
+		return plan;
+	}
+
+	/**
+	 * Choose the build side of a hash join and whether it has to be split on disk, by the cost of
+	 * both ways. A side whose join column is its only primary key and is referenced by a foreign key
+	 * of the other side is expected to have one row per key, which makes its hash table smaller.
+	 * Keys are not enforced, so this only changes the estimate and the join still keeps every row.
+	 *
+	 * @param left        The left table.
+	 * @param leftColumn  The join column of the left table.
+	 * @param right       The right table.
+	 * @param rightColumn The join column of the right table.
+	 * @param memoryRows  The most rows of the build side kept in memory.
+	 * @return The plan.
+	 * @throws IOException If a table cannot be read.
+	 */
+	public static JoinPlan planJoin(TableFile left, String leftColumn, TableFile right, String rightColumn, int memoryRows) throws IOException {
+		TableMetadata leftMetadata = left.getMetadata();
+		TableMetadata rightMetadata = right.getMetadata();
+		JoinPlan plan = new JoinPlan();
+		plan.leftName = leftMetadata.getTableName();
+		plan.rightName = rightMetadata.getTableName();
+		plan.leftRows = estimateRows(left);
+		plan.rightRows = estimateRows(right);
+		double leftBytes = rowBytes(left) * plan.leftRows;
+		double rightBytes = rowBytes(right) * plan.rightRows;
+		boolean leftUnique = leftMetadata.getPrimaryKeys().size() == 1 && leftMetadata.isPrimaryKey(leftColumn)
+				&& rightMetadata.isForeignKeyTo(rightColumn, leftMetadata.getTableName(), leftColumn);
+		boolean rightUnique = rightMetadata.getPrimaryKeys().size() == 1 && rightMetadata.isPrimaryKey(rightColumn)
+				&& leftMetadata.isForeignKeyTo(leftColumn, rightMetadata.getTableName(), rightColumn);
+
+		double buildLeftCost = joinCost(plan.leftRows, leftBytes, leftUnique, plan.rightRows, rightBytes, memoryRows);
+		double buildRightCost = joinCost(plan.rightRows, rightBytes, rightUnique, plan.leftRows, leftBytes, memoryRows);
+		plan.buildLeft = buildLeftCost <= buildRightCost;
+		plan.cost = Math.min(buildLeftCost, buildRightCost);
+		plan.otherCost = Math.max(buildLeftCost, buildRightCost);
+		plan.spill = (plan.buildLeft ? plan.leftRows : plan.rightRows) > memoryRows;
+		return plan;
+	}
+
+	/**
+	 * Both tables are read once. A build side that does not fit in memory is written to partition
+	 * files with the probe side and read again.
+	 */
+	private static double joinCost(long buildRows, double buildBytes, boolean unique, long probeRows, double probeBytes, int memoryRows) {
+		double cost = buildBytes + probeBytes + buildRows * ROW_COST * (unique ? HASH_COST * 0.75 : HASH_COST) + probeRows * ROW_COST;
+		if (buildRows > memoryRows) {
+			cost += 2 * (buildBytes + probeBytes) + (buildRows + probeRows) * ROW_COST;
+		}
+		return cost;
+	}
+
+	/**
+	 * The average bytes of a row, from the statistics or from the size of the table.
+	 */
+	private static double rowBytes(TableFile table) throws IOException {
+		TableStatistics statistics = TableStatistics.of(table);
+		if (statistics != null) {
+			return statistics.getAverageRowWidth();
+		}
+		long rows = estimateRows(table);
+		return rows == 0 ? 1 : (double) TableStatistics.tableBytes(table) / rows;
+	}
+
+	/**
+	 * The part of the rows a condition keeps, from the statistics or a fixed guess.
+	 */
+	static double selectivity(Predicate.Condition condition, TableStatistics statistics) {
+		if (statistics != null) {
+			return statistics.selectivity(condition.column, condition.operator, condition.value, condition.upper);
+		}
+		switch (condition.operator) {
+			case "=":
+				return EQUAL_GUESS;
+			case "!=":
+			case "<>":
+				return 1 - EQUAL_GUESS;
+			case "BETWEEN":
+				return RANGE_GUESS * RANGE_GUESS;
+			default:
+				return RANGE_GUESS;
+		}
+	}
+
+	/**
+	 * The number of rows of a table now: the rows of the zone maps and compressed files without the
+	 * deleted ones. A table file without a current zone map is measured by its first rows,
+	 * a memory table counts its rows.
+	 *
+	 * @param table The table, partitions included.
+	 * @return The estimated number of rows.
+	 * @throws IOException If a table file cannot be read.
+	 */
+	public static long estimateRows(TableFile table) throws IOException {
+		if (table instanceof MemoryTable) {
+			return ((MemoryTable) table).getRowCount();
+		}
+		long rows = 0;
+		for (TableFile partition : table.getPartitions()) {
+			Path path = partition.getPath();
+			ZoneMap zoneMap = ZoneMap.loadIfFresh(path, partition.getMetadata());
+			if (zoneMap == null) {
+				rows += sampleRows(path);
+				continue;
+			}
+			rows += zoneMap.getRowCount() - Tombstones.count(path);
+			if (CompressedTable.exists(path)) {
+				rows += new CompressedTable(path, partition.getMetadata()).getRowCount();
+			}
+		}
+		return Math.max(0, rows);
+	}
+
+	/**
+	 * Estimate the number of rows in a table file from its size and the first few rows.
+	 */
+	static long sampleRows(Path tableFile) throws IOException {
+		long size = Files.size(tableFile);
+		long sampledBytes = 0;
+		int sampledRows = 0;
+		try (BufferedReader reader = Files.newBufferedReader(tableFile)) {
+			String line = reader.readLine(); // header
+			while (sampledRows < 64 && (line = reader.readLine()) != null) {
+				sampledBytes += line.length() + 1;
+				sampledRows++;
+			}
+		}
+		long compressedRows = 0;
+		if (CompressedTable.exists(tableFile)) {
+			compressedRows = new CompressedTable(tableFile, TableMetadata.load(tableFile)).getRowCount();
+		}
+		if (sampledRows == 0) {
+			return compressedRows;
+		}
+		return compressedRows + size / Math.max(1, sampledBytes / sampledRows);
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
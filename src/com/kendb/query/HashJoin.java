@@ -0,0 +1,225 @@
+package com.kendb.query;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import com.kendb.catalog.TableMetadata;
+import com.kendb.storage.RowVisitor;
+import com.kendb.storage.TableFile;
+
+/**
+ * The `HashJoin` is for joining two tables on an equality condition.
+ * The side the cost model chooses is loaded into a hash table and the other side is streamed past it.
+ * When the build side does not fit in memory both sides are split into partition files
+ * on disk and every pair of partitions is joined on its own (grace hash join).
+ */
+public class HashJoin {
+
+	static int MEMORY_ROWS = Integer.getInteger("kendb.join.memoryRows", 100000); // max rows of the build side kept in memory
+	static int PARTITIONS = Integer.getInteger("kendb.join.partitions", 16); // partition files per spill
+	static int MAX_DEPTH = 3; // stop re-partitioning skewed partitions after this depth
+
+	TableFile leftTable;
+	TableFile rightTable;
+	int leftIndex;
+	int rightIndex;
+	Path tempRoot;
+	boolean buildLeft;
+	CostModel.JoinPlan plan;
+
+	/**
+	 * Receives every pair of joined rows.
+	 */
+	public interface JoinedRowConsumer {
+		void accept(String[] leftRow, String[] rightRow) throws IOException;
+	}
+
+	/**
+	 * The rows of one side of a join: a table, or a partition file of a spilled join.
+	 */
+	private interface RowSource {
+		void forEachRow(RowVisitor visitor) throws IOException;
+	}
+
+	/**
+	 * Constructor for the HashJoin, chooses the build side of the join by the cost model.
+	 *
+	 * @param left        The left table.
+	 * @param leftColumn  Join column of the left table.
+	 * @param right       The right table.
+	 * @param rightColumn Join column of the right table.
+	 * @param tempRoot    Folder to keep partition files in if the join spills.
+	 * @throws IOException If an I/O error occurs while sizing the tables.
+	 */
+	public HashJoin(TableFile left, String leftColumn, TableFile right, String rightColumn, Path tempRoot) throws IOException {
+		this.leftTable = left;
+		this.rightTable = right;
+		this.leftIndex = left.getMetadata().indexOf(leftColumn);
+		this.rightIndex = right.getMetadata().indexOf(rightColumn);
+		this.tempRoot = tempRoot;
+
+		plan = CostModel.planJoin(left, leftColumn, right, rightColumn, MEMORY_ROWS);
+		buildLeft = plan.isBuildLeft();
+	}
+
+	/**
+	 * Run the join and pass every matching pair of rows to the consumer.
+	 *
+	 * @param consumer Receives the joined rows, left row first.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void execute(JoinedRowConsumer consumer) throws IOException {
+		RowSource left = visitor -> leftTable.scan(null, visitor);
+		RowSource right = visitor -> rightTable.scan(null, visitor);
+		if (buildLeft) {
+			join(left, leftIndex, right, rightIndex, 0, consumer);
+		} else {
+			join(right, rightIndex, left, leftIndex, 0, consumer);
+		}
+	}
+
+	/**
+	 * @return `true` if the left table is kept in the hash table.
+	 */
+	public boolean isBuildLeft() {
+		return buildLeft;
+	}
+
+	public CostModel.JoinPlan getPlan() {
+		return plan;
+	}
+
+	private void join(RowSource build, int buildIndex, RowSource probe, int probeIndex,
+			int depth, JoinedRowConsumer consumer) throws IOException {
+		// a build side known to be too big is split at once instead of being loaded first
+		Map<String, List<String[]>> hashTable = depth == 0 && plan.isSpill() ? null : loadBuildSide(build, buildIndex, depth);
+		if (hashTable != null) {
+			probe.forEachRow((rowNumber, probeRow) -> {
+				if (probeRow.length <= probeIndex) {
+					return true;
+				}
+				List<String[]> matches = hashTable.get(TableMetadata.unquote(probeRow[probeIndex]));
+				if (matches == null) {
+					return true;
+				}
+				for (String[] buildRow : matches) {
+					if (buildLeft) {
+						consumer.accept(buildRow, probeRow);
+					} else {
+						consumer.accept(probeRow, buildRow);
+					}
+				}
+				return true;
+			});
+			return;
+		}
+
+		// build side is too big, spill both sides into partitions and join them pair by pair
+		Path spillFolder = tempRoot.resolve("join-" + System.nanoTime() + "-" + depth);
+		Files.createDirectories(spillFolder);
+		try {
+			Path[] buildPartitions = partition(build, buildIndex, depth, spillFolder, "build");
+			Path[] probePartitions = partition(probe, probeIndex, depth, spillFolder, "probe");
+			for (int i = 0; i < PARTITIONS; i++) {
+				if (buildPartitions[i] != null && probePartitions[i] != null) {
+					Path buildPartition = buildPartitions[i];
+					Path probePartition = probePartitions[i];
+					join(visitor -> readPartition(buildPartition, visitor), buildIndex,
+							visitor -> readPartition(probePartition, visitor), probeIndex, depth + 1, consumer);
+				}
+			}
+		} finally {
+			deleteFolder(spillFolder);
+		}
+	}
+
+	/**
+	 * Load the build side into a hash table keyed by the join value.
+	 *
+	 * @return The hash table, or `null` if the build side is larger than the memory budget.
+	 */
+	private Map<String, List<String[]>> loadBuildSide(RowSource build, int buildIndex, int depth) throws IOException {
+		Map<String, List<String[]>> hashTable = new HashMap<>();
+		int[] rows = {0};
+		build.forEachRow((rowNumber, row) -> {
+			if (row.length <= buildIndex) {
+				return true;
+			}
+			if (++rows[0] > MEMORY_ROWS && depth < MAX_DEPTH) {
+				return false;
+			}
+			// primary keys are not enforced, so every row is kept even for a key that should be unique
+			hashTable.computeIfAbsent(TableMetadata.unquote(row[buildIndex]), k -> new ArrayList<>(1)).add(row);
+			return true;
+		});
+		return rows[0] > MEMORY_ROWS && depth < MAX_DEPTH ? null : hashTable;
+	}
+
+	/**
+	 * Split the rows of a side into partition files by the hash of the join value.
+	 */
+	private Path[] partition(RowSource source, int keyIndex, int depth, Path spillFolder, String prefix) throws IOException {
+		Path[] partitions = new Path[PARTITIONS];
+		BufferedWriter[] writers = new BufferedWriter[PARTITIONS];
+		try {
+			source.forEachRow((rowNumber, row) -> {
+				if (row.length <= keyIndex) {
+					return true;
+				}
+				int p = partitionOf(TableMetadata.unquote(row[keyIndex]), depth);
+				if (writers[p] == null) {
+					partitions[p] = spillFolder.resolve(prefix + "-" + p + ".txt");
+					writers[p] = Files.newBufferedWriter(partitions[p]);
+				}
+				writers[p].write(String.join("|", row));
+				writers[p].newLine();
+				return true;
+			});
+		} finally {
+			for (BufferedWriter writer : writers) {
+				if (writer != null) {
+					writer.close();
+				}
+			}
+		}
+		return partitions;
+	}
+
+	/**
+	 * Read the rows of a partition file.
+	 */
+	private static void readPartition(Path file, RowVisitor visitor) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			String line;
+			long rowNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isBlank() && !visitor.visit(rowNumber++, line.split("\\|"))) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static int partitionOf(String key, int depth) {
+		// a different seed at every depth so a skewed partition gets split again
+		int hash = key.hashCode() ^ (depth * 0x9E3779B9);
+		hash ^= (hash >>> 16);
+		return Math.floorMod(hash, PARTITIONS);
+	}
+
+	private static void deleteFolder(Path folder) throws IOException {
+		if (!Files.exists(folder)) {
+			return;
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+			for (Path file : files) {
+				if (Files.isDirectory(file)) {
+					deleteFolder(file);
+				} else {
+					Files.delete(file);
+				}
+			}
+		}
+		Files.delete(folder);
+	}
+}
@@ -0,0 +1,630 @@
+package com.kendb.query;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.kendb.catalog.TableMetadata;
+import com.kendb.storage.BloomFilter;
+import com.kendb.storage.BloomIndex;
+import com.kendb.storage.ScanFilter;
+import com.kendb.storage.TableFile;
+import com.kendb.storage.TableLocks;
+import com.kendb.storage.ZoneMap;
+
+/**
+ * The `MaterializedView` keeps the result of a SELECT in a regular table, so reading it is a scan of
+ * the result instead of the base table. The definition is kept next to the view as `<view>.mview`.
+ * The view is kept up to date by every INSERT, UPDATE and DELETE of its base table: only the changed
+ * rows are applied to it, while the base table is locked so no change is missed.
+ * Two kinds of SELECT are supported:
+ * `SELECT * | columns FROM t [WHERE ...]` keeps the matching rows, and
+ * `SELECT [column,] COUNT(*), SUM(column) FROM t [WHERE ...] [GROUP BY column]` keeps a row per group.
+ * A view with groups always has a `count` column, so a group is removed when its last row goes.
+ */
+public class MaterializedView {
+
+	static Pattern DEFINITION = Pattern.compile("^\\s*Select (.+?) from (\\w+)(?: where (.+?))?(?: group by (\\w+))?;\\s*$", Pattern.CASE_INSENSITIVE); // view select regex
+	static Pattern AGGREGATE = Pattern.compile("(count|sum)\\s*\\(\\s*(\\*|\\w+)\\s*\\)", Pattern.CASE_INSENSITIVE); // count(*), sum(column) regex
+
+	static final int VALUE = 0; // output column kinds
+	static final int COUNT = 1;
+	static final int SUM = 2;
+
+	static Map<Path, List<MaterializedView>> views = new ConcurrentHashMap<>(); // views of every database folder, read once
+
+	String name;
+	Path viewFile;
+	Path baseFile;
+	String definition;
+	TableMetadata baseMetadata;
+	Predicate condition; // `null` for every row
+	int[] kinds; // what every column of the view holds
+	int[] columns; // the base column of every view column, -1 for COUNT
+	boolean grouped; // one row per group instead of one row per base row
+	int groupColumn = -1; // the base column of GROUP BY, -1 for a single group
+	int countColumn = -1; // the view column with the number of rows of a group
+
+	/**
+	 * Path of the file with the definition of a view.
+	 *
+	 * @param viewFile Path of the table file of the view.
+	 * @return The path of the definition file.
+	 */
+	public static Path path(Path viewFile) {
+		return ZoneMap.sidecarPath(viewFile, ".mview");
+	}
+
+	/**
+	 * @return `true` if the table is a materialized view.
+	 */
+	public static boolean isView(Path tableFile) {
+		return Files.exists(path(tableFile));
+	}
+
+	/**
+	 * The materialized views whose base is the given table.
+	 *
+	 * @param tableFile Path of the base table file.
+	 * @return The views, empty if there are none.
+	 * @throws IOException If a definition cannot be read.
+	 */
+	public static List<MaterializedView> of(Path tableFile) throws IOException {
+		Path folder = tableFile.toAbsolutePath().normalize().getParent();
+		List<MaterializedView> found = new ArrayList<>();
+		for (MaterializedView view : load(folder)) {
+			if (view.baseFile.equals(tableFile.toAbsolutePath().normalize())) {
+				found.add(view);
+			}
+		}
+		return found;
+	}
+
+	private static List<MaterializedView> load(Path folder) throws IOException {
+		List<MaterializedView> loaded = views.get(folder);
+		if (loaded != null) {
+			return loaded;
+		}
+		loaded = new ArrayList<>();
+		if (Files.isDirectory(folder)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*.mview")) {
+				for (Path file : files) {
+					List<String> lines = Files.readAllLines(file);
+					String name = file.getFileName().toString();
+					Path viewFile = file.resolveSibling(name.substring(0, name.length() - ".mview".length()) + ".txt");
+					if (lines.isEmpty() || !Files.exists(viewFile)) {
+						continue;
+					}
+					try {
+						loaded.add(parse(viewFile, String.join(" ", lines)));
+					} catch (SyntaxErrorRaiser e) {
+						// the base table changed, the view is left as it is until it is dropped
+						System.out.println("Materialized view " + viewFile.getFileName() + " is not maintained: " + e.getMessage());
+					}
+				}
+			}
+		}
+		views.put(folder, loaded);
+		return loaded;
+	}
+
+	/**
+	 * Read a view definition and check it against its base table.
+	 */
+	private static MaterializedView parse(Path viewFile, String definition) throws SyntaxErrorRaiser, IOException {
+		Matcher matcher = DEFINITION.matcher(definition);
+		if (!matcher.find()) {
+			throw new SyntaxErrorRaiser("A materialized view must be SELECT ... FROM table [WHERE ...] [GROUP BY column]");
+		}
+		MaterializedView view = new MaterializedView();
+		view.viewFile = viewFile.toAbsolutePath().normalize();
+		view.name = ZoneMap.sidecarPath(viewFile, "").getFileName().toString();
+		view.definition = definition.trim();
+		view.baseFile = view.viewFile.resolveSibling(matcher.group(2) + ".txt");
+		if (isView(view.baseFile)) {
+			throw new SyntaxErrorRaiser("A materialized view cannot be made from another view: " + matcher.group(2));
+		}
+		view.baseMetadata = Files.exists(view.baseFile) ? TableMetadata.load(view.baseFile) : null;
+		if (view.baseMetadata == null) {
+			throw new SyntaxErrorRaiser("Table " + matcher.group(2) + " does not exist.");
+		}
+		if (matcher.group(3) != null) {
+			view.condition = Predicate.parse(matcher.group(3), view.baseMetadata);
+		}
+		if (matcher.group(4) != null) {
+			view.groupColumn = view.baseMetadata.indexOf(matcher.group(4));
+			if (view.groupColumn == -1) {
+				throw new SyntaxErrorRaiser("Group by column not found: " + matcher.group(4));
+			}
+		}
+
+		List<Integer> kinds = new ArrayList<>();
+		List<Integer> columns = new ArrayList<>();
+		String selectList = matcher.group(1).trim();
+		if (selectList.equals("*")) {
+			for (int c = 0; c < view.baseMetadata.getColumnCount(); c++) {
+				kinds.add(VALUE);
+				columns.add(c);
+			}
+		} else {
+			for (String item : selectList.split(",")) {
+				item = item.trim();
+				Matcher aggregate = AGGREGATE.matcher(item);
+				if (aggregate.matches()) {
+					view.grouped = true;
+					if (aggregate.group(1).equalsIgnoreCase("count")) {
+						kinds.add(COUNT);
+						columns.add(-1);
+						continue;
+					}
+					int column = view.baseMetadata.indexOf(aggregate.group(2));
+					if (column == -1 || !view.baseMetadata.isIntColumn(column)) {
+						throw new SyntaxErrorRaiser("SUM needs an INT column: " + aggregate.group(2));
+					}
+					kinds.add(SUM);
+					columns.add(column);
+					continue;
+				}
+				int column = view.baseMetadata.indexOf(item);
+				if (column == -1) {
+					throw new SyntaxErrorRaiser("View column not found: " + item);
+				}
+				kinds.add(VALUE);
+				columns.add(column);
+			}
+		}
+		if (view.groupColumn != -1 && !view.grouped) {
+			throw new SyntaxErrorRaiser("GROUP BY needs COUNT(*) or SUM(column)");
+		}
+		if (view.grouped) {
+			for (int i = 0; i < kinds.size(); i++) {
+				if (kinds.get(i) == VALUE && columns.get(i) != view.groupColumn) {
+					throw new SyntaxErrorRaiser("Column " + view.baseMetadata.getColumnNames()[columns.get(i)] + " must be the GROUP BY column");
+				}
+			}
+			if (view.groupColumn != -1 && !columns.contains(view.groupColumn)) {
+				throw new SyntaxErrorRaiser("The GROUP BY column must be selected: " + view.baseMetadata.getColumnNames()[view.groupColumn]);
+			}
+			view.countColumn = kinds.indexOf(COUNT);
+			if (view.countColumn == -1) {
+				kinds.add(COUNT);
+				columns.add(-1);
+				view.countColumn = kinds.size() - 1;
+			}
+		}
+		view.kinds = kinds.stream().mapToInt(Integer::intValue).toArray();
+		view.columns = columns.stream().mapToInt(Integer::intValue).toArray();
+		return view;
+	}
+
+	/**
+	 * Create a view, fill it from its base table and make it maintained.
+	 *
+	 * @param viewFile   Path of the table file of the new view.
+	 * @param definition The SELECT of the view.
+	 * @return The number of rows of the view.
+	 * @throws SyntaxErrorRaiser If the definition is not supported or the view exists.
+	 * @throws IOException       If an I/O error occurs.
+	 */
+	public static long create(Path viewFile, String definition) throws SyntaxErrorRaiser, IOException {
+		if (Files.exists(viewFile)) {
+			throw new SyntaxErrorRaiser("Table exists");
+		}
+		MaterializedView view = parse(viewFile, definition);
+		Lock lock = TableLocks.of(view.baseFile).writeLock();
+		lock.lock();
+		try {
+			Files.write(viewFile, Collections.singletonList(view.header()));
+			Files.write(path(viewFile), Collections.singletonList(view.definition));
+			long rows = view.refresh();
+			if (view.groupColumn != -1) {
+				// reading one group and changing it are Bloom filter lookups
+				BloomIndex.create(TableFile.open(viewFile), new int[] {view.viewColumnOf(view.groupColumn)}, QueryChecker.BLOOM_FALSE_POSITIVE_RATE);
+			}
+			views.remove(view.viewFile.getParent());
+			return rows;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Compute a view again from its base table.
+	 *
+	 * @param viewFile Path of the table file of the view.
+	 * @return The number of rows of the view.
+	 * @throws SyntaxErrorRaiser If the table is not a materialized view.
+	 * @throws IOException       If an I/O error occurs.
+	 */
+	public static long refresh(Path viewFile) throws SyntaxErrorRaiser, IOException {
+		if (!isView(viewFile) || !Files.exists(viewFile)) {
+			throw new SyntaxErrorRaiser("Materialized view " + ZoneMap.sidecarPath(viewFile, "").getFileName() + " does not exist.");
+		}
+		// read again, the base table may have been created again since
+		MaterializedView view = parse(viewFile, String.join(" ", Files.readAllLines(path(viewFile))));
+		Lock lock = TableLocks.of(view.baseFile).writeLock();
+		lock.lock();
+		try {
+			views.remove(view.viewFile.getParent());
+			return view.refresh();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drop a view and its definition.
+	 *
+	 * @param viewFile Path of the table file of the view.
+	 * @throws SyntaxErrorRaiser If the table is not a materialized view.
+	 * @throws IOException       If an I/O error occurs.
+	 */
+	public static void drop(Path viewFile) throws SyntaxErrorRaiser, IOException {
+		if (!isView(viewFile)) {
+			throw new SyntaxErrorRaiser("Materialized view " + ZoneMap.sidecarPath(viewFile, "").getFileName() + " does not exist.");
+		}
+		Files.deleteIfExists(viewFile);
+		TableFile.deleteSidecars(viewFile);
+		Files.delete(path(viewFile));
+		views.remove(viewFile.toAbsolutePath().normalize().getParent());
+	}
+
+	/**
+	 * Check that a table can be dropped, a base table of a view cannot.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @throws SyntaxErrorRaiser If the table is a view or has views.
+	 * @throws IOException       If a definition cannot be read.
+	 */
+	public static void checkDrop(Path tableFile) throws SyntaxErrorRaiser, IOException {
+		if (isView(tableFile)) {
+			throw new SyntaxErrorRaiser(tableFile.getFileName() + " is a materialized view, use DROP MATERIALIZED VIEW");
+		}
+		List<MaterializedView> found = of(tableFile);
+		if (!found.isEmpty()) {
+			throw new SyntaxErrorRaiser("Table is used by materialized view " + found.get(0).name);
+		}
+	}
+
+	/**
+	 * Append rows to a table and to its views.
+	 *
+	 * @param table The table.
+	 * @param rows  The rows as they are stored.
+	 * @throws SyntaxErrorRaiser If the table is a view.
+	 * @throws IOException       If an I/O error occurs.
+	 */
+	public static void append(TableFile table, List<String> rows) throws SyntaxErrorRaiser, IOException {
+		checkWritable(table.getPath());
+		List<MaterializedView> found = of(table.getPath());
+		if (found.isEmpty()) {
+			table.append(rows);
+			return;
+		}
+		Lock lock = TableLocks.of(table.getPath()).writeLock();
+		lock.lock();
+		try {
+			table.append(rows);
+			List<String[]> added = new ArrayList<>();
+			for (String row : rows) {
+				added.add(row.split("\\|"));
+			}
+			for (MaterializedView view : found) {
+				view.apply(added, Collections.emptyList());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Delete the matching rows of a table and remove them from its views.
+	 *
+	 * @param table     The table.
+	 * @param condition The condition of the rows.
+	 * @return The number of deleted rows.
+	 * @throws SyntaxErrorRaiser If the table is a view.
+	 * @throws IOException       If an I/O error occurs.
+	 */
+	public static long delete(TableFile table, ScanFilter condition) throws SyntaxErrorRaiser, IOException {
+		checkWritable(table.getPath());
+		List<MaterializedView> found = of(table.getPath());
+		if (found.isEmpty()) {
+			return table.delete(condition);
+		}
+		Lock lock = TableLocks.of(table.getPath()).writeLock();
+		lock.lock();
+		try {
+			List<String[]> removed = new ArrayList<>();
+			table.scan(condition, (rowNumber, row) -> removed.add(row));
+			long deleted = table.delete(condition);
+			for (MaterializedView view : found) {
+				view.apply(Collections.emptyList(), removed);
+			}
+			return deleted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Change the matching rows of a table and its views.
+	 *
+	 * @param table     The table.
+	 * @param condition The condition of the rows.
+	 * @param change    Gives the new values of a row.
+	 * @return The number of changed rows.
+	 * @throws SyntaxErrorRaiser If the table is a view.
+	 * @throws IOException       If an I/O error occurs.
+	 */
+	public static long update(TableFile table, ScanFilter condition, UnaryOperator<String[]> change) throws SyntaxErrorRaiser, IOException {
+		checkWritable(table.getPath());
+		List<MaterializedView> found = of(table.getPath());
+		if (found.isEmpty()) {
+			return table.update(condition, change);
+		}
+		Lock lock = TableLocks.of(table.getPath()).writeLock();
+		lock.lock();
+		try {
+			List<String[]> removed = new ArrayList<>();
+			table.scan(condition, (rowNumber, row) -> removed.add(row));
+			long changed = table.update(condition, change);
+			List<String[]> added = new ArrayList<>();
+			for (String[] row : removed) {
+				added.add(change.apply(row.clone()));
+			}
+			for (MaterializedView view : found) {
+				view.apply(added, removed);
+			}
+			return changed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Check that the rows of a table can be changed by a statement, the rows of a view cannot.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @throws SyntaxErrorRaiser If the table is a materialized view.
+	 */
+	public static void checkWritable(Path tableFile) throws SyntaxErrorRaiser {
+		if (isView(tableFile)) {
+			throw new SyntaxErrorRaiser(ZoneMap.sidecarPath(tableFile, "").getFileName() + " is a materialized view, use REFRESH MATERIALIZED VIEW");
+		}
+	}
+
+	/**
+	 * The header of the table of the view.
+	 */
+	private String header() {
+		StringBuilder header = new StringBuilder(name).append("(");
+		for (int i = 0; i < kinds.length; i++) {
+			if (i > 0) {
+				header.append(",");
+			}
+			if (kinds[i] == VALUE) {
+				header.append(baseMetadata.getColumnNames()[columns[i]]).append(":").append(baseMetadata.getColumnType(columns[i]));
+			} else if (kinds[i] == COUNT) {
+				header.append("count:INT");
+			} else {
+				header.append("sum_").append(baseMetadata.getColumnNames()[columns[i]]).append(":INT");
+			}
+		}
+		return header.append(")").toString();
+	}
+
+	private int viewColumnOf(int baseColumn) {
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i] == VALUE && columns[i] == baseColumn) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Write all rows of the view again from its base table, called with the base table locked.
+	 */
+	private long refresh() throws IOException {
+		List<String> rows = new ArrayList<>();
+		if (grouped) {
+			Map<String, long[]> groups = new LinkedHashMap<>();
+			Map<String, String> groupValues = new HashMap<>();
+			if (groupColumn == -1) {
+				groups.put("", new long[kinds.length]);
+			}
+			TableFile.open(baseFile).scan(condition, (rowNumber, row) -> {
+				addToGroups(groups, groupValues, row, 1);
+				return true;
+			});
+			for (Map.Entry<String, long[]> group : groups.entrySet()) {
+				rows.add(String.join("|", groupRow(groupValues.get(group.getKey()), group.getValue())));
+			}
+		} else {
+			TableFile.open(baseFile).scan(condition, (rowNumber, row) -> rows.add(String.join("|", project(row))));
+		}
+		TableFile.open(viewFile).rewrite(rows);
+		return rows.size();
+	}
+
+	/**
+	 * Apply the rows added to and removed from the base table.
+	 */
+	private void apply(List<String[]> added, List<String[]> removed) throws IOException {
+		TableFile view = TableFile.open(viewFile);
+		if (!grouped) {
+			Map<String, Integer> removeCounts = new HashMap<>();
+			for (String[] row : removed) {
+				if (condition == null || condition.test(row)) {
+					removeCounts.merge(String.join("|", project(row)), 1, Integer::sum);
+				}
+			}
+			if (!removeCounts.isEmpty()) {
+				// equal rows are all the same, so any of them can go
+				view.delete(new RowFilter(view, -1, removeCounts.keySet()), row -> {
+					String key = String.join("|", pad(row, kinds.length));
+					Integer count = removeCounts.get(key);
+					if (count == null || count == 0) {
+						return false;
+					}
+					removeCounts.put(key, count - 1);
+					return true;
+				});
+			}
+			List<String> newRows = new ArrayList<>();
+			for (String[] row : added) {
+				if (condition == null || condition.test(row)) {
+					newRows.add(String.join("|", project(row)));
+				}
+			}
+			if (!newRows.isEmpty()) {
+				view.append(newRows);
+			}
+			return;
+		}
+
+		Map<String, long[]> deltas = new LinkedHashMap<>();
+		Map<String, String> groupValues = new HashMap<>();
+		for (String[] row : removed) {
+			if (condition == null || condition.test(row)) {
+				addToGroups(deltas, groupValues, row, -1);
+			}
+		}
+		for (String[] row : added) {
+			if (condition == null || condition.test(row)) {
+				addToGroups(deltas, groupValues, row, 1);
+			}
+		}
+		deltas.values().removeIf(delta -> Arrays.stream(delta).allMatch(value -> value == 0));
+		if (deltas.isEmpty()) {
+			return;
+		}
+		int groupIndex = groupColumn == -1 ? -1 : viewColumnOf(groupColumn);
+		Set<String> changed = new HashSet<>();
+		boolean[] emptied = {false};
+		view.update(new RowFilter(view, groupIndex, deltas.keySet()), row -> {
+			String key = groupIndex == -1 ? "" : groupKey(groupIndex < row.length ? row[groupIndex] : "");
+			long[] delta = deltas.get(key);
+			String[] newRow = Arrays.copyOf(row, kinds.length);
+			for (int i = 0; i < kinds.length; i++) {
+				if (kinds[i] != VALUE) {
+					newRow[i] = Long.toString(number(newRow[i]) + delta[i]);
+				}
+			}
+			changed.add(key);
+			emptied[0] |= groupIndex != -1 && number(newRow[countColumn]) <= 0;
+			return newRow;
+		});
+		if (emptied[0]) {
+			view.delete(new RowFilter(view, groupIndex, deltas.keySet()), row -> number(row[countColumn]) <= 0);
+		}
+		List<String> newRows = new ArrayList<>();
+		for (Map.Entry<String, long[]> group : deltas.entrySet()) {
+			if (!changed.contains(group.getKey()) && group.getValue()[countColumn] > 0) {
+				newRows.add(String.join("|", groupRow(groupValues.get(group.getKey()), group.getValue())));
+			}
+		}
+		if (!newRows.isEmpty()) {
+			view.append(newRows);
+		}
+	}
+
+	private void addToGroups(Map<String, long[]> groups, Map<String, String> groupValues, String[] row, int sign) {
+		String value = groupColumn == -1 || groupColumn >= row.length ? "" : row[groupColumn];
+		String key = groupColumn == -1 ? "" : groupKey(value);
+		groupValues.putIfAbsent(key, value);
+		long[] group = groups.computeIfAbsent(key, k -> new long[kinds.length]);
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i] == COUNT) {
+				group[i] += sign;
+			} else if (kinds[i] == SUM) {
+				group[i] += sign * (columns[i] < row.length ? number(row[columns[i]]) : 0);
+			}
+		}
+	}
+
+	private String[] groupRow(String groupValue, long[] values) {
+		String[] row = new String[kinds.length];
+		for (int i = 0; i < kinds.length; i++) {
+			row[i] = kinds[i] == VALUE ? (groupValue == null ? "" : groupValue) : Long.toString(values[i]);
+		}
+		return row;
+	}
+
+	private String[] project(String[] row) {
+		String[] projected = new String[kinds.length];
+		for (int i = 0; i < kinds.length; i++) {
+			projected[i] = columns[i] < row.length ? row[columns[i]] : "";
+		}
+		return projected;
+	}
+
+	/**
+	 * Groups are equal the way WHERE compares them: without quotes and case.
+	 */
+	private String groupKey(String value) {
+		return BloomFilter.key(baseMetadata, groupColumn, value);
+	}
+
+	private static long number(String value) {
+		try {
+			return Long.parseLong(TableMetadata.unquote(value == null ? "" : value));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * The `RowFilter` finds the rows of a view with one of the given keys. Blocks are skipped with
+	 * the Bloom filter of the group column, so changing a group is a lookup.
+	 */
+	class RowFilter implements ScanFilter {
+		TableMetadata viewMetadata;
+		int keyColumn; // the view column of the group, -1 to compare whole rows
+		Set<String> keys;
+
+		RowFilter(TableFile view, int keyColumn, Set<String> keys) {
+			this.viewMetadata = view.getMetadata();
+			this.keyColumn = keyColumn;
+			this.keys = keys;
+		}
+
+		@Override
+		public boolean mayMatch(ZoneMap.Block block) {
+			BloomFilter filter = keyColumn == -1 ? null : block.getBloomFilter(keyColumn);
+			if (filter == null) {
+				return true;
+			}
+			for (String key : keys) {
+				if (filter.mightContain(BloomFilter.key(viewMetadata, keyColumn, key))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean test(String[] row) {
+			if (!grouped) {
+				return keys.contains(String.join("|", pad(row, kinds.length)));
+			}
+			return keyColumn == -1 || keys.contains(groupKey(keyColumn < row.length ? row[keyColumn] : ""));
+		}
+	}
+
+	/**
+	 * Values at the end of a row that are empty are not stored, add them back.
+	 */
+	static String[] pad(String[] row, int length) {
+		String[] padded = Arrays.copyOf(row, length);
+		for (int i = row.length; i < length; i++) {
+			padded[i] = "";
+		}
+		return padded;
+	}
+}
@@ -0,0 +1,450 @@
+package com.kendb.query;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.LongPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.kendb.catalog.TableMetadata;
+import com.kendb.catalog.TableStatistics;
+import com.kendb.storage.BloomFilter;
+import com.kendb.storage.ColumnBlock;
+import com.kendb.storage.ScanFilter;
+import com.kendb.storage.ZoneMap;
+
+/**
+ * The `Predicate` is for the condition after WHERE.
+ * It supports `=`, `!=`, `<`, `<=`, `>`, `>=` and `BETWEEN`, joined with AND and OR.
+ * AND binds stronger than OR, like in SQL.
+ */
+public class Predicate implements ScanFilter {
+
+	static Pattern BETWEEN = Pattern.compile("\\s*(\\w+)\\s+between\\s+('[^']*'|[^\\s']+)\\s+and\\s+('[^']*'|[^\\s']+)", Pattern.CASE_INSENSITIVE); // between regex
+	static Pattern COMPARISON = Pattern.compile("\\s*(\\w+)\\s*(<=|>=|<>|!=|=|<|>)\\s*('[^']*'|[^\\s']+)", Pattern.CASE_INSENSITIVE); // comparison regex
+	static Pattern CONNECTOR = Pattern.compile("\\s+(and|or)\\s+", Pattern.CASE_INSENSITIVE); // and, or regex
+
+	TableMetadata metadata;
+	List<List<Condition>> anyOf = new ArrayList<>(); // OR of groups, every group is an AND of conditions
+	boolean useBloomFilters = true; // set by the cost model when the filters cost more than they save
+
+	/**
+	 * One comparison of a column with a value.
+	 */
+	static class Condition {
+		int column;
+		String operator;
+		String value;
+		String upper; // second value of BETWEEN
+		LongPredicate numberTest; // same condition on numbers, for integer columns of compressed blocks
+		byte[] text; // the value in lower case for comparing stored bytes, `null` if it is not ASCII
+
+		Condition(int column, String operator, String value, String upper) {
+			this.column = column;
+			this.operator = operator;
+			this.value = TableMetadata.unquote(value);
+			this.upper = upper == null ? null : TableMetadata.unquote(upper);
+		}
+	}
+
+	/**
+	 * Parse the condition after WHERE.
+	 *
+	 * @param clause   The condition text.
+	 * @param metadata The metadata of the table.
+	 * @return The parsed predicate.
+	 * @throws SyntaxErrorRaiser If the condition is invalid or a column does not exist.
+	 */
+	public static Predicate parse(String clause, TableMetadata metadata) throws SyntaxErrorRaiser {
+		Predicate predicate = new Predicate();
+		predicate.metadata = metadata;
+		List<Condition> group = new ArrayList<>();
+		predicate.anyOf.add(group);
+		int position = 0;
+		while (true) {
+			Matcher between = BETWEEN.matcher(clause).region(position, clause.length());
+			Matcher comparison = COMPARISON.matcher(clause).region(position, clause.length());
+			Matcher found;
+			if (between.lookingAt()) {
+				found = between;
+			} else if (comparison.lookingAt()) {
+				found = comparison;
+			} else {
+				throw new SyntaxErrorRaiser("Invalid where condition: " + clause.trim());
+			}
+			int column = metadata.indexOf(found.group(1));
+			if (column == -1) {
+				throw new SyntaxErrorRaiser("Condition column not found: " + found.group(1));
+			}
+			Condition condition;
+			if (found == between) {
+				condition = new Condition(column, "BETWEEN", found.group(2), found.group(3));
+			} else {
+				condition = new Condition(column, found.group(2), found.group(3), null);
+			}
+			if (metadata.isIntColumn(column)) {
+				condition.numberTest = numberTest(condition);
+			}
+			if (condition.value.chars().allMatch(c -> c < 128)) {
+				condition.text = condition.value.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+			}
+			group.add(condition);
+			position = found.end();
+
+			if (clause.substring(position).isBlank()) {
+				return predicate;
+			}
+			Matcher connector = CONNECTOR.matcher(clause).region(position, clause.length());
+			if (!connector.lookingAt()) {
+				throw new SyntaxErrorRaiser("Invalid where condition: " + clause.trim());
+			}
+			if (connector.group(1).equalsIgnoreCase("or")) {
+				group = new ArrayList<>();
+				predicate.anyOf.add(group);
+			}
+			position = connector.end();
+		}
+	}
+
+	/**
+	 * Check a row against the predicate.
+	 *
+	 * @param row The row values.
+	 * @return `true` if the row matches.
+	 */
+	@Override
+	public boolean test(String[] row) {
+		for (List<Condition> group : anyOf) {
+			boolean groupMatches = true;
+			for (Condition condition : group) {
+				if (!test(condition, row)) {
+					groupMatches = false;
+					break;
+				}
+			}
+			if (groupMatches) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check the min and max values of a block against the predicate.
+	 *
+	 * @param block The block statistics.
+	 * @return `false` if no row of the block can match.
+	 */
+	@Override
+	public boolean mayMatch(ZoneMap.Block block) {
+		for (List<Condition> group : anyOf) {
+			boolean groupMayMatch = true;
+			for (Condition condition : group) {
+				if (!mayMatch(condition, block)) {
+					groupMayMatch = false;
+					break;
+				}
+			}
+			if (groupMayMatch) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check the bytes of a stored row. A condition is decided on the bytes when it can be:
+	 * numbers in integer columns and `=`, `!=` or `<>` on ASCII text. The row is skipped
+	 * only if every OR group has a condition that is false.
+	 */
+	@Override
+	public boolean mayMatchRow(ByteBuffer bytes, int start, int end) {
+		for (List<Condition> group : anyOf) {
+			boolean groupMayMatch = true;
+			for (Condition condition : group) {
+				if (testBytes(condition, bytes, start, end) == 0) {
+					groupMayMatch = false;
+					break;
+				}
+			}
+			if (groupMayMatch) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Choose the rows of a compressed block. Every condition runs on the encoded column,
+	 * so dictionary columns compare codes and integer columns compare numbers.
+	 *
+	 * @param block The decoded block.
+	 * @return The matching rows of the block.
+	 */
+	@Override
+	public BitSet select(ColumnBlock block) {
+		BitSet selected = new BitSet(block.getRowCount());
+		for (List<Condition> group : anyOf) {
+			BitSet groupRows = new BitSet(block.getRowCount());
+			groupRows.set(0, block.getRowCount());
+			for (Condition condition : group) {
+				groupRows.and(block.match(condition.column, condition.numberTest, value -> test(condition, value)));
+				if (groupRows.isEmpty()) {
+					break;
+				}
+			}
+			selected.or(groupRows);
+		}
+		return selected;
+	}
+
+	/**
+	 * The values a column has in every matching row: every OR group must compare the column with `=`.
+	 *
+	 * @param column The index of the column.
+	 * @return The values, or `null` if a matching row can have any value.
+	 */
+	@Override
+	public List<String> valuesOf(int column) {
+		List<String> values = new ArrayList<>();
+		for (List<Condition> group : anyOf) {
+			String value = null;
+			for (Condition condition : group) {
+				if (condition.column == column && condition.operator.equals("=")) {
+					value = condition.value;
+					break;
+				}
+			}
+			if (value == null) {
+				return null;
+			}
+			values.add(value);
+		}
+		return values;
+	}
+
+	@Override
+	public boolean useBloomFilters() {
+		return useBloomFilters;
+	}
+
+	/**
+	 * Estimate the part of the rows that match.
+	 *
+	 * @param statistics The statistics of the table, or `null` to guess.
+	 * @return The part of the rows, from 0 to 1.
+	 */
+	public double selectivity(TableStatistics statistics) {
+		double none = 1;
+		for (List<Condition> group : anyOf) {
+			double all = 1;
+			for (Condition condition : group) {
+				all *= CostModel.selectivity(condition, statistics);
+			}
+			none *= 1 - all;
+		}
+		return 1 - none;
+	}
+
+	/**
+	 * Test the conditions of every AND group that keep the fewest rows first, so most rows fail early.
+	 *
+	 * @param statistics The statistics of the table, or `null` to guess.
+	 */
+	public void orderBySelectivity(TableStatistics statistics) {
+		for (List<Condition> group : anyOf) {
+			group.sort(Comparator.comparingDouble(condition -> CostModel.selectivity(condition, statistics)));
+		}
+	}
+
+	/**
+	 * @return The conditions in the order they are tested.
+	 */
+	public String describe() {
+		StringJoiner groups = new StringJoiner(" OR ");
+		for (List<Condition> group : anyOf) {
+			StringJoiner conditions = new StringJoiner(" AND ");
+			for (Condition condition : group) {
+				String column = metadata.getColumnNames()[condition.column];
+				conditions.add(condition.operator.equals("BETWEEN")
+						? column + " BETWEEN " + condition.value + " AND " + condition.upper
+						: column + " " + condition.operator + " " + condition.value);
+			}
+			groups.add(conditions.toString());
+		}
+		return groups.toString();
+	}
+
+	private boolean test(Condition condition, String[] row) {
+		return row.length > condition.column && test(condition, row[condition.column]);
+	}
+
+	private boolean test(Condition condition, String cell) {
+		int compared = metadata.compareValues(condition.column, cell, condition.value);
+		switch (condition.operator) {
+			case "=":
+				return compared == 0;
+			case "!=":
+			case "<>":
+				return compared != 0;
+			case "<":
+				return compared < 0;
+			case "<=":
+				return compared <= 0;
+			case ">":
+				return compared > 0;
+			case ">=":
+				return compared >= 0;
+			case "BETWEEN":
+				return compared >= 0 && metadata.compareValues(condition.column, cell, condition.upper) <= 0;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Check a condition on the bytes of a row without making its values.
+	 *
+	 * @return 1 if the condition is true, 0 if it is false, -1 if it has to be checked on the values.
+	 */
+	private static int testBytes(Condition condition, ByteBuffer bytes, int start, int end) {
+		// find the value of the column between the separators
+		int from = start;
+		for (int column = 0; column < condition.column; column++) {
+			while (from < end && bytes.get(from) != '|') {
+				from++;
+			}
+			if (from == end) {
+				// the row has fewer values
+				return 0;
+			}
+			from++;
+		}
+		int to = from;
+		while (to < end && bytes.get(to) != '|') {
+			to++;
+		}
+		// like `unquote`: quotes are removed, then spaces around the value
+		while (from < to && (bytes.get(from) == '\'' || (bytes.get(from) & 0xFF) <= ' ')) {
+			from++;
+		}
+		while (to > from && (bytes.get(to - 1) == '\'' || (bytes.get(to - 1) & 0xFF) <= ' ')) {
+			to--;
+		}
+		if (from == to) {
+			// empty trailing values are dropped when the row is split
+			return -1;
+		}
+		if (condition.numberTest != null) {
+			long number = 0;
+			int digits = 0;
+			boolean negative = false;
+			for (int i = from; i < to; i++) {
+				byte b = bytes.get(i);
+				if (b >= '0' && b <= '9' && digits < 18) {
+					number = number * 10 + (b - '0');
+					digits++;
+				} else if ((b == '-' || b == '+') && i == from) {
+					negative = b == '-';
+				} else if (b != '\'') {
+					return -1;
+				}
+			}
+			if (digits == 0) {
+				return -1;
+			}
+			return condition.numberTest.test(negative ? -number : number) ? 1 : 0;
+		}
+		boolean equals = condition.operator.equals("=");
+		if (condition.text == null || !(equals || condition.operator.equals("!=") || condition.operator.equals("<>"))) {
+			return -1;
+		}
+		int matched = 0;
+		boolean same = true;
+		for (int i = from; i < to; i++) {
+			byte b = bytes.get(i);
+			if (b < 0) {
+				// other characters can equal ASCII letters ignoring case
+				return -1;
+			}
+			if (b == '\'') {
+				continue;
+			}
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (matched >= condition.text.length || condition.text[matched] != b) {
+				same = false;
+			}
+			matched++;
+		}
+		same = same && matched == condition.text.length;
+		return same == equals ? 1 : 0;
+	}
+
+	/**
+	 * Build the condition on numbers, or `null` if the values are not numbers.
+	 */
+	private static LongPredicate numberTest(Condition condition) {
+		long value;
+		long upper;
+		try {
+			value = Long.parseLong(condition.value);
+			upper = condition.upper == null ? 0 : Long.parseLong(condition.upper);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		switch (condition.operator) {
+			case "=":
+				return number -> number == value;
+			case "!=":
+			case "<>":
+				return number -> number != value;
+			case "<":
+				return number -> number < value;
+			case "<=":
+				return number -> number <= value;
+			case ">":
+				return number -> number > value;
+			case ">=":
+				return number -> number >= value;
+			case "BETWEEN":
+				return number -> number >= value && number <= upper;
+			default:
+				return null;
+		}
+	}
+
+	private boolean mayMatch(Condition condition, ZoneMap.Block block) {
+		BloomFilter bloomFilter = block.getBloomFilter(condition.column);
+		if (bloomFilter != null && condition.operator.equals("=")
+				&& !bloomFilter.mightContain(BloomFilter.key(metadata, condition.column, condition.value))) {
+			return false;
+		}
+		String min = block.getMin(condition.column);
+		String max = block.getMax(condition.column);
+		if (min == null || max == null) {
+			return true;
+		}
+		int column = condition.column;
+		switch (condition.operator) {
+			case "=":
+				return metadata.compareValues(column, min, condition.value) <= 0 && metadata.compareValues(column, max, condition.value) >= 0;
+			case "!=":
+			case "<>":
+				return !(metadata.compareValues(column, min, condition.value) == 0 && metadata.compareValues(column, max, condition.value) == 0);
+			case "<":
+				return metadata.compareValues(column, min, condition.value) < 0;
+			case "<=":
+				return metadata.compareValues(column, min, condition.value) <= 0;
+			case ">":
+				return metadata.compareValues(column, max, condition.value) > 0;
+			case ">=":
+				return metadata.compareValues(column, max, condition.value) >= 0;
+			case "BETWEEN":
+				return metadata.compareValues(column, max, condition.value) >= 0 && metadata.compareValues(column, min, condition.upper) <= 0;
+			default:
+				return true;
+		}
+	}
+}
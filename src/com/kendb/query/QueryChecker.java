@@ -1,590 +1,1492 @@
-package com.kendb.query;
-
-import java.io.*;
-import java.nio.file.*;
-import java.util.*;
-import java.sql.Timestamp;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-
-/**
- * The `QueryChecker` is for processing and validating SQL queries.
- */
-
-public class QueryChecker {
-	
-	String DATABASE_ROOT_PATH = "src/resources/Database/"; // path for root database 
-    public static String activeDatabase = null;
-    Pattern CREATE = Pattern.compile("Create table (.*) \\(((.*) (.*)(,?)( ?))*\\);", Pattern.CASE_INSENSITIVE); // Create table regex
-    Pattern DROP = Pattern.compile("Drop table (.*);", Pattern.CASE_INSENSITIVE); // drop table regex
-    Pattern INSERT = Pattern.compile("Insert into (.*) \\((.*(,?)( ?)).*\\) values \\((.*(,?)( ?)).*\\);", Pattern.CASE_INSENSITIVE); // insert table regex
-    Pattern SELECT_ALL = Pattern.compile("Select \\* from (.*);", Pattern.CASE_INSENSITIVE); // print table regex
-    Pattern SELECT_WHERE = Pattern.compile("Select \\* from (.*) where (.*)=(.*);", Pattern.CASE_INSENSITIVE); // select specific row in table regex
-    Pattern DELETE_WHERE = Pattern.compile("Delete from (.*) where (.*)=(.*);", Pattern.CASE_INSENSITIVE); // delete specific row in table regex
-    Pattern UPDATE_WHERE = Pattern.compile("Update (.*) Set (.*)=(.*) where (.*)=(.*);", Pattern.CASE_INSENSITIVE); // update specific value in table regex
-    static Pattern TRANSACTION = Pattern.compile("Begin transaction (.*);", Pattern.CASE_INSENSITIVE); // begin transaction regex
-    
-    // File writer for query logs
-    FileWriter queryLogs;
-
-    /**
-     * Constructer `QueryChecker` object with the specified query log file.
-     *
-     * @param queryLogs The `FileWriter` to write query logs to.
-     */
-    public QueryChecker(FileWriter queryLogs) {
-        this.queryLogs = queryLogs;
-    }
-
-    /**
-     * Processes and validates the given SQL query.
-     *
-     * @param query          The SQL query to be processed.
-     * @param Username       The username associated with the query.
-     * @param transactionFlag A flag indicating whether the query is part of a transaction.
-     * @throws SyntaxErrorRaiser If the query is invalid or contains syntax errors.
-     * @throws IOException      If an I/O error occurs while processing the query.
-     */
-    public void traverseQuery(String query, String Username, boolean transactionFlag) throws SyntaxErrorRaiser, IOException {
-        boolean queryInvalid = true;
-
-        // Logs related
-        Date date = new Date();
-        // getTime() returns current time in milliseconds
-        long time = date.getTime();
-        // Passed the milliseconds to constructor of Timestamp class
-        Timestamp ts = new Timestamp(time);
-        
-        
-        // Check database folder exists or not, create it if not
-        String databaseName = "MyDatabase";
-        boolean databaseLockFlag = isFolderLocked(DATABASE_ROOT_PATH + databaseName);
-        try {
-            Path databaseFolderPath = Paths.get(DATABASE_ROOT_PATH, databaseName);
-            Files.createDirectories(databaseFolderPath);
-            activeDatabase = databaseName;
-        } catch (IOException e) {
-            System.out.println("Error");
-            e.printStackTrace();
-        }
-        
-        // check the Transaction regex
-        Matcher matcher = TRANSACTION.matcher(query);
-        if (matcher.find()) {
-        	queryInvalid = false;
-        	
-        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-        		String transactionName = matcher.group(1);
-                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Transaction : ").append(transactionName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-                Transaction transaction = new Transaction(transactionName, queryLogs);
-                transaction.doTransaction(Username);
-				
-        	}
-        	else {
-        		System.out.println("Database Locked");
-        	}
-        }
-
-        // check the create regex
-        matcher = CREATE.matcher(query);
-        if (matcher.find()) {
-            queryInvalid = false;
-            if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-            	
-	            String tableName = matcher.group(1);
-	            String[] tableMetaData = matcher.group(2).split(",");
-	            HashMap<String, String> tableColumnData = new HashMap<>();
-	            List<String> primaryKeys = new ArrayList<>();
-	            List<String> foreignKeys = new ArrayList<>();
-	
-	            for (String data : tableMetaData) {
-	                String[] column = data.trim().split(" ");
-	                if (column.length == 2) {
-	                    tableColumnData.put(column[0], column[1]);
-	                } else if (column[0].equalsIgnoreCase("PRIMARY")) {
-	                	primaryKeys.add(column[2]);
-	                } else if (column[0].equalsIgnoreCase("FOREIGN")) {
-	                	foreignKeys.add(column[4]);
-	                } else {
-	                    throw new SyntaxErrorRaiser("Invalid syntax");
-	                }
-	            }
-	
-	            StringBuilder metadataLine = new StringBuilder(tableName + "(");
-	            for (Map.Entry<String, String> entry : tableColumnData.entrySet()) {
-	                metadataLine.append(entry.getKey()).append(":").append(entry.getValue()).append(",");
-	            }
-	            if (!primaryKeys.isEmpty()) {
-	                metadataLine.append("PRIMARY_KEY:");
-	                for (String primaryKey : primaryKeys) {
-	                    metadataLine.append(primaryKey).append(",");
-	                }
-	            }
-	            if (!foreignKeys.isEmpty()) {
-	                metadataLine.append("FOREIGN_KEY:");
-	                for (String foreignKey : foreignKeys) {
-	                    metadataLine.append(foreignKey).append(",");
-	                }
-	            }
-	            metadataLine.deleteCharAt(metadataLine.length() - 1); 
-	            metadataLine.append(")");
-	            
-	            try {
-	                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ")
-	                .append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-	                File tableFile = new File(DATABASE_ROOT_PATH + activeDatabase + "/" + tableName + ".txt");
-	                if (tableFile.createNewFile()) {
-	                    System.out.println("Table is created successfully : " + tableName);
-	                    updateTableTxt(tableName, metadataLine.toString());
-	                } else {
-	                    System.out.println("Table exists");
-	                }
-	            } catch (IOException e) {
-	                e.printStackTrace();
-	            }
-            }
-            else {
-        		System.out.println("Database Locked");
-            }
-            
-        }
-        
-        // check the drop query regex
-        matcher = DROP.matcher(query);
-        if (matcher.find()) {
-            queryInvalid = false;
-            if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-            	String tableName = matcher.group(1);
-                if (matcher.group(1).contains(" ")) {
-                    throw new SyntaxErrorRaiser("Table name has a white space");
-                }
-
-                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase)
-                .append(" ] [Table: ").append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]")
-                .append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-                
-                File tableFile = new File(DATABASE_ROOT_PATH + activeDatabase + "/" + tableName + ".txt");
-                if (tableFile.exists()) {
-                    if (tableFile.delete()) {
-                        System.out.println("Table named " + tableName + " is Dropped." );
-                    } else {
-                        System.out.println("Error in dropping table " + tableName);
-                    }
-                } else {
-                    System.out.println("Table named " + tableName + " does not exist in the database");
-                }
-            }
-            else {
-            	System.out.println("Database Locked");
-            }
-            
-        }
-        
-        // check the insert query regex
-        matcher = INSERT.matcher(query);
-        if (matcher.find()) {
-        	queryInvalid = false;
-        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-        		String tableName = matcher.group(1);
-                Path tableFile = Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt");
-                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
-                .append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-                
-                try {
-                	List<String> tableData = Files.readAllLines(tableFile);
-                    if (tableData.isEmpty()) {
-                        throw new SyntaxErrorRaiser("Table does not exist.");
-                    }
-                    else {
-                    	String[] colNames = getColNames(tableName);
-                        String[] rowData = matcher.group(5).split(",");
-                        HashMap<String, String> tableRowData = new HashMap<>();
-                        if (colNames.length == rowData.length) {
-                            for (int i = 0; i < colNames.length; i++) {
-                                tableRowData.put(colNames[i].trim(), rowData[i].trim());
-                            }
-                        } 
-                        else {
-                            throw new SyntaxErrorRaiser("Invalid column names");
-                        }
-
-                        if (!tableRowData.isEmpty()) {
-                            if (tableRowData.size() == colNames.length) {
-                                System.out.println("Inserted 1 row into " + tableName);
-                                List<String> rowsData = new ArrayList<>();
-                                for (String col : colNames) {
-                                    rowsData.add(tableRowData.get(col.trim()));
-                                }
-
-                                tableData.add(String.join("|", rowsData));
-
-                                Files.write(tableFile, tableData, StandardOpenOption.TRUNCATE_EXISTING);
-                            } else {
-                                System.out.println("Values are missing in the query");
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-        	}
-        	else {
-        		System.out.println("Database Locked");
-        	}
-        }
-        
-        // check the select query regex
-        matcher = SELECT_WHERE.matcher(query);
-        if (matcher.find()) {
-            queryInvalid = false;
-            if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-            	String tableName = matcher.group(1);
-                String columnNameToGet = matcher.group(2);
-                String columnValueToGet = matcher.group(3);
-                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ")
-                .append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-                
-                try {
-                    Path tableFile = Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt");
-                    List<String> tableData = Files.readAllLines(tableFile);
-                    String[] colNames = getColNames(tableName);
-                    int columnNameToGetIndex = -1;
-                    for (int i = 0; i < colNames.length; i++) {
-                        if (colNames[i].equalsIgnoreCase(columnNameToGet)) {
-                        	columnNameToGetIndex = i;
-                            break;
-                        }
-                    }
-
-                    if (columnNameToGetIndex == -1) {
-                        System.out.println("Condition column not found: " + columnNameToGet);
-                    }
-                    else {
-                        for (String col : colNames) {
-                            System.out.print(col.split(":")[0] + "\t\t");
-                        }
-                        System.out.println();
-                        for (int i = 1; i < tableData.size(); i++) {
-                            String rowFull = tableData.get(i);
-                            String[] rowDataSeparate = rowFull.split("\\|");
-                            if (rowDataSeparate.length > columnNameToGetIndex &&
-                            		(rowDataSeparate[columnNameToGetIndex].replace("'", "")).equalsIgnoreCase(columnValueToGet)) {
-                                for (String colValue : rowDataSeparate) {
-                                    System.out.print(colValue + "\t\t");
-                                }
-                                System.out.println();
-                            }
-                        }
-                    }
-                    
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            else {
-        		System.out.println("Database Locked");
-            }
-            
-            
-        }
-        
-        // check the select all query regex
-        matcher = SELECT_ALL.matcher(query);
-        if (matcher.find()) {
-        	queryInvalid = false;
-        	
-        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-	            String tableName = matcher.group(1);
-	            queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-	            
-	            try {
-	                Path tableFile = Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt");
-	                List<String> tableDataFull = Files.readAllLines(tableFile);
-	                
-	                if (tableDataFull.isEmpty()) {
-	                    System.out.println("Table " + tableName + " is empty or does not exist.");
-	                }
-	                else {
-	                	String[] colNames = getColNames(tableName);
-	                    int[] columnWidths = new int[colNames.length];
-	                    for (int i = 0; i < colNames.length; i++) {
-	                        columnWidths[i] = colNames[i].length();
-	                    }
-	                    for (int i = 1; i < tableDataFull.size(); i++) {
-	                        String rowDataFull = tableDataFull.get(i);
-	                        String[] rowDataSeparate = rowDataFull.split("\\|");
-	                        for (int j = 0; j < rowDataSeparate.length; j++) {
-	                            if (rowDataSeparate[j].length() > columnWidths[j]) {
-	                                columnWidths[j] = rowDataSeparate[j].length();
-	                            }
-	                        }
-	                    }
-	                    System.out.print("+");
-	                    for (int width : columnWidths) {
-	                        for (int i = 0; i < width + 2; i++) {
-	                            System.out.print("-");
-	                        }
-	                        System.out.print("+");
-	                    }
-	                    System.out.println();
-	                    
-	                    System.out.print("|");
-	                    for (int i = 0; i < colNames.length; i++) {
-	                        System.out.print(" " + colNames[i]);
-	                        for (int j = colNames[i].length(); j < columnWidths[i]; j++) {
-	                            System.out.print(" ");
-	                        }
-	                        System.out.print(" |");
-	                    }
-	                    System.out.println();
-	                    
-	                    System.out.print("+");
-	                    for (int width : columnWidths) {
-	                        for (int i = 0; i < width + 2; i++) {
-	                            System.out.print("-");
-	                        }
-	                        System.out.print("+");
-	                    }
-	                    System.out.println();
-	
-	                    for (int i = 1; i < tableDataFull.size(); i++) {
-	                        String rowData = tableDataFull.get(i);
-	                        String[] rowValues = rowData.split("\\|");
-	                        System.out.print("|");
-	                        for (int j = 0; j < rowValues.length; j++) {
-	                            System.out.print(" " + rowValues[j]);
-	                            for (int k = rowValues[j].length(); k < columnWidths[j]; k++) {
-	                                System.out.print(" ");
-	                            }
-	                            System.out.print(" |");
-	                        }
-	                        System.out.println();
-	                    }
-	                    
-	                    System.out.print("+");
-	                    for (int width : columnWidths) {
-	                        for (int i = 0; i < width + 2; i++) {
-	                            System.out.print("-");
-	                        }
-	                        System.out.print("+");
-	                    }
-	                    System.out.println();
-	                }
-	                
-	            } catch (IOException e) {
-	                e.printStackTrace();
-	            }
-        	}
-        	else {
-        		System.out.println("Database Locked");
-        	}
-        }
-        
-        // check the Delete row query regex
-        matcher = DELETE_WHERE.matcher(query);
-        if (matcher.find()) {
-        	queryInvalid  = false;
-        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-	            String tableName = matcher.group(1);
-	            String columnNameToGet = matcher.group(2);
-	            String columnValueToGet = matcher.group(3);
-	            
-	            queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
-	            .append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-	            
-	            try {
-	                Path tableFile = Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt");
-	                List<String> tableDataFull = Files.readAllLines(tableFile);
-	
-	                if (tableDataFull.isEmpty()) {
-	                    System.out.println("Table " + tableName + " is empty.");
-	                } else {
-	                	
-	                	String firstLineTable = tableDataFull.get(0);
-	                    String[] colNames = getColNames(tableName);
-	
-	                    int columnNameToGetIndex = -1;
-	                    for (int i = 0; i < colNames.length; i++) {
-	                        if (colNames[i].equalsIgnoreCase(columnNameToGet)) {
-	                        	columnNameToGetIndex = i;
-	                            break;
-	                        }
-	                    }
-	
-	                    if (columnNameToGetIndex == -1) {
-	                        System.out.println("Condition column not found: " + columnNameToGet);
-	                    } else {
-	                        List<String> newTableData = new ArrayList<>();
-	                        newTableData.add(firstLineTable);
-	
-	                        int count = 0;
-	
-	                        for (int i = 1; i < tableDataFull.size(); i++) {
-	                            String rowDataFull = tableDataFull.get(i);
-	                            String[] rowDataSeparate = rowDataFull.split("\\|");
-	                            if (rowDataSeparate.length > columnNameToGetIndex) {
-	                                String conditionColumnValue = rowDataSeparate[columnNameToGetIndex].replace("'", "");
-	                                if (conditionColumnValue.equals(columnValueToGet)) {
-	                                    count++;
-	                                } else {
-	                                	newTableData.add(rowDataFull); 
-	                                }
-	                            }
-	                        }
-	                        Files.write(tableFile, newTableData);
-	                        System.out.println("Total " + count + " row(s) are deleted in" + tableName);
-	                    }
-	                }
-	            } catch (IOException e) {
-	                e.printStackTrace();
-	            }
-        	}
-        	else {
-        		System.out.println("Database Locked");
-        	}
-        }
-        
-        
-        // check the update value row query regex
-        matcher = UPDATE_WHERE.matcher(query);
-        if (matcher.find()) {
-        	queryInvalid = false;
-        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
-        		String tableName = matcher.group(1);
-                String columnToUpdate = matcher.group(2);
-                String valueToUpdate = matcher.group(3);
-                String columnNameToGet = matcher.group(4);
-                String columnValueToGet = matcher.group(5);
-                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
-                .append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-                
-                List<String> tableDataFull = Files.readAllLines(Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt"));
-                if (tableDataFull.isEmpty()) {
-                    System.out.println("Table " + tableName + " does not exist.");
-                }
-                else {
-                	String[] colNames = getColNames(tableName);
-                	int columnIndexToUpdate = -1;
-                    for (int i = 0; i < colNames.length; i++) {
-                        if (colNames[i].equalsIgnoreCase(columnToUpdate)) {
-                        	columnIndexToUpdate = i;
-                            break;
-                        }
-                    }
-                    
-                    if (columnIndexToUpdate == -1) {
-                        System.out.println("Column to update not found: " + columnToUpdate);
-                        
-                    }
-                    
-                    int columnNameToGetIndex = -1;
-                    for (int i = 0; i < colNames.length; i++) {
-                        if (colNames[i].equalsIgnoreCase(columnNameToGet)) {
-                        	columnNameToGetIndex = i;
-                            break;
-                        }
-                    }
-
-                    if (columnNameToGetIndex == -1) {
-                        System.out.println("Condition column not found: " + columnNameToGet);
-                    }
-                    
-                    for (int i = 1; i < tableDataFull.size(); i++) {
-                        String rowDataFull = tableDataFull.get(i);
-                        String[] rowDataSeparate = rowDataFull.split("\\|");
-
-                        if (rowDataSeparate.length > columnNameToGetIndex && 
-                        		rowDataSeparate[columnNameToGetIndex].equalsIgnoreCase(columnValueToGet)) {
-                        	rowDataSeparate[columnIndexToUpdate] = valueToUpdate;
-                            tableDataFull.set(i, String.join("|", rowDataSeparate));
-                        }
-                    }
-                    Files.write(Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt"), tableDataFull);
-                    System.out.println("Table data updated in " + tableName);
-                }
-        	}
-        	else {
-        		System.out.println("Database Locked");
-        	}
-            
-        }
-        if(queryInvalid) {
-        	queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] ").append("[Query: ").append(query).append("] [Query Type: InValid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
-            
-        	throw new SyntaxErrorRaiser("Invalid Query!");
-        }
-    }
-       
-    
-    /**
-     * Private method to retrieve column names.
-     *
-     * @param tableName The name of the table for which column names are retrieved.
-     * @return An array of column names.
-     * @throws SyntaxErrorRaiser If the table does not exist.
-     */
-    private String[] getColNames(String tableName) throws SyntaxErrorRaiser {
-    	
-    	Path tableFilePath = Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt");
-    	String[] colNames = null;
-        try {
-            List<String> tableMetadata = Files.readAllLines(tableFilePath);
-            if (tableMetadata.isEmpty()) {
-                throw new SyntaxErrorRaiser("Table " + tableName + " does not exist.");
-            }
-
-            String header = tableMetadata.get(0);
-//            System.out.println(header);
-            String colNamesLine = header.split("\\(")[1];
-            colNamesLine = colNamesLine.split("\\)")[0];
-            String[] colNameAndType = colNamesLine.split(",");
-            List<String> listColNames = new ArrayList<>();
-            
-            for (String cnt : colNameAndType) {
-                String[] parts = cnt.split(":");
-
-                if (parts.length >= 1) {
-                    String colName = parts[0].trim();
-
-                    if (!colName.equalsIgnoreCase("PRIMARY_KEY") && !colName.equalsIgnoreCase("FOREIGN_KEY")) {
-                    	listColNames.add(colName);
-                    }
-                }
-            }
-            colNames = listColNames.toArray(new String[0]);
-            
-        } catch (IOException e){
-            e.printStackTrace();
-        }
-        
-		return colNames;
-	}
-
-    /**
-     * Private method to update the metadata of a table.
-     *
-     * @param tableName     The name of the table to update.
-     * @param metadataLine  The new metadata line for the table.
-     */
-	private void updateTableTxt(String tableName, String metadataLine) {
-        try {
-            FileWriter tableFileWriter = new FileWriter(DATABASE_ROOT_PATH + activeDatabase + "/" + tableName + ".txt");
-            tableFileWriter.write(metadataLine); 
-            tableFileWriter.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-    
-	
-	/**
-	 * Private method to verify if a folder is locked by looking for a lock file.
-	 *
-	 * @param folderPath The path to the folder to be checked.
-	 * @return `true` if the folder is locked, `false` if not.
-	 */
-	public static boolean isFolderLocked(String folderPath) {
-        File lockFile = new File(folderPath, "lockfile.lock");
-        return lockFile.exists();
-    }
-}
+package com.kendb.query;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.sql.Timestamp;
+import java.util.regex.Pattern;
+import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.UnaryOperator;
+import com.kendb.audit.AuditLog;
+import com.kendb.audit.AuditQuery;
+import com.kendb.audit.AuditRecord;
+import com.kendb.cache.QueryResultCache;
+import com.kendb.catalog.TableMetadata;
+import com.kendb.catalog.TableStatistics;
+import com.kendb.replication.Replication;
+import com.kendb.storage.BloomIndex;
+import com.kendb.storage.Compactor;
+import com.kendb.storage.MemoryTable;
+import com.kendb.storage.PageCache;
+import com.kendb.storage.Partitioning;
+import com.kendb.storage.ScanFilter;
+import com.kendb.storage.TableFile;
+
+/**
+ * The `QueryChecker` is for processing and validating SQL queries.
+ */
+
+public class QueryChecker {
+	
+	public static String DATA_DIR = System.getProperty("kendb.dataDir", "src/resources/Database/").replaceAll("([^/\\\\])$", "$1/"); // folder of all databases, separate for every follower
+	static String DATABASE_NAME = "MyDatabase"; // database of all sessions
+	String DATABASE_ROOT_PATH = DATA_DIR; // path for root database 
+    public static String activeDatabase = null;
+    Pattern CREATE = Pattern.compile("Create table (.*?) \\(((.*) (.*)(,?)( ?))*\\);", Pattern.CASE_INSENSITIVE); // Create table regex
+    Pattern PARTITION_BY = Pattern.compile(" partition by hash ?\\((\\w+)\\) partitions (\\d+)(?=;)", Pattern.CASE_INSENSITIVE); // hash partitions of a new table regex
+    Pattern CREATE_TEMPORARY = Pattern.compile("^\\s*Create temporary table ", Pattern.CASE_INSENSITIVE); // memory table of the session regex
+    Pattern ENGINE = Pattern.compile(" engine ?= ?(\\w+)(?=[ ;])", Pattern.CASE_INSENSITIVE); // storage engine of a new table regex
+    Pattern DROP = Pattern.compile("Drop table (.*);", Pattern.CASE_INSENSITIVE); // drop table regex
+    Pattern INSERT = Pattern.compile("Insert into (.*) \\((.*(,?)( ?)).*\\) values \\((.*(,?)( ?)).*\\);", Pattern.CASE_INSENSITIVE); // insert table regex
+    static String ORDER_LIMIT = "(?: order by (\\w+)(?: (asc|desc))?)?(?: limit (\\d+)(?: offset (\\d+))?)?"; // optional ORDER BY and LIMIT part of select
+    Pattern SELECT_ALL = Pattern.compile("Select \\* from (\\w+)" + ORDER_LIMIT + ";", Pattern.CASE_INSENSITIVE); // print table regex
+    Pattern SELECT_WHERE = Pattern.compile("Select \\* from (\\w+) where (.+?)" + ORDER_LIMIT + ";", Pattern.CASE_INSENSITIVE); // select specific row in table regex
+    Pattern SELECT_JOIN = Pattern.compile("Select (.*) from (\\w+) (?:inner )?join (\\w+) on (\\w+)\\.(\\w+) ?= ?(\\w+)\\.(\\w+);", Pattern.CASE_INSENSITIVE); // join two tables regex
+    Pattern COMPRESS = Pattern.compile("Compress table (\\w+)(?: with (deflate))?;", Pattern.CASE_INSENSITIVE); // compress table regex
+    Pattern COMPACT = Pattern.compile("Compact table (\\w+);", Pattern.CASE_INSENSITIVE); // compact table regex
+    Pattern CREATE_BLOOM = Pattern.compile("Create bloom filter on (\\w+) \\((.+)\\)(?: fpp ([0-9.]+))?;", Pattern.CASE_INSENSITIVE); // create bloom filter regex
+    Pattern DROP_BLOOM = Pattern.compile("Drop bloom filter on (\\w+);", Pattern.CASE_INSENSITIVE); // drop bloom filter regex
+    Pattern FOREIGN_KEY = Pattern.compile("FOREIGN KEY \\(?(\\w+)\\)? REFERENCES (\\w+) ?(?:\\((\\w+)\\))?", Pattern.CASE_INSENSITIVE); // foreign key of a new table regex
+    Pattern DELETE_WHERE = Pattern.compile("Delete from (\\w+) where (.+);", Pattern.CASE_INSENSITIVE); // delete specific row in table regex
+    Pattern UPDATE_WHERE = Pattern.compile("Update (\\w+) Set (\\w+) ?= ?('[^']*'|[^ ]+) where (.+);", Pattern.CASE_INSENSITIVE); // update specific value in table regex
+    static double BLOOM_FALSE_POSITIVE_RATE = Double.parseDouble(System.getProperty("kendb.bloom.fpp", "0.01")); // default false positive rate of bloom filters
+    Pattern SHOW_AUDIT = Pattern.compile("Show audit(?: where (.+?))?(?: limit (\\d+))?;", Pattern.CASE_INSENSITIVE); // audit history regex
+    static Pattern TABLE_NAMES = Pattern.compile("\\b(?:from|into|table|update|join|filter on|analyze|view) (\\w+)", Pattern.CASE_INSENSITIVE); // tables named by a statement, for the audit log
+    Pattern SHOW_CACHE_STATS = Pattern.compile("Show cache stats;", Pattern.CASE_INSENSITIVE); // result cache statistics regex
+    Pattern SHOW_REPLICATION_STATUS = Pattern.compile("Show replication status;", Pattern.CASE_INSENSITIVE); // replication role and lag regex
+    Pattern ANALYZE = Pattern.compile("Analyze(?: (\\w+))?;", Pattern.CASE_INSENSITIVE); // collect table statistics regex
+    Pattern CREATE_VIEW = Pattern.compile("^\\s*Create materialized view (\\w+) as (Select .+;)", Pattern.CASE_INSENSITIVE); // create materialized view regex
+    Pattern REFRESH_VIEW = Pattern.compile("Refresh materialized view (\\w+);", Pattern.CASE_INSENSITIVE); // rebuild materialized view regex
+    Pattern DROP_VIEW = Pattern.compile("Drop materialized view (\\w+);", Pattern.CASE_INSENSITIVE); // drop materialized view regex
+    Pattern EXPLAIN = Pattern.compile("^\\s*Explain (.+;)", Pattern.CASE_INSENSITIVE); // plan of a statement regex
+    static Pattern TRANSACTION = Pattern.compile("Begin transaction (.*);", Pattern.CASE_INSENSITIVE); // begin transaction regex
+    
+    // Writer for query logs
+    Writer queryLogs;
+    // where the results and messages of the statements are printed
+    PrintStream console;
+    // rows of recent selects, shared by all sessions
+    QueryResultCache resultCache = QueryResultCache.getInstance();
+    // memory tables are not cached, their rows are already in memory
+    static QueryResultCache NO_RESULT_CACHE = new QueryResultCache(0);
+    static AtomicLong sessionCount = new AtomicLong();
+    // memory tables of the session, dropped when it ends
+    Map<String, MemoryTable> memoryTables = new ConcurrentHashMap<>();
+    String memoryFolder = ".memory-" + sessionCount.incrementAndGet();
+
+    /**
+     * Constructer `QueryChecker` object with the specified query log file.
+     *
+     * @param queryLogs The `Writer` to write query logs to.
+     */
+    public QueryChecker(Writer queryLogs) {
+        this(queryLogs, System.out);
+    }
+
+    /**
+     * Constructer `QueryChecker` object that prints the results of the statements to a stream of its own.
+     *
+     * @param queryLogs The `Writer` to write query logs to.
+     * @param console   The `PrintStream` to print results and messages to.
+     */
+    public QueryChecker(Writer queryLogs, PrintStream console) {
+        this.queryLogs = queryLogs;
+        this.console = console;
+        // deleted rows are reclaimed in the background
+        Compactor.start(Paths.get(DATABASE_ROOT_PATH));
+    }
+
+    /**
+     * Constructer `QueryChecker` object for the statements of a transaction, it uses the memory tables of the session.
+     *
+     * @param queryLogs The `Writer` to write query logs to.
+     * @param session   The `QueryChecker` of the session.
+     */
+    QueryChecker(Writer queryLogs, QueryChecker session) {
+        this(queryLogs, session.console);
+        this.memoryTables = session.memoryTables;
+        this.memoryFolder = session.memoryFolder;
+    }
+
+    /**
+     * End the session, its memory tables are dropped.
+     */
+    public void close() {
+        for (MemoryTable table : memoryTables.values()) {
+            table.drop();
+        }
+        memoryTables.clear();
+    }
+
+    /**
+     * Processes and validates the given SQL query.
+     *
+     * @param query          The SQL query to be processed.
+     * @param Username       The username associated with the query.
+     * @param transactionFlag A flag indicating whether the query is part of a transaction.
+     * @throws SyntaxErrorRaiser If the query is invalid or contains syntax errors.
+     * @throws IOException      If an I/O error occurs while processing the query.
+     */
+    public void traverseQuery(String query, String Username, boolean transactionFlag) throws SyntaxErrorRaiser, IOException {
+        long startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        byte status = AuditRecord.STATUS_FAILED;
+        // memory tables belong to this session, followers do not get their statements
+        boolean inMemory = isMemoryStatement(query);
+        Lock lock = inMemory ? null : Replication.lockFor(query);
+        if (lock != null) {
+            lock.lock();
+        }
+        try {
+            if (!inMemory) {
+                Replication.checkWritable(query);
+            }
+            // a statement waiting for a locked database does nothing and is not sent to followers,
+            // the others are logged before they run so a statement that cannot be logged changes nothing
+            if (isFolderLocked(DATABASE_ROOT_PATH + DATABASE_NAME) == transactionFlag && !inMemory) {
+                Replication.logChange(DATABASE_NAME, query);
+            }
+            executeQuery(query, Username, transactionFlag);
+            status = AuditRecord.STATUS_VALID;
+        } catch (SyntaxErrorRaiser e) {
+            status = AuditRecord.STATUS_INVALID;
+            throw e;
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+            int duration = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - start) / 1000);
+            try {
+                AuditLog.getInstance().append(new AuditRecord(startTime, duration, AuditRecord.typeOf(query), status,
+                        Username, activeDatabase, getTableNames(query)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Apply a change the primary sent to this follower.
+     *
+     * @param query The statement from the change log of the primary.
+     * @throws SyntaxErrorRaiser If the statement is not valid, it failed on the primary too.
+     * @throws IOException       If an I/O error occurs.
+     */
+    public void applyChange(String query) throws SyntaxErrorRaiser, IOException {
+    	executeQuery(query, "replication", false);
+    }
+
+    /**
+     * Check a statement of a transaction when it is queued, before the database is locked.
+     * An INSERT, UPDATE or DELETE is turned into the change it makes, so the changes of a table can be written together at commit.
+     *
+     * @param query         The statement.
+     * @param changedTables Tables created or dropped earlier in the transaction, they are checked at commit.
+     * @return The change of the statement, or `null` if the statement runs as it is.
+     * @throws SyntaxErrorRaiser If the statement is not valid.
+     * @throws IOException       If a table file cannot be read.
+     */
+    public TableChange planQuery(String query, Set<String> changedTables) throws SyntaxErrorRaiser, IOException {
+    	if (TRANSACTION.matcher(query).find()) {
+    		throw new SyntaxErrorRaiser("Transactions cannot be nested");
+    	}
+    	boolean known = false;
+    	String statementText = getCreateStatement(query);
+    	for (Pattern statement : new Pattern[] {CREATE, DROP, INSERT, SELECT_WHERE, SELECT_ALL, SELECT_JOIN, COMPRESS, COMPACT,
+    			CREATE_BLOOM, DROP_BLOOM, DELETE_WHERE, UPDATE_WHERE, SHOW_CACHE_STATS, SHOW_REPLICATION_STATUS, SHOW_AUDIT, ANALYZE, EXPLAIN,
+    			CREATE_VIEW, REFRESH_VIEW, DROP_VIEW}) {
+    		known |= statement.matcher(statementText).find();
+    	}
+    	if (!known) {
+    		throw new SyntaxErrorRaiser("Invalid Query!");
+    	}
+    	
+    	Matcher matcher = CREATE.matcher(getCreateStatement(query));
+    	if (matcher.find()) {
+    		changedTables.add(matcher.group(1));
+    		return null;
+    	}
+    	matcher = DROP.matcher(query);
+    	if (matcher.find()) {
+    		changedTables.add(matcher.group(1));
+    		return null;
+    	}
+    	matcher = INSERT.matcher(query);
+    	if (matcher.find()) {
+    		if (changedTables.contains(matcher.group(1))) {
+    			return null;
+    		}
+    		MaterializedView.checkWritable(getTablePath(matcher.group(1)));
+    		String rowData = getInsertRow(matcher.group(1), matcher.group(5));
+    		return rowData == null ? null : new TableChange(matcher.group(1), query, rowData, null, null);
+    	}
+    	
+    	// the where condition and the changed column must fit the table
+    	if ((matcher = DELETE_WHERE.matcher(query)).find()) {
+    		if (changedTables.contains(matcher.group(1))) {
+    			return null;
+    		}
+    		MaterializedView.checkWritable(getTablePath(matcher.group(1)));
+    		Predicate condition = Predicate.parse(matcher.group(2), getTableFile(matcher.group(1)).getMetadata());
+    		return new TableChange(matcher.group(1), query, null, condition, null);
+    	}
+    	if ((matcher = UPDATE_WHERE.matcher(query)).find()) {
+    		if (changedTables.contains(matcher.group(1))) {
+    			return null;
+    		}
+    		MaterializedView.checkWritable(getTablePath(matcher.group(1)));
+    		TableMetadata metadata = getTableFile(matcher.group(1)).getMetadata();
+    		int column = metadata.indexOf(matcher.group(2));
+    		if (column == -1) {
+    			throw new SyntaxErrorRaiser("Column to update not found: " + matcher.group(2));
+    		}
+    		Predicate condition = Predicate.parse(matcher.group(4), metadata);
+    		return new TableChange(matcher.group(1), query, null, condition, setValue(column, matcher.group(3)));
+    	}
+    	if ((matcher = SELECT_WHERE.matcher(query)).find() && !changedTables.contains(matcher.group(1))) {
+    		Predicate.parse(matcher.group(2), getTableFile(matcher.group(1)).getMetadata());
+    	}
+    	return null;
+    }
+    
+    /**
+     * Write the changes of a committed transaction to a table. Inserted rows are kept in memory and later
+     * UPDATE and DELETE statements change them there, the rows are appended at the end. UPDATE statements
+     * that follow each other change the stored rows in one scan, and so do DELETE statements.
+     *
+     * @param tableName The name of the table.
+     * @param changes   The changes in the order of the transaction, from `planQuery`.
+     * @param Username  The username associated with the transaction.
+     * @throws SyntaxErrorRaiser If the table does not exist or is a view.
+     * @throws IOException       If an I/O error occurs.
+     */
+    public void applyChanges(String tableName, List<TableChange> changes, String Username) throws SyntaxErrorRaiser, IOException {
+    	long startTime = System.currentTimeMillis();
+    	long start = System.nanoTime();
+    	Timestamp ts = new Timestamp(startTime);
+    	long inserted = 0;
+    	long updated = 0;
+    	long deleted = 0;
+    	
+    	Lock lock = Replication.commitLock();
+    	if (lock != null) {
+    		lock.lock();
+    	}
+    	try {
+    		TableFile table = getTableFile(tableName);
+    		for (TableChange change : changes) {
+    			if (!memoryTables.containsKey(tableName)) {
+    				Replication.logChange(DATABASE_NAME, change.query);
+    			}
+    			inserted += change.isInsert() ? 1 : 0;
+    		}
+    		List<String[]> added = new ArrayList<>();
+    		List<TableChange> scan = new ArrayList<>(); // statements that change the stored rows in the next scan
+    		for (TableChange change : changes) {
+    			if (change.isInsert()) {
+    				added.add(change.row.split("\\|"));
+    				continue;
+    			}
+    			for (ListIterator<String[]> rows = added.listIterator(); rows.hasNext(); ) {
+    				String[] row = rows.next();
+    				if (change.condition.test(row)) {
+    					if (change.isDelete()) {
+    						rows.remove();
+    						deleted++;
+    					} else {
+    						rows.set(change.change.apply(row));
+    						updated++;
+    					}
+    				}
+    			}
+    			if (!scan.isEmpty() && scan.get(0).isDelete() != change.isDelete()) {
+    				long count = changeStoredRows(table, scan);
+    				if (scan.get(0).isDelete()) {
+    					deleted += count;
+    				} else {
+    					updated += count;
+    				}
+    				scan.clear();
+    			}
+    			scan.add(change);
+    		}
+    		if (!scan.isEmpty()) {
+    			long count = changeStoredRows(table, scan);
+    			if (scan.get(0).isDelete()) {
+    				deleted += count;
+    			} else {
+    				updated += count;
+    			}
+    		}
+    		// one append and one zone map and bloom filter update for all rows
+    		if (!added.isEmpty()) {
+    			List<String> rows = new ArrayList<>(added.size());
+    			for (String[] row : added) {
+    				rows.add(String.join("|", row));
+    			}
+    			MaterializedView.append(table, rows);
+    		}
+    	} finally {
+    		if (lock != null) {
+    			lock.unlock();
+    		}
+    	}
+    	for (TableChange change : changes) {
+    		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+    		.append(" ] [Query: ").append(change.query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+    	}
+    	if (inserted > 0) {
+    		console.println("Inserted " + inserted + " row(s) into " + tableName);
+    	}
+    	if (updated > 0) {
+    		console.println("Updated " + updated + " row(s) in " + tableName);
+    	}
+    	if (deleted > 0) {
+    		console.println("Deleted " + deleted + " row(s) in " + tableName);
+    	}
+    	
+    	int duration = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - start) / 1000 / changes.size());
+    	AuditLog auditLog = AuditLog.getInstance();
+    	for (TableChange change : changes) {
+    		auditLog.append(new AuditRecord(startTime, duration, AuditRecord.typeOf(change.query), AuditRecord.STATUS_VALID, Username, activeDatabase, tableName));
+    	}
+    }
+    
+    /**
+     * Run UPDATE or DELETE statements of a transaction with one scan of the stored rows. An UPDATE still only
+     * changes the rows that match it after the statements before it.
+     */
+    private static long changeStoredRows(TableFile table, List<TableChange> statements) throws SyntaxErrorRaiser, IOException {
+    	List<Predicate> conditions = new ArrayList<>();
+    	for (TableChange statement : statements) {
+    		conditions.add(statement.condition);
+    	}
+    	ScanFilter filter = ScanFilter.anyOf(conditions);
+    	if (statements.get(0).isDelete()) {
+    		return MaterializedView.delete(table, filter);
+    	}
+    	return MaterializedView.update(table, filter, row -> {
+    		for (TableChange statement : statements) {
+    			if (statement.condition.test(row)) {
+    				row = statement.change.apply(row);
+    			}
+    		}
+    		return row;
+    	});
+    }
+    
+    /**
+     * The change of an UPDATE, empty values that were not stored at the end of the row are added back.
+     */
+    private static UnaryOperator<String[]> setValue(int column, String value) {
+    	return row -> {
+    		row = MaterializedView.pad(row, Math.max(row.length, column + 1));
+    		row[column] = value;
+    		return row;
+    	};
+    }
+    
+    /**
+     * Private method to run a query, `traverseQuery` records it in the audit log.
+     */
+    private void executeQuery(String query, String Username, boolean transactionFlag) throws SyntaxErrorRaiser, IOException {
+        boolean queryInvalid = true;
+
+        // Logs related
+        Date date = new Date();
+        // getTime() returns current time in milliseconds
+        long time = date.getTime();
+        // Passed the milliseconds to constructor of Timestamp class
+        Timestamp ts = new Timestamp(time);
+        
+        
+        // Check database folder exists or not, create it if not
+        String databaseName = DATABASE_NAME;
+        boolean databaseLockFlag = isFolderLocked(DATABASE_ROOT_PATH + databaseName);
+        try {
+            Path databaseFolderPath = Paths.get(DATABASE_ROOT_PATH, databaseName);
+            Files.createDirectories(databaseFolderPath);
+            activeDatabase = databaseName;
+        } catch (IOException e) {
+            console.println("Error");
+            e.printStackTrace();
+        }
+        
+        // check the explain regex, the statement is planned but not run
+        Matcher matcher = EXPLAIN.matcher(query);
+        if (matcher.find()) {
+        	queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(getTableNames(query))
+        	.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        	for (String line : explain(matcher.group(1))) {
+        		console.println(line);
+        	}
+        	return;
+        }
+        
+        // check the create materialized view regex, the select of the view must not run on its own
+        matcher = CREATE_VIEW.matcher(query);
+        if (matcher.find()) {
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String viewName = matcher.group(1);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(getTableNames(query))
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		long rows = MaterializedView.create(Paths.get(DATABASE_ROOT_PATH, activeDatabase, viewName + ".txt"), matcher.group(2));
+        		console.println("Materialized view " + viewName + " is created with " + rows + " row(s)");
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        	return;
+        }
+
+        // check the Transaction regex
+        matcher = TRANSACTION.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String transactionName = matcher.group(1);
+                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Transaction : ").append(transactionName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+                Transaction transaction = new Transaction(transactionName, queryLogs, this);
+                transaction.doTransaction(Username);
+				
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+
+        // check the create regex, the partition and engine clauses are read separately
+        matcher = CREATE.matcher(getCreateStatement(query));
+        if (matcher.find()) {
+            queryInvalid = false;
+            if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+            	
+	            String tableName = matcher.group(1);
+	            String[] tableMetaData = matcher.group(2).split(",");
+	            HashMap<String, String> tableColumnData = new LinkedHashMap<>();
+	            List<String> primaryKeys = new ArrayList<>();
+	            List<String> foreignKeys = new ArrayList<>();
+	
+	            for (String data : tableMetaData) {
+	                String[] column = data.trim().split(" ");
+	                if (column.length == 2) {
+	                    tableColumnData.put(column[0], column[1]);
+	                } else if (column[0].equalsIgnoreCase("PRIMARY")) {
+	                	primaryKeys.add(column[2]);
+	                } else if (column[0].equalsIgnoreCase("FOREIGN")) {
+	                	foreignKeys.add(getForeignKey(data));
+	                } else {
+	                    throw new SyntaxErrorRaiser("Invalid syntax");
+	                }
+	            }
+	
+	            StringBuilder metadataLine = new StringBuilder(tableName + "(");
+	            for (Map.Entry<String, String> entry : tableColumnData.entrySet()) {
+	                metadataLine.append(entry.getKey()).append(":").append(entry.getValue()).append(",");
+	            }
+	            if (!primaryKeys.isEmpty()) {
+	                metadataLine.append("PRIMARY_KEY:");
+	                for (String primaryKey : primaryKeys) {
+	                    metadataLine.append(primaryKey).append(",");
+	                }
+	            }
+	            if (!foreignKeys.isEmpty()) {
+	                metadataLine.append("FOREIGN_KEY:");
+	                for (String foreignKey : foreignKeys) {
+	                    metadataLine.append(foreignKey).append(",");
+	                }
+	            }
+	            metadataLine.deleteCharAt(metadataLine.length() - 1); 
+	            metadataLine.append(")");
+	            
+	            TableMetadata metadata = new TableMetadata(metadataLine.toString());
+	            Matcher partitionBy = PARTITION_BY.matcher(query);
+	            int partitionColumn = -1;
+	            int partitionCount = 0;
+	            if (partitionBy.find()) {
+	            	partitionColumn = metadata.indexOf(partitionBy.group(1));
+	            	partitionCount = Integer.parseInt(partitionBy.group(2));
+	            	if (partitionColumn == -1) {
+	            		throw new SyntaxErrorRaiser("Partition column not found: " + partitionBy.group(1));
+	            	}
+	            	if (partitionCount < 1 || partitionCount > 1024) {
+	            		throw new SyntaxErrorRaiser("PARTITIONS must be between 1 and 1024");
+	            	}
+	            }
+	            boolean inMemory = isMemoryCreate(query);
+	            if (inMemory && partitionCount > 0) {
+	            	throw new SyntaxErrorRaiser("A memory table cannot be partitioned");
+	            }
+	            
+	            try {
+	                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ")
+	                .append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+	                File tableFile = new File(DATABASE_ROOT_PATH + activeDatabase + "/" + tableName + ".txt");
+	                if (inMemory) {
+	                	// no file is written, the table is gone when the session ends
+	                	if (memoryTables.putIfAbsent(tableName, new MemoryTable(Paths.get(DATABASE_ROOT_PATH, activeDatabase, memoryFolder, tableName + ".txt"), metadata)) == null) {
+	                		console.println("Memory table is created successfully : " + tableName);
+	                	} else {
+	                		console.println("Table exists");
+	                	}
+	                } else if (tableFile.createNewFile()) {
+	                    console.println("Table is created successfully : " + tableName);
+	                    updateTableTxt(tableName, metadataLine.toString());
+	                    if (partitionCount > 0) {
+	                    	Partitioning.create(tableFile.toPath(), metadata, partitionColumn, partitionCount);
+	                    	console.println("Rows are spread over " + partitionCount + " partitions by hash of " + metadata.getColumnNames()[partitionColumn]);
+	                    }
+	                } else {
+	                    console.println("Table exists");
+	                }
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+            }
+            else {
+        		console.println("Database Locked");
+            }
+            
+        }
+        
+        // check the drop query regex
+        matcher = DROP.matcher(query);
+        if (matcher.find()) {
+            queryInvalid = false;
+            if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+            	String tableName = matcher.group(1);
+                if (matcher.group(1).contains(" ")) {
+                    throw new SyntaxErrorRaiser("Table name has a white space");
+                }
+
+                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase)
+                .append(" ] [Table: ").append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]")
+                .append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+                
+                File tableFile = new File(DATABASE_ROOT_PATH + activeDatabase + "/" + tableName + ".txt");
+                MemoryTable memoryTable = memoryTables.remove(tableName);
+                if (memoryTable != null) {
+                	memoryTable.drop();
+                	console.println("Table named " + tableName + " is Dropped." );
+                } else if (tableFile.exists()) {
+                	MaterializedView.checkDrop(tableFile.toPath());
+                    if (tableFile.delete()) {
+                        TableFile.deleteSidecars(tableFile.toPath());
+                        console.println("Table named " + tableName + " is Dropped." );
+                    } else {
+                        console.println("Error in dropping table " + tableName);
+                    }
+                } else {
+                    console.println("Table named " + tableName + " does not exist in the database");
+                }
+            }
+            else {
+            	console.println("Database Locked");
+            }
+            
+        }
+        
+        // check the insert query regex
+        matcher = INSERT.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String tableName = matcher.group(1);
+                Path tableFile = getTablePath(tableName);
+                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+                .append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+                
+                MaterializedView.checkWritable(tableFile);
+                try {
+                	String rowData = getInsertRow(tableName, matcher.group(5));
+                	if (rowData != null) {
+                		console.println("Inserted 1 row into " + tableName);
+                		MaterializedView.append(getTableFile(tableName), Collections.singletonList(rowData));
+                	}
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the select query regex
+        matcher = SELECT_WHERE.matcher(query);
+        if (matcher.find()) {
+            queryInvalid = false;
+            if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+            	String tableName = matcher.group(1);
+                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ")
+                .append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+                
+                TableFile table = getTableFile(tableName);
+                Predicate condition = Predicate.parse(matcher.group(2), table.getMetadata());
+                QueryResultCache cache = getResultCache(table);
+                String cacheKey = QueryResultCache.key(activeDatabase, query);
+                List<Path> tables = Collections.singletonList(table.getPath());
+                long[] versions = QueryResultCache.versions(tables);
+                Iterable<String[]> rows = cache.get(cacheKey, versions);
+                try (RowSorter result = rows == null ? getRowSorter(table.getMetadata(), matcher, 3) : null) {
+                	if (rows == null) {
+                		// blocks whose min and max values cannot match are skipped, LIMIT stops the scan
+                		CostModel.planScan(table, condition);
+                		table.scan(condition, (rowNumber, row) -> result.add(row));
+                		rows = result.getRows();
+                		cache.put(cacheKey, tables, versions, rows);
+                	}
+                	
+                	for (String col : table.getMetadata().getColumnNames()) {
+                		console.print(col + "\t\t");
+                	}
+                	console.println();
+                	for (String[] rowDataSeparate : rows) {
+                		for (String colValue : rowDataSeparate) {
+                			console.print(colValue + "\t\t");
+                		}
+                		console.println();
+                	}
+                } catch (IOException e) {
+                	e.printStackTrace();
+                }
+            }
+            else {
+        		console.println("Database Locked");
+            }
+            
+            
+        }
+        
+        // check the select all query regex
+        matcher = SELECT_ALL.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+	            String tableName = matcher.group(1);
+	            queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName).append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+	            
+	            TableFile table = findTableFile(tableName);
+	            if (table == null) {
+	                console.println("Table " + tableName + " is empty or does not exist.");
+	            }
+	            else {
+	            	TableMetadata tableMetadata = table.getMetadata();
+	            	QueryResultCache cache = getResultCache(table);
+	            	String cacheKey = QueryResultCache.key(activeDatabase, query);
+	            	List<Path> tables = Collections.singletonList(table.getPath());
+	            	long[] versions = QueryResultCache.versions(tables);
+	            	Iterable<String[]> rows = cache.get(cacheKey, versions);
+	            	try (RowSorter result = rows == null ? getRowSorter(tableMetadata, matcher, 2) : null) {
+	            		if (rows == null) {
+	            			// LIMIT without ORDER BY stops the scan early
+	            			table.scan(null, (rowNumber, row) -> result.add(row));
+	            			rows = result.getRows();
+	            			cache.put(cacheKey, tables, versions, rows);
+	            		}
+	            		printTable(tableMetadata.getColumnNames(), rows);
+	            	} catch (IOException e) {
+	            		e.printStackTrace();
+	            	}
+	            }
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the join query regex
+        matcher = SELECT_JOIN.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String leftTable = matcher.group(2);
+        		String rightTable = matcher.group(3);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(leftTable).append(",").append(rightTable)
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		TableFile leftFile = findTableFile(leftTable);
+        		TableFile rightFile = findTableFile(rightTable);
+        		if (leftFile == null || rightFile == null) {
+        			throw new SyntaxErrorRaiser("Table " + (leftFile != null ? rightTable : leftTable) + " does not exist.");
+        		}
+        		TableMetadata left = leftFile.getMetadata();
+        		TableMetadata right = rightFile.getMetadata();
+        		
+        		String[] joinColumns = getJoinColumns(matcher);
+        		String leftColumn = joinColumns[0];
+        		String rightColumn = joinColumns[1];
+        		if (left.indexOf(leftColumn) == -1 || right.indexOf(rightColumn) == -1) {
+        			console.println("Join column not found: " + (left.indexOf(leftColumn) == -1 ? leftColumn : rightColumn));
+        		}
+        		else {
+        			List<int[]> projection = getJoinProjection(matcher.group(1).trim(), left, right);
+        			for (int[] column : projection) {
+        				TableMetadata side = column[0] == 0 ? left : right;
+        				console.print(side.getTableName() + "." + side.getColumnNames()[column[1]] + "\t\t");
+        			}
+        			console.println();
+        			
+        			QueryResultCache cache = getResultCache(leftFile, rightFile);
+        			String cacheKey = QueryResultCache.key(activeDatabase, query);
+        			List<Path> tables = Arrays.asList(leftFile.getPath(), rightFile.getPath());
+        			long[] versions = QueryResultCache.versions(tables);
+        			List<String[]> rows = cache.get(cacheKey, versions);
+        			if (rows == null) {
+        				QueryResultCache.Builder cachedRows = cache.builder(cacheKey, tables, versions);
+        				HashJoin join = new HashJoin(leftFile, leftColumn, rightFile, rightColumn,
+        						Paths.get(DATABASE_ROOT_PATH, activeDatabase, ".tmp"));
+        				join.execute((leftRow, rightRow) -> {
+        					String[] joinedRow = new String[projection.size()];
+        					for (int i = 0; i < joinedRow.length; i++) {
+        						int[] column = projection.get(i);
+        						String[] row = column[0] == 0 ? leftRow : rightRow;
+        						joinedRow[i] = column[1] < row.length ? row[column[1]] : "";
+        						console.print(joinedRow[i] + "\t\t");
+        					}
+        					console.println();
+        					cachedRows.add(joinedRow);
+        				});
+        				cachedRows.finish();
+        			}
+        			else {
+        				for (String[] row : rows) {
+        					for (String value : row) {
+        						console.print(value + "\t\t");
+        					}
+        					console.println();
+        				}
+        			}
+        		}
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the show audit regex
+        matcher = SHOW_AUDIT.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Query: ").append(query)
+        	.append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        	
+        	AuditQuery auditQuery;
+        	try {
+        		auditQuery = AuditQuery.parse(matcher.group(1));
+        	} catch (IllegalArgumentException e) {
+        		throw new SyntaxErrorRaiser(e.getMessage());
+        	}
+        	long limit = matcher.group(2) == null ? -1 : Long.parseLong(matcher.group(2));
+        	List<String[]> records = new ArrayList<>();
+        	for (AuditRecord record : AuditLog.getInstance().search(auditQuery, limit)) {
+        		records.add(record.toRow());
+        	}
+        	printTable(new String[] {"Timestamp", "User", "Database", "Table", "Type", "Duration(ms)", "Status"}, records);
+        	console.println(records.size() + " record(s) found");
+        }
+        
+        // check the show cache stats regex
+        matcher = SHOW_CACHE_STATS.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Query: ").append(query)
+        	.append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        	console.println(resultCache.getStats());
+        	if (PageCache.getInstance() != null) {
+        		console.println(PageCache.getInstance().getStats());
+        	}
+        }
+        
+        // check the show replication status regex
+        matcher = SHOW_REPLICATION_STATUS.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Query: ").append(query)
+        	.append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        	List<String[]> status = Replication.getStatus();
+        	printTable(status.get(0), status.subList(1, status.size()));
+        }
+        
+        // check the refresh materialized view regex
+        matcher = REFRESH_VIEW.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String viewName = matcher.group(1);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(viewName)
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		long rows = MaterializedView.refresh(Paths.get(DATABASE_ROOT_PATH, activeDatabase, viewName + ".txt"));
+        		console.println("Materialized view " + viewName + " is refreshed with " + rows + " row(s)");
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the drop materialized view regex
+        matcher = DROP_VIEW.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String viewName = matcher.group(1);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(viewName)
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		MaterializedView.drop(Paths.get(DATABASE_ROOT_PATH, activeDatabase, viewName + ".txt"));
+        		console.println("Materialized view " + viewName + " is dropped");
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the analyze regex
+        matcher = ANALYZE.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(matcher.group(1) == null ? "" : matcher.group(1))
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		List<String> tableNames = new ArrayList<>();
+        		if (matcher.group(1) != null) {
+        			tableNames.add(matcher.group(1));
+        		}
+        		else {
+        			// every table of the database, partition files are analyzed with their table
+        			try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(DATABASE_ROOT_PATH, activeDatabase), "*.txt")) {
+        				for (Path file : files) {
+        					String name = file.getFileName().toString();
+        					name = name.substring(0, name.length() - 4);
+        					if (name.matches("\\w+")) {
+        						tableNames.add(name);
+        					}
+        				}
+        			}
+        			Collections.sort(tableNames);
+        		}
+        		for (String tableName : tableNames) {
+        			TableFile table = getTableFile(tableName);
+        			TableStatistics statistics = TableStatistics.analyze(table);
+        			TableMetadata tableMetadata = table.getMetadata();
+        			console.println("Analyzed " + tableName + ": " + statistics.getRowCount() + " row(s)");
+        			List<String[]> columns = new ArrayList<>();
+        			for (int i = 0; i < tableMetadata.getColumnCount(); i++) {
+        				TableStatistics.Column column = statistics.getColumn(i);
+        				String[] bounds = column.getBounds();
+        				columns.add(new String[] {tableMetadata.getColumnNames()[i], String.valueOf(column.getDistinct()),
+        						String.format("%.3f", column.getNullFraction()), String.format("%.1f", column.getAverageWidth()),
+        						bounds.length == 0 ? "" : bounds[0], bounds.length == 0 ? "" : bounds[bounds.length - 1],
+        						String.valueOf(Math.max(0, bounds.length - 1))});
+        			}
+        			printTable(new String[] {"Column", "Distinct", "Null fraction", "Avg width", "Min", "Max", "Buckets"}, columns);
+        		}
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the compress table regex
+        matcher = COMPRESS.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String tableName = matcher.group(1);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		TableFile table = getTableFile(tableName);
+        		if (table instanceof MemoryTable) {
+        			throw new SyntaxErrorRaiser("Table " + tableName + " is kept in memory and cannot be compressed");
+        		}
+        		long[] sizes = table.compress(matcher.group(2) != null);
+        		console.println("Table " + tableName + " compressed from " + sizes[0] + " to " + sizes[1] + " bytes");
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the compact table regex
+        matcher = COMPACT.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String tableName = matcher.group(1);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		TableFile table = getTableFile(tableName);
+        		try {
+        			boolean compacted = false;
+        			if (table instanceof MemoryTable) {
+        				compacted = ((MemoryTable) table).compact();
+        			}
+        			else {
+        				for (TableFile partition : table.getPartitions()) {
+        					compacted |= Compactor.compact(partition.getPath());
+        				}
+        			}
+        			if (compacted) {
+        				console.println("Table " + tableName + " compacted");
+        			} else {
+        				console.println("Nothing to compact in " + tableName);
+        			}
+        		} catch (InterruptedException e) {
+        			Thread.currentThread().interrupt();
+        		}
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the create bloom filter regex
+        matcher = CREATE_BLOOM.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String tableName = matcher.group(1);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		TableFile table = getTableFile(tableName);
+        		if (table instanceof MemoryTable) {
+        			throw new SyntaxErrorRaiser("Table " + tableName + " is kept in memory, it has a hash index instead of Bloom filters");
+        		}
+        		String[] columnNames = matcher.group(2).split(",");
+        		int[] columns = new int[columnNames.length];
+        		for (int i = 0; i < columnNames.length; i++) {
+        			columns[i] = table.getMetadata().indexOf(columnNames[i]);
+        			if (columns[i] == -1) {
+        				throw new SyntaxErrorRaiser("Column not found: " + columnNames[i].trim());
+        			}
+        		}
+        		double falsePositiveRate = matcher.group(3) == null ? BLOOM_FALSE_POSITIVE_RATE : Double.parseDouble(matcher.group(3));
+        		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+        			throw new SyntaxErrorRaiser("FPP must be between 0 and 1");
+        		}
+        		for (TableFile partition : table.getPartitions()) {
+        			BloomIndex.create(partition, columns, falsePositiveRate);
+        		}
+        		console.println("Bloom filter created on " + tableName);
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the drop bloom filter regex
+        matcher = DROP_BLOOM.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String tableName = matcher.group(1);
+        		queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+        		.append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+        		
+        		for (TableFile partition : getTableFile(tableName).getPartitions()) {
+        			BloomIndex.delete(partition.getPath());
+        		}
+        		console.println("Bloom filter dropped on " + tableName);
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        // check the Delete row query regex
+        matcher = DELETE_WHERE.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid  = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+	            String tableName = matcher.group(1);
+	            
+	            queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+	            .append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+	            
+	            try {
+	            	TableFile table = getTableFile(tableName);
+	            	Predicate condition = Predicate.parse(matcher.group(2), table.getMetadata());
+	            	CostModel.planScan(table, condition);
+	            	
+	            	// the rows are only marked as deleted, the compaction thread removes them later
+	            	long deletedRows = MaterializedView.delete(table, condition);
+	            	console.println("Total " + deletedRows + " row(s) are deleted in" + tableName);
+	            } catch (IOException e) {
+	                e.printStackTrace();
+	            }
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+        }
+        
+        
+        // check the update value row query regex
+        matcher = UPDATE_WHERE.matcher(query);
+        if (matcher.find()) {
+        	queryInvalid = false;
+        	if ((databaseLockFlag &&  transactionFlag) || (!databaseLockFlag &&  !transactionFlag)) {
+        		String tableName = matcher.group(1);
+                String columnToUpdate = matcher.group(2);
+                String valueToUpdate = matcher.group(3);
+                queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] [Table: ").append(tableName)
+                .append(" ] [Query: ").append(query).append("] [Query Type: Valid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+                
+                TableFile table = getTableFile(tableName);
+                int columnIndexToUpdate = table.getMetadata().indexOf(columnToUpdate);
+                if (columnIndexToUpdate == -1) {
+                    console.println("Column to update not found: " + columnToUpdate);
+                }
+                else {
+                	Predicate condition = Predicate.parse(matcher.group(4), table.getMetadata());
+                	CostModel.planScan(table, condition);
+                	MaterializedView.update(table, condition, setValue(columnIndexToUpdate, valueToUpdate));
+                    console.println("Table data updated in " + tableName);
+                }
+        	}
+        	else {
+        		console.println("Database Locked");
+        	}
+            
+        }
+        if(queryInvalid) {
+        	queryLogs.append("[User: ").append(Username).append(" ]").append("[Database: ").append(activeDatabase).append(" ] ").append("[Query: ").append(query).append("] [Query Type: InValid]").append("[Timestamp: ").append(String.valueOf(ts)).append(" ]\n");
+            
+        	throw new SyntaxErrorRaiser("Invalid Query!");
+        }
+    }
+       
+    
+    /**
+     * Private method to retrieve column names.
+     *
+     * @param tableName The name of the table for which column names are retrieved.
+     * @return An array of column names.
+     * @throws SyntaxErrorRaiser If the table does not exist.
+     */
+    private String[] getColNames(String tableName) throws SyntaxErrorRaiser {
+    	
+    	String[] colNames = null;
+        try {
+            TableFile table = findTableFile(tableName);
+            TableMetadata tableMetadata = table == null ? null : table.getMetadata();
+            if (tableMetadata == null) {
+                throw new SyntaxErrorRaiser("Table " + tableName + " does not exist.");
+            }
+            colNames = tableMetadata.getColumnNames();
+            
+        } catch (IOException e){
+            e.printStackTrace();
+        }
+        
+		return colNames;
+	}
+    
+    /**
+     * Private method to build the stored row of an INSERT.
+     *
+     * @param tableName The name of the table.
+     * @param values    The text between the brackets after VALUES.
+     * @return The values joined with `|` in the order of the table columns, or `null` if values are missing.
+     * @throws SyntaxErrorRaiser If the table does not exist or the number of values is wrong.
+     * @throws IOException       If the table file cannot be read.
+     */
+    private String getInsertRow(String tableName, String values) throws SyntaxErrorRaiser, IOException {
+    	if (findTableFile(tableName) == null) {
+    		throw new SyntaxErrorRaiser("Table does not exist.");
+    	}
+    	String[] colNames = getColNames(tableName);
+    	String[] rowData = values.split(",");
+    	HashMap<String, String> tableRowData = new HashMap<>();
+    	if (colNames.length == rowData.length) {
+    		for (int i = 0; i < colNames.length; i++) {
+    			tableRowData.put(colNames[i].trim(), rowData[i].trim());
+    		}
+    	}
+    	else {
+    		throw new SyntaxErrorRaiser("Invalid column names");
+    	}
+    	
+    	if (tableRowData.size() != colNames.length) {
+    		console.println("Values are missing in the query");
+    		return null;
+    	}
+    	List<String> rowsData = new ArrayList<>();
+    	for (String col : colNames) {
+    		rowsData.add(tableRowData.get(col.trim()));
+    	}
+    	return String.join("|", rowsData);
+    }
+    
+    /**
+     * Find the tables a statement names.
+     *
+     * @param query The statement.
+     * @return The table names joined with `,`, empty if there are none.
+     */
+    public static String getTableNames(String query) {
+    	Set<String> tableNames = new LinkedHashSet<>();
+    	Matcher matcher = TABLE_NAMES.matcher(query);
+    	while (matcher.find()) {
+    		tableNames.add(matcher.group(1));
+    	}
+    	return String.join(",", tableNames);
+    }
+    
+    /**
+     * Private method to open the file of a table.
+     *
+     * @param tableName The name of the table.
+     * @return The table file.
+     * @throws SyntaxErrorRaiser If the table does not exist.
+     * @throws IOException       If the table file cannot be read.
+     */
+    private TableFile getTableFile(String tableName) throws SyntaxErrorRaiser, IOException {
+    	TableFile table = findTableFile(tableName);
+    	if (table == null) {
+    		throw new SyntaxErrorRaiser("Table " + tableName + " does not exist.");
+    	}
+    	return table;
+    }
+    
+    /**
+     * Private method to find a table, a memory table of the session hides a table file with the same name.
+     *
+     * @param tableName The name of the table.
+     * @return The table, or `null` if it does not exist or its file is empty.
+     * @throws IOException If the table file cannot be read.
+     */
+    private TableFile findTableFile(String tableName) throws IOException {
+    	MemoryTable memoryTable = memoryTables.get(tableName);
+    	if (memoryTable != null) {
+    		return memoryTable;
+    	}
+    	Path tableFilePath = Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt");
+    	if (!Files.exists(tableFilePath)) {
+    		return null;
+    	}
+    	TableFile table = TableFile.open(tableFilePath);
+    	return table.getMetadata() == null ? null : table;
+    }
+    
+    /**
+     * Private method to get the path a table is known by, also for a memory table.
+     *
+     * @param tableName The name of the table.
+     * @return The path of the table file.
+     */
+    private Path getTablePath(String tableName) {
+    	MemoryTable memoryTable = memoryTables.get(tableName);
+    	return memoryTable != null ? memoryTable.getPath() : Paths.get(DATABASE_ROOT_PATH, activeDatabase, tableName + ".txt");
+    }
+    
+    /**
+     * Private method to choose the result cache of a statement, results that read a memory table are not kept.
+     *
+     * @param tables The tables the statement reads.
+     * @return The result cache.
+     */
+    private QueryResultCache getResultCache(TableFile... tables) {
+    	for (TableFile table : tables) {
+    		if (table instanceof MemoryTable) {
+    			return NO_RESULT_CACHE;
+    		}
+    	}
+    	return resultCache;
+    }
+    
+    /**
+     * Private method to remove the partition and engine clauses and the TEMPORARY word of a CREATE statement,
+     * so it matches the create regex.
+     *
+     * @param query The statement.
+     * @return The statement without the clauses.
+     */
+    private String getCreateStatement(String query) {
+    	String statement = PARTITION_BY.matcher(query).replaceFirst("");
+    	statement = ENGINE.matcher(statement).replaceFirst("");
+    	return CREATE_TEMPORARY.matcher(statement).replaceFirst("Create table ");
+    }
+    
+    /**
+     * Private method to turn a foreign key of a CREATE statement into its header entry, `column->table.column`.
+     *
+     * @param definition The foreign key, like `FOREIGN KEY (pid) REFERENCES P(id)` or `FOREIGN KEY pid REFERENCES P`.
+     * @return The header entry, without the referenced column if the statement has none.
+     * @throws SyntaxErrorRaiser If the foreign key is not valid.
+     */
+    private String getForeignKey(String definition) throws SyntaxErrorRaiser {
+    	Matcher matcher = FOREIGN_KEY.matcher(definition.trim());
+    	if (!matcher.matches()) {
+    		throw new SyntaxErrorRaiser("Invalid syntax");
+    	}
+    	return matcher.group(1) + "->" + matcher.group(2) + (matcher.group(3) == null ? "" : "." + matcher.group(3));
+    }
+    
+    /**
+     * Private method to check if a CREATE statement makes a memory table.
+     *
+     * @param query The CREATE statement.
+     * @return `true` for CREATE TEMPORARY TABLE or ENGINE=MEMORY.
+     * @throws SyntaxErrorRaiser If the engine is unknown.
+     */
+    private boolean isMemoryCreate(String query) throws SyntaxErrorRaiser {
+    	Matcher engine = ENGINE.matcher(query);
+    	if (engine.find() && !engine.group(1).equalsIgnoreCase("memory") && !engine.group(1).equalsIgnoreCase("file")) {
+    		throw new SyntaxErrorRaiser("Unknown engine: " + engine.group(1) + ", use MEMORY or FILE");
+    	}
+    	return CREATE_TEMPORARY.matcher(query).find() || (engine.find(0) && engine.group(1).equalsIgnoreCase("memory"));
+    }
+    
+    /**
+     * Private method to check if a statement only uses memory tables of the session.
+     *
+     * @param query The statement.
+     * @return `true` if it creates a memory table or every table it names is a memory table.
+     * @throws SyntaxErrorRaiser If a CREATE statement names an unknown engine.
+     */
+    private boolean isMemoryStatement(String query) throws SyntaxErrorRaiser {
+    	if (CREATE.matcher(getCreateStatement(query)).find()) {
+    		return isMemoryCreate(query);
+    	}
+    	String tableNames = getTableNames(query);
+    	if (tableNames.isEmpty() || memoryTables.isEmpty()) {
+    		return false;
+    	}
+    	for (String tableName : tableNames.split(",")) {
+    		if (!memoryTables.containsKey(tableName)) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
+    /**
+     * Private method to resolve the selected columns of a join.
+     *
+     * @param selectList The text between SELECT and FROM, `*` or `table.column` names.
+     * @param left       Metadata of the left table.
+     * @param right      Metadata of the right table.
+     * @return Pairs of side (0 for left, 1 for right) and column index.
+     * @throws SyntaxErrorRaiser If a column is unknown or ambiguous.
+     */
+    private List<int[]> getJoinProjection(String selectList, TableMetadata left, TableMetadata right) throws SyntaxErrorRaiser {
+    	List<int[]> projection = new ArrayList<>();
+    	if (selectList.equals("*")) {
+    		for (int i = 0; i < left.getColumnCount(); i++) {
+    			projection.add(new int[] {0, i});
+    		}
+    		for (int i = 0; i < right.getColumnCount(); i++) {
+    			projection.add(new int[] {1, i});
+    		}
+    		return projection;
+    	}
+    	for (String column : selectList.split(",")) {
+    		String[] parts = column.trim().split("\\.");
+    		int leftIndex = -1;
+    		int rightIndex = -1;
+    		if (parts.length == 2) {
+    			if (parts[0].equalsIgnoreCase(left.getTableName())) {
+    				leftIndex = left.indexOf(parts[1]);
+    			} else if (parts[0].equalsIgnoreCase(right.getTableName())) {
+    				rightIndex = right.indexOf(parts[1]);
+    			}
+    		} else {
+    			leftIndex = left.indexOf(parts[0]);
+    			rightIndex = right.indexOf(parts[0]);
+    			if (leftIndex != -1 && rightIndex != -1) {
+    				throw new SyntaxErrorRaiser("Column " + column.trim() + " is ambiguous");
+    			}
+    		}
+    		if (leftIndex != -1) {
+    			projection.add(new int[] {0, leftIndex});
+    		} else if (rightIndex != -1) {
+    			projection.add(new int[] {1, rightIndex});
+    		} else {
+    			throw new SyntaxErrorRaiser("Column not found: " + column.trim());
+    		}
+    	}
+    	return projection;
+    }
+
+    /**
+     * Private method to create the result collector for the ORDER BY and LIMIT part of a select.
+     *
+     * @param tableMetadata The metadata of the selected table.
+     * @param matcher       The matcher of the select query.
+     * @param firstGroup    The group of the ORDER BY column, followed by direction, limit and offset.
+     * @return The result collector.
+     * @throws SyntaxErrorRaiser If the ORDER BY column does not exist.
+     */
+    private RowSorter getRowSorter(TableMetadata tableMetadata, Matcher matcher, int firstGroup) throws SyntaxErrorRaiser {
+    	Comparator<String[]> order = null;
+    	String orderColumn = matcher.group(firstGroup);
+    	if (orderColumn != null) {
+    		int orderIndex = tableMetadata.indexOf(orderColumn);
+    		if (orderIndex == -1) {
+    			throw new SyntaxErrorRaiser("Order by column not found: " + orderColumn);
+    		}
+    		order = tableMetadata.rowComparator(orderIndex, "desc".equalsIgnoreCase(matcher.group(firstGroup + 1)));
+    	}
+    	long limit = matcher.group(firstGroup + 2) == null ? -1 : Long.parseLong(matcher.group(firstGroup + 2));
+    	long offset = matcher.group(firstGroup + 3) == null ? 0 : Long.parseLong(matcher.group(firstGroup + 3));
+    	return new RowSorter(order, limit, offset, Paths.get(DATABASE_ROOT_PATH, activeDatabase, ".tmp"));
+    }
+    
+    /**
+     * Private method to read the join columns of a join, the ON condition can name the tables in either order.
+     *
+     * @param matcher The matched join statement.
+     * @return The join column of the left table and of the right table.
+     * @throws SyntaxErrorRaiser If the condition does not compare the two tables.
+     */
+    private String[] getJoinColumns(Matcher matcher) throws SyntaxErrorRaiser {
+    	String leftTable = matcher.group(2);
+    	String rightTable = matcher.group(3);
+    	if (matcher.group(4).equalsIgnoreCase(leftTable) && matcher.group(6).equalsIgnoreCase(rightTable)) {
+    		return new String[] {matcher.group(5), matcher.group(7)};
+    	} else if (matcher.group(4).equalsIgnoreCase(rightTable) && matcher.group(6).equalsIgnoreCase(leftTable)) {
+    		return new String[] {matcher.group(7), matcher.group(5)};
+    	}
+    	throw new SyntaxErrorRaiser("Join condition must compare " + leftTable + " with " + rightTable);
+    }
+    
+    /**
+     * Private method to plan a statement without running it, for EXPLAIN.
+     *
+     * @param statement The statement after EXPLAIN.
+     * @return The lines of the plan.
+     * @throws SyntaxErrorRaiser If the statement cannot be planned.
+     * @throws IOException       If a table file cannot be read.
+     */
+    private List<String> explain(String statement) throws SyntaxErrorRaiser, IOException {
+    	List<String> plan = new ArrayList<>();
+    	Matcher matcher;
+    	String tableName = null;
+    	String condition = null;
+    	if ((matcher = SELECT_WHERE.matcher(statement)).find() || (matcher = DELETE_WHERE.matcher(statement)).find()) {
+    		tableName = matcher.group(1);
+    		condition = matcher.group(2);
+    	} else if ((matcher = UPDATE_WHERE.matcher(statement)).find()) {
+    		tableName = matcher.group(1);
+    		condition = matcher.group(4);
+    	} else if ((matcher = SELECT_ALL.matcher(statement)).find()) {
+    		tableName = matcher.group(1);
+    	} else if ((matcher = SELECT_JOIN.matcher(statement)).find()) {
+    		String[] joinColumns = getJoinColumns(matcher);
+    		TableFile left = getTableFile(matcher.group(2));
+    		TableFile right = getTableFile(matcher.group(3));
+    		if (left.getMetadata().indexOf(joinColumns[0]) == -1 || right.getMetadata().indexOf(joinColumns[1]) == -1) {
+    			throw new SyntaxErrorRaiser("Join column not found: " + (left.getMetadata().indexOf(joinColumns[0]) == -1 ? joinColumns[0] : joinColumns[1]));
+    		}
+    		plan.add(CostModel.planJoin(left, joinColumns[0], right, joinColumns[1], HashJoin.MEMORY_ROWS).describe());
+    		plan.add(CostModel.planScan(left, null).describe());
+    		plan.add(CostModel.planScan(right, null).describe());
+    		return plan;
+    	} else {
+    		throw new SyntaxErrorRaiser("Only SELECT, UPDATE and DELETE can be explained");
+    	}
+    	
+    	TableFile table = getTableFile(tableName);
+    	Predicate predicate = condition == null ? null : Predicate.parse(condition, table.getMetadata());
+    	plan.add(CostModel.planScan(table, predicate).describe());
+    	if (predicate != null) {
+    		plan.add("Conditions: " + predicate.describe());
+    	}
+    	return plan;
+    }
+    
+    /**
+     * Private method to print rows as a table with borders.
+     *
+     * @param colNames The column names.
+     * @param rows     The rows to print, read twice to find the column widths.
+     */
+    private void printTable(String[] colNames, Iterable<String[]> rows) {
+    	int[] columnWidths = new int[colNames.length];
+        for (int i = 0; i < colNames.length; i++) {
+            columnWidths[i] = colNames[i].length();
+        }
+        for (String[] rowDataSeparate : rows) {
+            for (int j = 0; j < rowDataSeparate.length && j < columnWidths.length; j++) {
+                if (rowDataSeparate[j].length() > columnWidths[j]) {
+                    columnWidths[j] = rowDataSeparate[j].length();
+                }
+            }
+        }
+        printTableBorder(columnWidths);
+        
+        console.print("|");
+        for (int i = 0; i < colNames.length; i++) {
+            console.print(" " + colNames[i]);
+            for (int j = colNames[i].length(); j < columnWidths[i]; j++) {
+                console.print(" ");
+            }
+            console.print(" |");
+        }
+        console.println();
+        printTableBorder(columnWidths);
+
+        for (String[] rowValues : rows) {
+            console.print("|");
+            for (int j = 0; j < rowValues.length && j < columnWidths.length; j++) {
+                console.print(" " + rowValues[j]);
+                for (int k = rowValues[j].length(); k < columnWidths[j]; k++) {
+                    console.print(" ");
+                }
+                console.print(" |");
+            }
+            console.println();
+        }
+        printTableBorder(columnWidths);
+    }
+    
+    private void printTableBorder(int[] columnWidths) {
+    	console.print("+");
+        for (int width : columnWidths) {
+            for (int i = 0; i < width + 2; i++) {
+                console.print("-");
+            }
+            console.print("+");
+        }
+        console.println();
+    }
+
+    /**
+     * Private method to update the metadata of a table.
+     *
+     * @param tableName     The name of the table to update.
+     * @param metadataLine  The new metadata line for the table.
+     */
+	private void updateTableTxt(String tableName, String metadataLine) {
+        try {
+            FileWriter tableFileWriter = new FileWriter(DATABASE_ROOT_PATH + activeDatabase + "/" + tableName + ".txt");
+            tableFileWriter.write(metadataLine); 
+            tableFileWriter.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+    
+	
+	/**
+	 * Private method to verify if a folder is locked by looking for a lock file.
+	 *
+	 * @param folderPath The path to the folder to be checked.
+	 * @return `true` if the folder is locked, `false` if not.
+	 */
+	public static boolean isFolderLocked(String folderPath) {
+        File lockFile = new File(folderPath, "lockfile.lock");
+        return lockFile.exists();
+    }
+}
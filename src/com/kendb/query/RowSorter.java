@@ -0,0 +1,202 @@
+package com.kendb.query;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The `RowSorter` is for collecting the rows of a SELECT with ORDER BY and LIMIT.
+ * Without ORDER BY it keeps rows until the limit is reached so the scan can stop early.
+ * With ORDER BY and a LIMIT whose rows fit in the memory budget it keeps only the best rows in a bounded heap.
+ * Otherwise it sorts in memory and spills sorted runs to disk when the memory budget is exceeded,
+ * the runs are merged while the result is read and the merge stops at the limit.
+ */
+public class RowSorter implements Closeable {
+
+	static int MEMORY_ROWS = Integer.getInteger("kendb.sort.memoryRows", 100000); // max rows kept in memory before a run is spilled
+
+	Comparator<String[]> order;
+	long limit;
+	long offset;
+	Path tempRoot;
+	long skipped = 0;
+	List<String[]> rows = new ArrayList<>();
+	PriorityQueue<String[]> topRows;
+	List<Path> runs = new ArrayList<>();
+	Path runFolder;
+
+	/**
+	 * Constructor for the RowSorter.
+	 *
+	 * @param order    Order of the rows, or `null` to keep the scan order.
+	 * @param limit    Max number of rows in the result, or -1 for no limit.
+	 * @param offset   Number of rows to skip before the result starts.
+	 * @param tempRoot Folder to keep sorted runs in if the sort spills.
+	 */
+	public RowSorter(Comparator<String[]> order, long limit, long offset, Path tempRoot) {
+		this.order = order;
+		this.limit = limit;
+		this.offset = offset;
+		this.tempRoot = tempRoot;
+		if (order != null && limit >= 0 && offset + limit <= MEMORY_ROWS) {
+			// reversed order so the worst row of the current top rows is on the head of the heap
+			topRows = new PriorityQueue<>((int) (offset + limit + 1), order.reversed());
+		}
+	}
+
+	/**
+	 * Add a row to the result.
+	 *
+	 * @param row The row values.
+	 * @return `false` if the result is complete and the scan can stop.
+	 * @throws IOException If a sorted run could not be written.
+	 */
+	public boolean add(String[] row) throws IOException {
+		if (order == null) {
+			if (skipped < offset) {
+				skipped++;
+				return true;
+			}
+			if (limit >= 0 && rows.size() >= limit) {
+				return false;
+			}
+			rows.add(row);
+			return limit < 0 || rows.size() < limit;
+		}
+		if (limit == 0) {
+			return false;
+		}
+		if (topRows != null) {
+			topRows.add(row);
+			if (topRows.size() > offset + limit) {
+				topRows.poll();
+			}
+			return true;
+		}
+		rows.add(row);
+		if (rows.size() >= MEMORY_ROWS) {
+			spillRun();
+		}
+		return true;
+	}
+
+	/**
+	 * Get the rows of the result in order, the result can be read more than once.
+	 *
+	 * @return The result rows.
+	 * @throws IOException If a sorted run could not be written.
+	 */
+	public Iterable<String[]> getRows() throws IOException {
+		if (order == null) {
+			return rows;
+		}
+		if (topRows != null) {
+			List<String[]> sorted = new ArrayList<>(topRows);
+			sorted.sort(order);
+			return sorted.subList((int) Math.min(offset, sorted.size()), sorted.size());
+		}
+		if (runs.isEmpty()) {
+			rows.sort(order);
+			int end = limit < 0 ? rows.size() : (int) Math.min(offset + limit, rows.size());
+			return rows.subList((int) Math.min(offset, end), end);
+		}
+		if (!rows.isEmpty()) {
+			spillRun();
+		}
+		return () -> new MergeIterator();
+	}
+
+	/**
+	 * Delete the sorted runs of this result.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		if (runFolder != null) {
+			Files.deleteIfExists(runFolder);
+		}
+	}
+
+	private void spillRun() throws IOException {
+		if (runFolder == null) {
+			runFolder = tempRoot.resolve("sort-" + System.nanoTime());
+			Files.createDirectories(runFolder);
+		}
+		rows.sort(order);
+		Path run = runFolder.resolve("run-" + runs.size() + ".txt");
+		try (BufferedWriter writer = Files.newBufferedWriter(run)) {
+			for (String[] row : rows) {
+				writer.write(String.join("|", row));
+				writer.newLine();
+			}
+		}
+		runs.add(run);
+		rows.clear();
+	}
+
+	/**
+	 * K-way merge over the sorted runs, skips the offset rows and stops after the limit.
+	 */
+	private class MergeIterator implements Iterator<String[]> {
+		List<BufferedReader> readers = new ArrayList<>();
+		PriorityQueue<Object[]> heads; // {row, reader index}
+		long remaining = Long.MAX_VALUE; // rows left until the limit
+
+		MergeIterator() {
+			heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> order.compare((String[]) a[0], (String[]) b[0]));
+			try {
+				for (Path run : runs) {
+					BufferedReader reader = Files.newBufferedReader(run);
+					readers.add(reader);
+					advance(readers.size() - 1);
+				}
+				for (long i = 0; i < offset && hasNext(); i++) {
+					next();
+				}
+				if (limit >= 0) {
+					remaining = limit;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void advance(int readerIndex) throws IOException {
+			String line = readers.get(readerIndex).readLine();
+			if (line != null) {
+				heads.add(new Object[] {line.split("\\|"), readerIndex});
+			} else {
+				readers.get(readerIndex).close();
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0 && !heads.isEmpty();
+		}
+
+		@Override
+		public String[] next() {
+			Object[] head = remaining > 0 ? heads.poll() : null;
+			if (head == null) {
+				throw new NoSuchElementException();
+			}
+			try {
+				if (--remaining == 0) {
+					// the limit is reached, the rest of the runs is not read
+					heads.clear();
+					for (BufferedReader reader : readers) {
+						reader.close();
+					}
+				} else {
+					advance((Integer) head[1]);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return (String[]) head[0];
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package com.kendb.query;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * The `TableChange` is an INSERT, UPDATE or DELETE of a transaction, checked when it was queued.
+ * At commit the changes of a table are written together by `QueryChecker.applyChanges`.
+ */
+public class TableChange {
+
+	String tableName;
+	String query;
+	String row; // the stored row of an INSERT
+	Predicate condition; // the rows of an UPDATE or DELETE
+	UnaryOperator<String[]> change; // the new values of an UPDATE, `null` for a DELETE
+
+	TableChange(String tableName, String query, String row, Predicate condition, UnaryOperator<String[]> change) {
+		this.tableName = tableName;
+		this.query = query;
+		this.row = row;
+		this.condition = condition;
+		this.change = change;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	boolean isInsert() {
+		return row != null;
+	}
+
+	boolean isDelete() {
+		return row == null && change == null;
+	}
+}
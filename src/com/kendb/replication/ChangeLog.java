@@ -0,0 +1,256 @@
+package com.kendb.replication;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The `ChangeLog` keeps the committed changes of the primary in segment files named
+ * `changes-<first LSN>.log`, every record stored with its length in front. A new segment is started
+ * when the current one is too large and only the newest segments are kept, a follower that is
+ * further behind gets a snapshot instead.
+ * The folder also holds `system.id`, a random number that tells followers which primary their data came from.
+ */
+public class ChangeLog {
+
+	public static long MAX_SEGMENT_BYTES = Long.getLong("kendb.replication.segmentBytes", 16L * 1024 * 1024); // size of a segment before a new one is started
+	public static int KEEP_SEGMENTS = Integer.getInteger("kendb.replication.keepSegments", 4); // segments kept for followers that are behind
+
+	static Pattern SEGMENT_NAME = Pattern.compile("changes-(\\d+)\\.log");
+
+	Path folder;
+	long systemId;
+	long firstLsn;
+	long lastLsn;
+	long lastTimestamp;
+	Path segmentFile;
+	long segmentSize;
+	FileOutputStream out;
+
+	/**
+	 * Constructor for the ChangeLog, it continues the newest segment and drops a record that was cut off.
+	 *
+	 * @param folder The folder of the segments.
+	 * @throws IOException If the log cannot be read or created.
+	 */
+	public ChangeLog(Path folder) throws IOException {
+		this.folder = folder;
+		Files.createDirectories(folder);
+		Path idFile = folder.resolve("system.id");
+		if (Files.exists(idFile)) {
+			systemId = Long.parseLong(new String(Files.readAllBytes(idFile)).trim());
+		} else {
+			systemId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+			Files.write(idFile, String.valueOf(systemId).getBytes());
+		}
+
+		List<Long> segments = listSegments();
+		if (segments.isEmpty()) {
+			firstLsn = 1;
+			lastLsn = 0;
+			openSegment(1);
+			return;
+		}
+		firstLsn = segments.get(0);
+		long start = segments.get(segments.size() - 1);
+		lastLsn = start - 1;
+		segmentFile = segmentPath(start);
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile.toFile(), "rw")) {
+			long position = 0;
+			long length = file.length();
+			while (position + 4 <= length) {
+				file.seek(position);
+				int recordLength = file.readInt();
+				if (position + 4 + recordLength > length) {
+					break;
+				}
+				byte[] bytes = new byte[recordLength];
+				file.readFully(bytes);
+				ChangeRecord record = ChangeRecord.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+				lastLsn = record.lsn;
+				lastTimestamp = record.timestamp;
+				position += 4 + recordLength;
+			}
+			file.setLength(position);
+			segmentSize = position;
+		}
+		out = new FileOutputStream(segmentFile.toFile(), true);
+	}
+
+	/**
+	 * Add a committed change.
+	 *
+	 * @param database The database the statement ran in.
+	 * @param query    The statement.
+	 * @return The record with its LSN.
+	 * @throws IOException If the record cannot be written.
+	 */
+	public synchronized ChangeRecord append(String database, String query) throws IOException {
+		if (segmentSize >= MAX_SEGMENT_BYTES) {
+			nextSegment();
+		}
+		ChangeRecord record = new ChangeRecord(lastLsn + 1, System.currentTimeMillis(), database, query);
+		byte[] bytes = record.toBytes();
+		// one write, a reader never sees a length without its record for long
+		out.write(ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).array());
+		segmentSize += 4 + bytes.length;
+		lastLsn = record.lsn;
+		lastTimestamp = record.timestamp;
+		notifyAll();
+		return record;
+	}
+
+	/**
+	 * Wait until there is a change after an LSN.
+	 *
+	 * @param lsn    The last LSN the caller has.
+	 * @param millis The longest time to wait.
+	 * @throws InterruptedException If the thread is interrupted.
+	 */
+	public synchronized void awaitAfter(long lsn, long millis) throws InterruptedException {
+		if (lastLsn <= lsn) {
+			wait(millis);
+		}
+	}
+
+	/**
+	 * Read the changes from an LSN on.
+	 *
+	 * @param fromLsn The first LSN to read.
+	 * @return The reader, or `null` if the change is not kept anymore.
+	 * @throws IOException If the log cannot be read.
+	 */
+	public Reader reader(long fromLsn) throws IOException {
+		long start = -1;
+		synchronized (this) {
+			if (fromLsn < firstLsn || fromLsn > lastLsn + 1) {
+				return null;
+			}
+			for (long segment : listSegments()) {
+				if (segment <= fromLsn) {
+					start = segment;
+				}
+			}
+		}
+		if (start == -1) {
+			return null;
+		}
+		Reader reader = new Reader(start);
+		while (reader.nextLsn < fromLsn) {
+			if (reader.next() == null) {
+				reader.close();
+				return null;
+			}
+		}
+		return reader;
+	}
+
+	public synchronized long getFirstLsn() {
+		return firstLsn;
+	}
+
+	public synchronized long getLastLsn() {
+		return lastLsn;
+	}
+
+	public synchronized long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	public long getSystemId() {
+		return systemId;
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * The `Reader` follows the log through its segments, it returns `null` when it reached the end for now.
+	 */
+	public class Reader implements Closeable {
+		long nextLsn;
+		RandomAccessFile file;
+		long position = 0;
+
+		Reader(long segmentStart) throws IOException {
+			nextLsn = segmentStart;
+			file = new RandomAccessFile(segmentPath(segmentStart).toFile(), "r");
+		}
+
+		/**
+		 * @return The next change, or `null` if there is none yet.
+		 * @throws IOException If the log cannot be read.
+		 */
+		public ChangeRecord next() throws IOException {
+			while (true) {
+				long length = file.length();
+				if (position + 4 <= length) {
+					file.seek(position);
+					int recordLength = file.readInt();
+					if (position + 4 + recordLength > length) {
+						return null;
+					}
+					byte[] bytes = new byte[recordLength];
+					file.readFully(bytes);
+					position += 4 + recordLength;
+					ChangeRecord record = ChangeRecord.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+					nextLsn = record.lsn + 1;
+					return record;
+				}
+				// the writer only starts a segment after the previous one is complete
+				Path next = segmentPath(nextLsn);
+				if (position == 0 || !Files.exists(next)) {
+					return null;
+				}
+				file.close();
+				file = new RandomAccessFile(next.toFile(), "r");
+				position = 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			file.close();
+		}
+	}
+
+	private void openSegment(long start) throws IOException {
+		segmentFile = segmentPath(start);
+		out = new FileOutputStream(segmentFile.toFile(), true);
+		segmentSize = Files.size(segmentFile);
+	}
+
+	private void nextSegment() throws IOException {
+		out.close();
+		openSegment(lastLsn + 1);
+		List<Long> segments = listSegments();
+		for (int i = 0; i < segments.size() - KEEP_SEGMENTS; i++) {
+			Files.deleteIfExists(segmentPath(segments.get(i)));
+		}
+		firstLsn = segments.get(Math.max(0, segments.size() - KEEP_SEGMENTS));
+	}
+
+	private Path segmentPath(long start) {
+		return folder.resolve(String.format("changes-%020d.log", start));
+	}
+
+	private List<Long> listSegments() throws IOException {
+		List<Long> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(folder)) {
+			files.forEach(file -> {
+				Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					segments.add(Long.parseLong(matcher.group(1)));
+				}
+			});
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+}
@@ -0,0 +1,84 @@
+package com.kendb.replication;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The `ChangeRecord` is one committed statement that changed a database, numbered with its
+ * log sequence number (LSN). Followers run the statements in LSN order.
+ */
+public class ChangeRecord {
+
+	long lsn;
+	long timestamp;
+	String database;
+	String query;
+
+	/**
+	 * Constructor for the ChangeRecord.
+	 *
+	 * @param lsn       The log sequence number.
+	 * @param timestamp The commit time in milliseconds.
+	 * @param database  The database the statement ran in.
+	 * @param query     The statement.
+	 */
+	public ChangeRecord(long lsn, long timestamp, String database, String query) {
+		this.lsn = lsn;
+		this.timestamp = timestamp;
+		this.database = database == null ? "" : database;
+		this.query = query;
+	}
+
+	public long getLsn() {
+		return lsn;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getDatabase() {
+		return database;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeLong(lsn);
+		out.writeLong(timestamp);
+		writeText(out, database);
+		writeText(out, query);
+	}
+
+	static ChangeRecord read(DataInput in) throws IOException {
+		return new ChangeRecord(in.readLong(), in.readLong(), readText(in), readText(in));
+	}
+
+	// UTF-8 with the length in front, `writeUTF` stops at 65535 bytes and a statement can be longer
+	private static void writeText(DataOutput out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readText(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid change record");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The record as it is stored in the change log, without the length in front.
+	 */
+	byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + query.length());
+		write(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+}
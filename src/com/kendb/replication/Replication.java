@@ -0,0 +1,125 @@
+package com.kendb.replication;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import com.kendb.audit.AuditRecord;
+import com.kendb.query.SyntaxErrorRaiser;
+
+/**
+ * The `Replication` starts this process as a primary or a follower, set with `kendb.replication.role`.
+ * The primary writes every committed change to its change log and streams it to the followers
+ * connected on `kendb.replication.port` of the local host. A follower applies the changes to its own
+ * data folder (`kendb.dataDir`) and serves read-only sessions, it starts from a snapshot when it is
+ * new or too far behind.
+ */
+public class Replication {
+
+	public static String ROLE = System.getProperty("kendb.replication.role", "none"); // primary, follower or none
+	public static int PORT = Integer.getInteger("kendb.replication.port", 7070); // port of the primary
+	public static String PRIMARY_HOST = System.getProperty("kendb.replication.primaryHost", "localhost"); // host of the primary, for followers
+
+	static Set<String> CHANGE_TYPES = new HashSet<>(Arrays.asList("INSERT", "UPDATE", "DELETE", "CREATE", "DROP", "COMPRESS", "REFRESH"));
+
+	// changes are applied and logged one at a time, so followers run them in the same order
+	static ReentrantLock commitLock = new ReentrantLock();
+	static ReplicationPrimary primary;
+	static ReplicationFollower follower;
+
+	/**
+	 * Start replication for the role of this process.
+	 *
+	 * @param dataDir The folder of the databases.
+	 * @throws IOException If the change log cannot be opened or the port is taken.
+	 */
+	public static synchronized void start(Path dataDir) throws IOException {
+		if (primary != null || follower != null) {
+			return;
+		}
+		if (ROLE.equalsIgnoreCase("primary")) {
+			primary = new ReplicationPrimary(dataDir, new ChangeLog(dataDir.resolve(".replication")), PORT);
+			primary.start();
+		} else if (ROLE.equalsIgnoreCase("follower")) {
+			follower = new ReplicationFollower(dataDir, PRIMARY_HOST, PORT);
+			follower.start();
+		}
+	}
+
+	/**
+	 * @return `true` if a statement changes a database.
+	 */
+	public static boolean isChange(String query) {
+		return CHANGE_TYPES.contains(AuditRecord.TYPES[AuditRecord.typeOf(query)]);
+	}
+
+	/**
+	 * Refuse changes and transactions on a follower.
+	 *
+	 * @param query The statement of a session.
+	 * @throws SyntaxErrorRaiser If this is a follower and the statement would change a database.
+	 */
+	public static void checkWritable(String query) throws SyntaxErrorRaiser {
+		if (follower != null && (isChange(query) || AuditRecord.TYPES[AuditRecord.typeOf(query)].equals("BEGIN"))) {
+			throw new SyntaxErrorRaiser("This is a read-only follower, run changes on the primary at " + PRIMARY_HOST + ":" + PORT);
+		}
+	}
+
+	/**
+	 * The lock a session holds while it runs a statement: on the primary changes hold the commit lock,
+	 * on a follower every statement waits while a snapshot is installed.
+	 *
+	 * @param query The statement.
+	 * @return The lock, or `null` if none is needed.
+	 */
+	public static Lock lockFor(String query) {
+		if (primary != null && isChange(query)) {
+			return commitLock;
+		}
+		if (follower != null) {
+			return follower.sessionLock.readLock();
+		}
+		return null;
+	}
+
+	/**
+	 * The lock held while several changes are committed together, like a transaction.
+	 *
+	 * @return The lock, or `null` if this is not a primary.
+	 */
+	public static Lock commitLock() {
+		return primary != null ? commitLock : null;
+	}
+
+	/**
+	 * Write a change to the change log before it is applied, call it while holding the lock of the statement.
+	 *
+	 * @param database The database the statement ran in.
+	 * @param query    The statement.
+	 * @throws IOException If the change log cannot be written.
+	 */
+	public static void logChange(String database, String query) throws IOException {
+		if (primary != null && isChange(query)) {
+			primary.changeLog.append(database, query);
+		}
+	}
+
+	/**
+	 * @return The header and rows of SHOW REPLICATION STATUS.
+	 */
+	public static List<String[]> getStatus() {
+		List<String[]> rows = new ArrayList<>();
+		if (primary != null) {
+			rows.add(new String[] {"Role", "Connection", "State", "LSN", "Acknowledged LSN", "Lag (changes)", "Lag (ms)"});
+			rows.addAll(primary.getStatus());
+		} else if (follower != null) {
+			rows.add(new String[] {"Role", "Connection", "State", "LSN", "Primary LSN", "Lag (changes)", "Lag (ms)"});
+			rows.add(follower.getStatus());
+		} else {
+			rows.add(new String[] {"Role"});
+			rows.add(new String[] {"none"});
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,252 @@
+package com.kendb.replication;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import com.kendb.query.QueryChecker;
+import com.kendb.query.SyntaxErrorRaiser;
+import com.kendb.storage.TableLocks;
+
+/**
+ * The `ReplicationFollower` keeps the data folder of a follower up to date with the primary.
+ * It applies the changes in LSN order and remembers the last applied LSN in `.replication/follower.state`,
+ * so after a restart it continues where it stopped. The state also marks the change being applied, if the
+ * process stopped during it the follower asks for a snapshot instead of applying the change twice.
+ * When the primary sends a snapshot the databases are replaced while sessions wait.
+ */
+public class ReplicationFollower implements Runnable {
+
+	public static long RETRY_MILLIS = Long.getLong("kendb.replication.retryMillis", 1000); // time between attempts to reach the primary
+
+	Path dataDir;
+	String host;
+	int port;
+	Path stateFile;
+	// sessions hold the read lock, a snapshot is installed with the write lock
+	ReentrantReadWriteLock sessionLock = new ReentrantReadWriteLock();
+	QueryChecker applier;
+
+	volatile String state = "connecting";
+	volatile long primaryId;
+	volatile long appliedLsn;
+	volatile long primaryLsn;
+	volatile long appliedTimestamp;
+	long applyingLsn; // LSN of the change being applied, 0 when none
+
+	/**
+	 * Constructor for the ReplicationFollower.
+	 *
+	 * @param dataDir The folder of the databases of this follower.
+	 * @param host    The host of the primary.
+	 * @param port    The port of the primary.
+	 * @throws IOException If the state cannot be read.
+	 */
+	public ReplicationFollower(Path dataDir, String host, int port) throws IOException {
+		this.dataDir = dataDir;
+		this.host = host;
+		this.port = port;
+		this.stateFile = dataDir.resolve(".replication").resolve("follower.state");
+		Files.createDirectories(stateFile.getParent());
+		if (Files.exists(stateFile)) {
+			try (DataInputStream in = new DataInputStream(Files.newInputStream(stateFile))) {
+				primaryId = in.readLong();
+				appliedLsn = in.readLong();
+				appliedTimestamp = in.readLong();
+				applyingLsn = Files.size(stateFile) >= 32 ? in.readLong() : 0;
+			}
+		}
+		if (applyingLsn > appliedLsn) {
+			// it is not known how much of the change was written, a snapshot replaces it
+			System.out.println("Replication: LSN " + applyingLsn + " was cut off, waiting for a snapshot");
+			primaryId = 0;
+		}
+		applyingLsn = 0;
+		primaryLsn = appliedLsn;
+		// the results of the replicated statements would end up in the prompt of the user
+		applier = new QueryChecker(Writer.nullWriter(), new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	/**
+	 * Follow the primary in the background.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "kendb-replication-follower");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try (Socket socket = new Socket(host, port)) {
+				socket.setTcpNoDelay(true);
+				follow(socket);
+			} catch (IOException e) {
+				state = "disconnected";
+			}
+			try {
+				Thread.sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			state = "connecting";
+		}
+	}
+
+	private void follow(Socket socket) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeInt(ReplicationPrimary.MAGIC);
+		out.writeLong(primaryId);
+		out.writeLong(appliedLsn);
+		out.flush();
+		state = "streaming";
+
+		while (true) {
+			byte type = in.readByte();
+			if (type == ReplicationPrimary.SNAPSHOT) {
+				state = "snapshot";
+				installSnapshot(in);
+				state = "streaming";
+			} else if (type == ReplicationPrimary.CHANGE) {
+				apply(ChangeRecord.read(in));
+			} else if (type == ReplicationPrimary.HEARTBEAT) {
+				primaryLsn = Math.max(primaryLsn, in.readLong());
+			} else {
+				throw new IOException("Unknown replication message " + type);
+			}
+			// acknowledge once everything that arrived is applied
+			if (in.available() == 0) {
+				out.writeLong(appliedLsn);
+				out.writeLong(getLagMillis());
+				out.flush();
+			}
+		}
+	}
+
+	private void apply(ChangeRecord record) throws IOException {
+		if (record.lsn <= appliedLsn) {
+			return;
+		}
+		if (record.lsn != appliedLsn + 1) {
+			throw new IOException("Missing changes before LSN " + record.lsn);
+		}
+		applyingLsn = record.lsn;
+		saveState();
+		try {
+			applier.applyChange(record.query);
+		} catch (SyntaxErrorRaiser e) {
+			// the statement failed on the primary the same way
+			System.out.println("Replication: LSN " + record.lsn + " " + e.getMessage());
+		}
+		appliedLsn = record.lsn;
+		appliedTimestamp = record.timestamp;
+		primaryLsn = Math.max(primaryLsn, record.lsn);
+		applyingLsn = 0;
+		saveState();
+	}
+
+	/**
+	 * Receive the databases of the primary into a work folder and put them in place of the current ones.
+	 */
+	private void installSnapshot(DataInputStream in) throws IOException {
+		long id = in.readLong();
+		long lsn = in.readLong();
+		Path incoming = dataDir.resolve(".replication").resolve("incoming");
+		ReplicationPrimary.deleteFolder(incoming);
+		Files.createDirectories(incoming);
+		byte[] buffer = new byte[64 * 1024];
+		for (String name = in.readUTF(); !name.isEmpty(); name = in.readUTF()) {
+			Path file = incoming.resolve(name).normalize();
+			if (!file.startsWith(incoming)) {
+				throw new IOException("Invalid snapshot file " + name);
+			}
+			Files.createDirectories(file.getParent());
+			long remaining = in.readLong();
+			try (OutputStream fileOut = Files.newOutputStream(file)) {
+				while (remaining > 0) {
+					int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+					if (read == -1) {
+						throw new EOFException();
+					}
+					fileOut.write(buffer, 0, read);
+					remaining -= read;
+				}
+			}
+		}
+
+		sessionLock.writeLock().lock();
+		List<TableLocks> tables = new ArrayList<>();
+		try {
+			// the compaction thread must not swap a table while it is replaced
+			for (Path database : ReplicationPrimary.listDatabases(dataDir)) {
+				tables.addAll(lockTables(database));
+			}
+			for (Path database : ReplicationPrimary.listDatabases(dataDir)) {
+				ReplicationPrimary.deleteFolder(database);
+			}
+			for (Path database : ReplicationPrimary.listDatabases(incoming)) {
+				Path target = dataDir.resolve(database.getFileName().toString());
+				Files.move(database, target);
+				tables.addAll(lockTables(target));
+			}
+			for (TableLocks table : tables) {
+				table.nextGeneration();
+				table.changed();
+			}
+			primaryId = id;
+			appliedLsn = lsn;
+			appliedTimestamp = System.currentTimeMillis();
+			primaryLsn = Math.max(primaryLsn, lsn);
+			saveState();
+		} finally {
+			for (TableLocks table : tables) {
+				table.writeLock().unlock();
+			}
+			sessionLock.writeLock().unlock();
+		}
+		ReplicationPrimary.deleteFolder(incoming);
+		System.out.println("Replication: installed snapshot at LSN " + lsn);
+	}
+
+	private static List<TableLocks> lockTables(Path database) throws IOException {
+		List<TableLocks> tables = new ArrayList<>();
+		try (Stream<Path> files = Files.list(database)) {
+			files.filter(file -> file.getFileName().toString().endsWith(".txt")).sorted().forEach(file -> {
+				TableLocks table = TableLocks.of(file);
+				table.writeLock().lock();
+				tables.add(table);
+			});
+		}
+		return tables;
+	}
+
+	private void saveState() throws IOException {
+		Path newFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(newFile))) {
+			out.writeLong(primaryId);
+			out.writeLong(appliedLsn);
+			out.writeLong(appliedTimestamp);
+			out.writeLong(applyingLsn);
+		}
+		Files.move(newFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return How long the oldest change not applied yet has waited, 0 when the follower is up to date.
+	 */
+	long getLagMillis() {
+		return appliedLsn >= primaryLsn ? 0 : Math.max(0, System.currentTimeMillis() - appliedTimestamp);
+	}
+
+	/**
+	 * @return The row of this follower in SHOW REPLICATION STATUS.
+	 */
+	String[] getStatus() {
+		return new String[] {"follower", "primary " + host + ":" + port, state, String.valueOf(appliedLsn),
+				String.valueOf(primaryLsn), String.valueOf(Math.max(0, primaryLsn - appliedLsn)), String.valueOf(getLagMillis())};
+	}
+}
@@ -0,0 +1,302 @@
+package com.kendb.replication;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.kendb.storage.Partitioning;
+import com.kendb.storage.TableLocks;
+import com.kendb.storage.ZoneMap;
+
+/**
+ * The `ReplicationPrimary` accepts followers on a local port. A follower says which primary its data
+ * came from and the last LSN it applied, it then gets the changes after it, or a snapshot of all
+ * databases first if the change log does not reach back that far.
+ * A follower acknowledges the LSN it applied and its lag, both are shown by SHOW REPLICATION STATUS.
+ */
+public class ReplicationPrimary {
+
+	public static long HEARTBEAT_MILLIS = Long.getLong("kendb.replication.heartbeatMillis", 1000); // time between heartbeats to idle followers
+
+	static int MAGIC = 0x4B444252; // KDBR
+	static byte SNAPSHOT = 'S';
+	static byte CHANGE = 'C';
+	static byte HEARTBEAT = 'H';
+
+	Path dataDir;
+	ChangeLog changeLog;
+	int port;
+	ServerSocket server;
+	List<Connection> connections = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Constructor for the ReplicationPrimary.
+	 *
+	 * @param dataDir   The folder of the databases.
+	 * @param changeLog The change log of this primary.
+	 * @param port      The port followers connect to.
+	 */
+	public ReplicationPrimary(Path dataDir, ChangeLog changeLog, int port) {
+		this.dataDir = dataDir;
+		this.changeLog = changeLog;
+		this.port = port;
+	}
+
+	/**
+	 * Listen for followers in the background.
+	 *
+	 * @throws IOException If the port cannot be opened.
+	 */
+	public void start() throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(() -> {
+			while (!server.isClosed()) {
+				try {
+					Socket socket = server.accept();
+					socket.setTcpNoDelay(true);
+					Connection connection = new Connection(socket);
+					connections.add(connection);
+					Thread sender = new Thread(connection, "kendb-replication-" + socket.getPort());
+					sender.setDaemon(true);
+					sender.start();
+				} catch (IOException e) {
+					if (!server.isClosed()) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "kendb-replication");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return A row for the primary and one for every connected follower.
+	 */
+	List<String[]> getStatus() {
+		List<String[]> rows = new ArrayList<>();
+		long lastLsn = changeLog.getLastLsn();
+		rows.add(new String[] {"primary", "port " + port, "serving", String.valueOf(lastLsn), "", "", ""});
+		for (Connection connection : connections) {
+			rows.add(new String[] {"follower", connection.address, connection.state, String.valueOf(connection.sentLsn),
+					String.valueOf(connection.ackedLsn), String.valueOf(Math.max(0, lastLsn - connection.ackedLsn)),
+					String.valueOf(connection.lagMillis)});
+		}
+		return rows;
+	}
+
+	/**
+	 * One connected follower, the changes are sent by its own thread.
+	 */
+	class Connection implements Runnable {
+		Socket socket;
+		String address;
+		volatile String state = "connected";
+		volatile long sentLsn;
+		volatile long ackedLsn;
+		volatile long lagMillis;
+
+		Connection(Socket socket) {
+			this.socket = socket;
+			this.address = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+		}
+
+		@Override
+		public void run() {
+			try (Socket socket = this.socket) {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				if (in.readInt() != MAGIC) {
+					return;
+				}
+				long systemId = in.readLong();
+				long appliedLsn = in.readLong();
+				ackedLsn = appliedLsn;
+				Thread acknowledgements = new Thread(() -> {
+					try {
+						while (true) {
+							ackedLsn = in.readLong();
+							lagMillis = in.readLong();
+						}
+					} catch (IOException e) {
+						// the follower disconnected
+					}
+				}, "kendb-replication-ack-" + socket.getPort());
+				acknowledgements.setDaemon(true);
+				acknowledgements.start();
+
+				ChangeLog.Reader reader = systemId == changeLog.getSystemId() ? changeLog.reader(appliedLsn + 1) : null;
+				if (reader == null) {
+					state = "snapshot";
+					appliedLsn = sendSnapshot(out);
+					reader = changeLog.reader(appliedLsn + 1);
+					if (reader == null) {
+						throw new IOException("The change log moved past the snapshot");
+					}
+				}
+				sentLsn = appliedLsn;
+				state = "streaming";
+				try (ChangeLog.Reader changes = reader) {
+					long lastHeartbeat = 0;
+					while (acknowledgements.isAlive()) {
+						ChangeRecord record = changes.next();
+						if (record != null) {
+							out.writeByte(CHANGE);
+							record.write(out);
+							sentLsn = record.lsn;
+							continue;
+						}
+						if (System.currentTimeMillis() - lastHeartbeat >= HEARTBEAT_MILLIS) {
+							out.writeByte(HEARTBEAT);
+							out.writeLong(changeLog.getLastLsn());
+							lastHeartbeat = System.currentTimeMillis();
+						}
+						out.flush();
+						changeLog.awaitAfter(sentLsn, HEARTBEAT_MILLIS);
+					}
+				}
+			} catch (IOException | InterruptedException e) {
+				// the follower reconnects
+			} finally {
+				connections.remove(this);
+			}
+		}
+	}
+
+	/**
+	 * Copy all databases at one LSN and send them. Changes wait while the files are copied,
+	 * the copy is sent afterwards.
+	 *
+	 * @param out The stream to the follower.
+	 * @return The LSN of the snapshot.
+	 * @throws IOException If a file cannot be copied or sent.
+	 */
+	long sendSnapshot(DataOutputStream out) throws IOException {
+		Path copy = dataDir.resolve(".replication").resolve("snapshot-" + System.nanoTime());
+		long lsn;
+		Replication.commitLock.lock();
+		try {
+			lsn = changeLog.getLastLsn();
+			for (Path database : listDatabases(dataDir)) {
+				copyDatabase(database, copy.resolve(database.getFileName().toString()));
+			}
+		} finally {
+			Replication.commitLock.unlock();
+		}
+
+		try {
+			out.writeByte(SNAPSHOT);
+			out.writeLong(changeLog.getSystemId());
+			out.writeLong(lsn);
+			if (Files.isDirectory(copy)) {
+				List<Path> files;
+				try (Stream<Path> walk = Files.walk(copy)) {
+					files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+				}
+				for (Path file : files) {
+					out.writeUTF(copy.relativize(file).toString().replace(File.separatorChar, '/'));
+					out.writeLong(Files.size(file));
+					Files.copy(file, out);
+				}
+			}
+			out.writeUTF("");
+			out.flush();
+		} finally {
+			deleteFolder(copy);
+		}
+		return lsn;
+	}
+
+	/**
+	 * Copy the files of a database while its tables are locked, so the compaction thread does not swap them.
+	 * Partitions in other folders are copied next to their table.
+	 *
+	 * @param database The database folder.
+	 * @param target   The folder of the copy.
+	 * @throws IOException If a file cannot be copied.
+	 */
+	public static void copyDatabase(Path database, Path target) throws IOException {
+		List<Lock> locks = new ArrayList<>();
+		try {
+			try (Stream<Path> files = Files.list(database)) {
+				files.filter(file -> file.getFileName().toString().endsWith(".txt")).sorted().forEach(table -> {
+					Lock lock = TableLocks.of(table).readLock();
+					lock.lock();
+					locks.add(lock);
+				});
+			}
+			Files.createDirectories(target);
+			List<Path> partitioned = new ArrayList<>();
+			try (Stream<Path> files = Files.list(database)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					if (Files.isRegularFile(file) && !file.getFileName().toString().equals("lockfile.lock")) {
+						Files.copy(file, target.resolve(file.getFileName().toString()));
+						if (file.getFileName().toString().endsWith(".partitions")) {
+							partitioned.add(file);
+						}
+					}
+				}
+			}
+			// partitions in other folders are placed next to the table on the follower
+			for (Path partitionsFile : partitioned) {
+				List<String> lines = Files.readAllLines(partitionsFile);
+				List<Path> partitions = Partitioning.listPartitionFiles(ZoneMap.sidecarPath(partitionsFile, ".txt"));
+				for (int i = 0; i < partitions.size(); i++) {
+					Path partition = partitions.get(i);
+					if (partition.getParent().equals(database)) {
+						continue;
+					}
+					Lock lock = TableLocks.of(partition).readLock();
+					lock.lock();
+					locks.add(lock);
+					String prefix = ZoneMap.sidecarPath(partition, ".").getFileName().toString();
+					try (Stream<Path> files = Files.list(partition.getParent())) {
+						for (Path file : (Iterable<Path>) files::iterator) {
+							if (file.getFileName().toString().startsWith(prefix) && Files.isRegularFile(file)) {
+								Files.copy(file, target.resolve(file.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+							}
+						}
+					}
+					lines.set(i + 1, partition.getFileName().toString());
+				}
+				Files.write(target.resolve(partitionsFile.getFileName().toString()), lines);
+			}
+		} finally {
+			for (Lock lock : locks) {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return The database folders, the folders of replication and compaction start with a dot.
+	 */
+	public static List<Path> listDatabases(Path dataDir) throws IOException {
+		List<Path> databases = new ArrayList<>();
+		if (!Files.isDirectory(dataDir)) {
+			return databases;
+		}
+		try (Stream<Path> folders = Files.list(dataDir)) {
+			folders.filter(folder -> Files.isDirectory(folder) && !folder.getFileName().toString().startsWith("."))
+					.sorted().forEach(databases::add);
+		}
+		return databases;
+	}
+
+	public static void deleteFolder(Path folder) throws IOException {
+		if (!Files.exists(folder)) {
+			return;
+		}
+		try (Stream<Path> walk = Files.walk(folder)) {
+			for (Path file : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+}
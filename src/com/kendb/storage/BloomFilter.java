@@ -0,0 +1,116 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import com.kendb.catalog.TableMetadata;
+
+/**
+ * The `BloomFilter` is for answering "is this value surely not in the block" without reading it.
+ * It can say yes for a value that is not there (false positive) but never no for a value that is.
+ */
+public class BloomFilter {
+
+	long[] words;
+	int bitCount;
+	int hashCount;
+
+	/**
+	 * Constructor for the BloomFilter sized for the expected values and false positive rate.
+	 *
+	 * @param expectedValues        Number of values that will be added.
+	 * @param falsePositiveRate     Wanted rate of false positives, like 0.01.
+	 */
+	public BloomFilter(int expectedValues, double falsePositiveRate) {
+		int n = Math.max(1, expectedValues);
+		double bits = -n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		bitCount = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 64, Math.ceil(bits)));
+		hashCount = (int) Math.max(1, Math.round((double) bitCount / n * Math.log(2)));
+		words = new long[(bitCount + 63) / 64];
+	}
+
+	private BloomFilter() {
+	}
+
+	/**
+	 * The key of a value as the filter sees it. Values that are equal for WHERE give the same key:
+	 * quotes are removed, text ignores case and numbers lose leading zeros.
+	 *
+	 * @param metadata Metadata of the table.
+	 * @param column   The index of the column.
+	 * @param value    The stored value or the value from the query.
+	 * @return The key.
+	 */
+	public static String key(TableMetadata metadata, int column, String value) {
+		String key = TableMetadata.unquote(value);
+		if (metadata.isIntColumn(column)) {
+			try {
+				return Long.toString(Long.parseLong(key));
+			} catch (NumberFormatException e) {
+				// not a number, keep the text
+			}
+		}
+		return key.toLowerCase();
+	}
+
+	public void add(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = Math.floorMod(h1 + i * h2, bitCount);
+			words[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @return `false` if the key was surely never added.
+	 */
+	public boolean mightContain(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			int bit = Math.floorMod(h1 + i * h2, bitCount);
+			if ((words[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(bitCount);
+		out.writeInt(hashCount);
+		for (long word : words) {
+			out.writeLong(word);
+		}
+	}
+
+	static BloomFilter read(DataInputStream in) throws IOException {
+		BloomFilter filter = new BloomFilter();
+		filter.bitCount = in.readInt();
+		filter.hashCount = in.readInt();
+		filter.words = new long[(filter.bitCount + 63) / 64];
+		for (int i = 0; i < filter.words.length; i++) {
+			filter.words[i] = in.readLong();
+		}
+		return filter;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the key, mixed so both halves can be used as separate hashes.
+	 */
+	public static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,333 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import com.kendb.catalog.TableMetadata;
+
+/**
+ * The `BloomIndex` keeps a Bloom filter per segment for the columns chosen with CREATE BLOOM FILTER.
+ * The segments of a table are its compressed blocks followed by the blocks of the text file.
+ * It is stored next to the table as `<table>.bloom` and rebuilt when the table changed without it.
+ */
+public class BloomIndex {
+
+	static int MAGIC = 0x4B444242; // KDBB
+
+	Path tableFile;
+	Path bloomFile;
+	TableMetadata metadata;
+	double falsePositiveRate;
+	int[] columns;
+	long[] signature; // length and modified time of the text file and the compressed file
+	List<BloomFilter[]> compressedSegments = new ArrayList<>();
+	List<BloomFilter[]> textSegments = new ArrayList<>();
+
+	private BloomIndex(Path tableFile, TableMetadata metadata) {
+		this.tableFile = tableFile;
+		this.bloomFile = ZoneMap.sidecarPath(tableFile, ".bloom");
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Create the Bloom filters of a table for the given columns.
+	 *
+	 * @param table             The table.
+	 * @param columns           The indexes of the columns.
+	 * @param falsePositiveRate Wanted rate of false positives, like 0.01.
+	 * @return The new index.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static BloomIndex create(TableFile table, int[] columns, double falsePositiveRate) throws IOException {
+		BloomIndex index = new BloomIndex(table.getPath(), table.getMetadata());
+		index.columns = columns;
+		index.falsePositiveRate = falsePositiveRate;
+		index.rebuild(table);
+		return index;
+	}
+
+	/**
+	 * Load the Bloom filters of a table, they are rebuilt if the table changed.
+	 *
+	 * @param table The table.
+	 * @return The index, or `null` if the table has no Bloom filters.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static BloomIndex load(TableFile table) throws IOException {
+		BloomIndex index = new BloomIndex(table.getPath(), table.getMetadata());
+		Boolean fresh = index.read();
+		if (fresh == null) {
+			return null;
+		}
+		if (!fresh) {
+			index.rebuild(table);
+		}
+		return index;
+	}
+
+	/**
+	 * Load the Bloom filters of a table only if they match the table files.
+	 *
+	 * @param table The table.
+	 * @return The index, or `null` if there is none or it is out of date.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static BloomIndex loadIfFresh(TableFile table) throws IOException {
+		BloomIndex index = new BloomIndex(table.getPath(), table.getMetadata());
+		return Boolean.TRUE.equals(index.read()) ? index : null;
+	}
+
+	/**
+	 * Build the filters again after the table was rewritten, if the table has any.
+	 *
+	 * @param table The table.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static void rebuildIfPresent(TableFile table) throws IOException {
+		BloomIndex index = new BloomIndex(table.getPath(), table.getMetadata());
+		if (index.read() != null) {
+			index.rebuild(table);
+		}
+	}
+
+	public static void delete(Path tableFile) throws IOException {
+		Files.deleteIfExists(ZoneMap.sidecarPath(tableFile, ".bloom"));
+	}
+
+	/**
+	 * Build filters for another table file with the same columns and false positive rate,
+	 * used when a table is written to a new file.
+	 *
+	 * @param target The new table file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	void createFor(TableFile target) throws IOException {
+		create(target, columns, falsePositiveRate);
+	}
+
+	/**
+	 * Read only the settings of the filters of a table, even if they are out of date.
+	 *
+	 * @return The index without filters, or `null` if the table has no Bloom filters.
+	 */
+	static BloomIndex loadSettings(TableFile table) throws IOException {
+		BloomIndex index = new BloomIndex(table.getPath(), table.getMetadata());
+		return index.read() == null ? null : index;
+	}
+
+	/**
+	 * Read only the columns and false positive rate of the filters of a table file, without the
+	 * filters and without checking if they are up to date. Used to plan a scan.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The index without filters, or `null` if the table file has no Bloom filters.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static BloomIndex loadHeader(Path tableFile) throws IOException {
+		BloomIndex index = new BloomIndex(tableFile, null);
+		return index.read(true) == null ? null : index;
+	}
+
+	public int[] getColumns() {
+		return columns;
+	}
+
+	public double getFalsePositiveRate() {
+		return falsePositiveRate;
+	}
+
+	/**
+	 * @return The size of the file of the filters, the bytes a scan reads to use them.
+	 */
+	public long getFileSize() throws IOException {
+		return Files.exists(bloomFile) ? Files.size(bloomFile) : 0;
+	}
+
+	/**
+	 * Give every block the filters of its segment so `ScanFilter.mayMatch` can use them.
+	 *
+	 * @param compressedBlocks The blocks of the compressed file.
+	 * @param textBlocks       The blocks of the text file.
+	 */
+	public void attach(List<ZoneMap.Block> compressedBlocks, List<ZoneMap.Block> textBlocks) {
+		attachSegments(compressedBlocks, compressedSegments);
+		attachSegments(textBlocks, textSegments);
+	}
+
+	private void attachSegments(List<ZoneMap.Block> blocks, List<BloomFilter[]> segments) {
+		for (int i = 0; i < blocks.size() && i < segments.size(); i++) {
+			ZoneMap.Block block = blocks.get(i);
+			block.bloomFilters = new BloomFilter[metadata.getColumnCount()];
+			for (int c = 0; c < columns.length; c++) {
+				block.bloomFilters[columns[c]] = segments.get(i)[c];
+			}
+		}
+	}
+
+	/**
+	 * Add a row appended to a block of the text file.
+	 *
+	 * @param textBlock The index of the block in the zone map.
+	 * @param row       The row values.
+	 */
+	public void add(int textBlock, String[] row) {
+		while (textSegments.size() <= textBlock) {
+			textSegments.add(newSegment(ZoneMap.BLOCK_ROWS));
+		}
+		BloomFilter[] segment = textSegments.get(textBlock);
+		for (int c = 0; c < columns.length; c++) {
+			if (columns[c] < row.length) {
+				segment[c].add(BloomFilter.key(metadata, columns[c], row[columns[c]]));
+			}
+		}
+	}
+
+	/**
+	 * Write the filters next to the table and remember the table files they belong to.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void save() throws IOException {
+		signature = currentSignature();
+		Path newFile = ZoneMap.createSidecarFile(tableFile, bloomFile);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(newFile)))) {
+			out.writeInt(MAGIC);
+			out.writeDouble(falsePositiveRate);
+			out.writeInt(columns.length);
+			for (int column : columns) {
+				out.writeInt(column);
+			}
+			for (long value : signature) {
+				out.writeLong(value);
+			}
+			out.writeInt(compressedSegments.size());
+			out.writeInt(textSegments.size());
+			for (BloomFilter[] segment : compressedSegments) {
+				for (BloomFilter filter : segment) {
+					filter.write(out);
+				}
+			}
+			for (BloomFilter[] segment : textSegments) {
+				for (BloomFilter filter : segment) {
+					filter.write(out);
+				}
+			}
+		}
+		Files.move(newFile, bloomFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read the filters.
+	 *
+	 * @return `null` if there are no filters, `false` if they are out of date (only the settings are read).
+	 */
+	private Boolean read() throws IOException {
+		return read(false);
+	}
+
+	/**
+	 * @param headerOnly Stop after the settings.
+	 */
+	private Boolean read(boolean headerOnly) throws IOException {
+		if (!Files.exists(bloomFile)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bloomFile)))) {
+			if (in.readInt() != MAGIC) {
+				return null;
+			}
+			falsePositiveRate = in.readDouble();
+			columns = new int[in.readInt()];
+			for (int c = 0; c < columns.length; c++) {
+				columns[c] = in.readInt();
+			}
+			if (headerOnly) {
+				return true;
+			}
+			signature = new long[4];
+			for (int i = 0; i < signature.length; i++) {
+				signature[i] = in.readLong();
+			}
+			if (!Arrays.equals(signature, currentSignature())) {
+				return false;
+			}
+			int compressedCount = in.readInt();
+			int textCount = in.readInt();
+			for (int i = 0; i < compressedCount + textCount; i++) {
+				BloomFilter[] segment = new BloomFilter[columns.length];
+				for (int c = 0; c < columns.length; c++) {
+					segment[c] = BloomFilter.read(in);
+				}
+				(i < compressedCount ? compressedSegments : textSegments).add(segment);
+			}
+		}
+		return true;
+	}
+
+	private void rebuild(TableFile table) throws IOException {
+		compressedSegments.clear();
+		textSegments.clear();
+		List<ZoneMap.Block> compressedBlocks = new ArrayList<>();
+		long compressedRows = 0;
+		if (CompressedTable.exists(tableFile)) {
+			CompressedTable compressed = new CompressedTable(tableFile, metadata);
+			compressedBlocks = compressed.getBlocks();
+			compressedRows = compressed.getRowCount();
+			for (ZoneMap.Block block : compressedBlocks) {
+				compressedSegments.add(newSegment(block.getRowCount()));
+			}
+		}
+		List<ZoneMap.Block> textBlocks = ZoneMap.load(tableFile, metadata).getBlocks();
+		for (int i = 0; i < textBlocks.size(); i++) {
+			textSegments.add(newSegment(ZoneMap.BLOCK_ROWS));
+		}
+
+		List<ZoneMap.Block> finalCompressedBlocks = compressedBlocks;
+		long firstTextRow = compressedRows;
+		table.scan(null, (rowNumber, row) -> {
+			BloomFilter[] segment;
+			if (rowNumber < firstTextRow) {
+				segment = compressedSegments.get(blockOf(finalCompressedBlocks, rowNumber));
+			} else {
+				segment = textSegments.get(blockOf(textBlocks, rowNumber - firstTextRow));
+			}
+			for (int c = 0; c < columns.length; c++) {
+				if (columns[c] < row.length) {
+					segment[c].add(BloomFilter.key(metadata, columns[c], row[columns[c]]));
+				}
+			}
+			return true;
+		});
+		save();
+	}
+
+	private BloomFilter[] newSegment(int expectedRows) {
+		BloomFilter[] segment = new BloomFilter[columns.length];
+		for (int c = 0; c < columns.length; c++) {
+			segment[c] = new BloomFilter(expectedRows, falsePositiveRate);
+		}
+		return segment;
+	}
+
+	private static int blockOf(List<ZoneMap.Block> blocks, long rowNumber) {
+		int low = 0;
+		int high = blocks.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (blocks.get(middle).getFirstRow() <= rowNumber) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	private long[] currentSignature() throws IOException {
+		Path compressedFile = CompressedTable.path(tableFile);
+		boolean compressed = Files.exists(compressedFile);
+		return new long[] {
+				Files.size(tableFile), Files.getLastModifiedTime(tableFile).toMillis(),
+				compressed ? Files.size(compressedFile) : 0, compressed ? Files.getLastModifiedTime(compressedFile).toMillis() : 0};
+	}
+}
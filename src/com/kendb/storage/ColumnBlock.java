@@ -0,0 +1,364 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * The `ColumnBlock` is for one compressed block of rows, stored column by column.
+ * Every column gets the smallest of these encodings:
+ * dictionary codes for repeating text, run-length or bit-packing for integers, or plain values.
+ * Conditions can be checked on the encoded columns without building the rows.
+ */
+public class ColumnBlock {
+
+	static final byte PLAIN = 0;
+	static final byte DICTIONARY = 1;
+	static final byte BIT_PACKED = 2;
+	static final byte RUN_LENGTH = 3;
+
+	int rowCount;
+	byte[] encodings;
+	String[][] plainValues;
+	String[][] dictionaries;
+	int[][] codes;
+	long[][] numbers;
+	long[][] runValues;
+	int[][] runLengths;
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Get one value of the block as it is stored in the table.
+	 *
+	 * @param column The index of the column.
+	 * @param row    The row inside the block.
+	 * @return The value.
+	 */
+	public String getValue(int column, int row) {
+		switch (encodings[column]) {
+			case DICTIONARY:
+				return dictionaries[column][codes[column][row]];
+			case BIT_PACKED:
+			case RUN_LENGTH:
+				return Long.toString(numbers[column][row]);
+			default:
+				return plainValues[column][row];
+		}
+	}
+
+	/**
+	 * Build one row of the block.
+	 *
+	 * @param row The row inside the block.
+	 * @return The row values.
+	 */
+	public String[] getRow(int row) {
+		String[] values = new String[encodings.length];
+		for (int c = 0; c < values.length; c++) {
+			values[c] = getValue(c, row);
+		}
+		return values;
+	}
+
+	/**
+	 * Find the rows of the block where a column matches a condition.
+	 * Dictionary columns check every distinct value once and then compare codes,
+	 * run-length columns check every run once.
+	 *
+	 * @param column     The index of the column.
+	 * @param numberTest The condition for integer columns, or `null` to use the value test.
+	 * @param valueTest  The condition on the stored text value.
+	 * @return The matching rows.
+	 */
+	public BitSet match(int column, LongPredicate numberTest, Predicate<String> valueTest) {
+		BitSet selected = new BitSet(rowCount);
+		switch (encodings[column]) {
+			case DICTIONARY:
+				String[] dictionary = dictionaries[column];
+				boolean[] entryMatches = new boolean[dictionary.length];
+				boolean any = false;
+				for (int i = 0; i < dictionary.length; i++) {
+					entryMatches[i] = valueTest.test(dictionary[i]);
+					any |= entryMatches[i];
+				}
+				if (any) {
+					int[] columnCodes = codes[column];
+					for (int r = 0; r < rowCount; r++) {
+						if (entryMatches[columnCodes[r]]) {
+							selected.set(r);
+						}
+					}
+				}
+				break;
+			case RUN_LENGTH:
+				int start = 0;
+				for (int i = 0; i < runValues[column].length; i++) {
+					long value = runValues[column][i];
+					if (numberTest != null ? numberTest.test(value) : valueTest.test(Long.toString(value))) {
+						selected.set(start, start + runLengths[column][i]);
+					}
+					start += runLengths[column][i];
+				}
+				break;
+			case BIT_PACKED:
+				long[] columnNumbers = numbers[column];
+				for (int r = 0; r < rowCount; r++) {
+					if (numberTest != null ? numberTest.test(columnNumbers[r]) : valueTest.test(Long.toString(columnNumbers[r]))) {
+						selected.set(r);
+					}
+				}
+				break;
+			default:
+				for (int r = 0; r < rowCount; r++) {
+					if (valueTest.test(plainValues[column][r])) {
+						selected.set(r);
+					}
+				}
+		}
+		return selected;
+	}
+
+	/**
+	 * Encode rows column by column.
+	 *
+	 * @param rows        The rows of the block.
+	 * @param columnCount The number of columns of the table.
+	 * @return The encoded block.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static byte[] encode(List<String[]> rows, int columnCount) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int n = rows.size();
+		for (int c = 0; c < columnCount; c++) {
+			String[] values = new String[n];
+			for (int r = 0; r < n; r++) {
+				String[] row = rows.get(r);
+				values[r] = c < row.length ? row[c] : "";
+			}
+
+			long[] columnNumbers = asNumbers(values);
+			if (columnNumbers != null) {
+				writeNumbers(out, columnNumbers);
+				continue;
+			}
+
+			Map<String, Integer> dictionary = new LinkedHashMap<>();
+			for (String value : values) {
+				dictionary.putIfAbsent(value, dictionary.size());
+				if (dictionary.size() > n / 2 + 1) {
+					break;
+				}
+			}
+			if (dictionary.size() <= n / 2 + 1) {
+				out.writeByte(DICTIONARY);
+				out.writeInt(dictionary.size());
+				for (String value : dictionary.keySet()) {
+					writeString(out, value);
+				}
+				long[] columnCodes = new long[n];
+				for (int r = 0; r < n; r++) {
+					columnCodes[r] = dictionary.get(values[r]);
+				}
+				int bits = bitsFor(dictionary.size() - 1);
+				out.writeByte(bits);
+				packBits(out, columnCodes, bits);
+			} else {
+				out.writeByte(PLAIN);
+				for (String value : values) {
+					writeString(out, value);
+				}
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decode a block written by `encode`.
+	 *
+	 * @param data        The encoded block.
+	 * @param rowCount    The number of rows in the block.
+	 * @param columnCount The number of columns of the table.
+	 * @return The decoded block.
+	 * @throws IOException If the block is damaged.
+	 */
+	static ColumnBlock decode(byte[] data, int rowCount, int columnCount) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		ColumnBlock block = new ColumnBlock();
+		block.rowCount = rowCount;
+		block.encodings = new byte[columnCount];
+		block.plainValues = new String[columnCount][];
+		block.dictionaries = new String[columnCount][];
+		block.codes = new int[columnCount][];
+		block.numbers = new long[columnCount][];
+		block.runValues = new long[columnCount][];
+		block.runLengths = new int[columnCount][];
+		for (int c = 0; c < columnCount; c++) {
+			byte encoding = in.readByte();
+			block.encodings[c] = encoding;
+			if (encoding == DICTIONARY) {
+				String[] dictionary = new String[in.readInt()];
+				for (int i = 0; i < dictionary.length; i++) {
+					dictionary[i] = readString(in);
+				}
+				long[] packed = unpackBits(in, rowCount, in.readByte());
+				int[] columnCodes = new int[rowCount];
+				for (int r = 0; r < rowCount; r++) {
+					columnCodes[r] = (int) packed[r];
+				}
+				block.dictionaries[c] = dictionary;
+				block.codes[c] = columnCodes;
+			} else if (encoding == BIT_PACKED) {
+				long min = in.readLong();
+				long[] columnNumbers = unpackBits(in, rowCount, in.readByte());
+				for (int r = 0; r < rowCount; r++) {
+					columnNumbers[r] += min;
+				}
+				block.numbers[c] = columnNumbers;
+			} else if (encoding == RUN_LENGTH) {
+				int runs = in.readInt();
+				long[] values = new long[runs];
+				int[] lengths = new int[runs];
+				long[] columnNumbers = new long[rowCount];
+				int r = 0;
+				for (int i = 0; i < runs; i++) {
+					values[i] = in.readLong();
+					lengths[i] = in.readInt();
+					Arrays.fill(columnNumbers, r, r + lengths[i], values[i]);
+					r += lengths[i];
+				}
+				block.runValues[c] = values;
+				block.runLengths[c] = lengths;
+				block.numbers[c] = columnNumbers;
+			} else {
+				String[] values = new String[rowCount];
+				for (int r = 0; r < rowCount; r++) {
+					values[r] = readString(in);
+				}
+				block.plainValues[c] = values;
+			}
+		}
+		return block;
+	}
+
+	/**
+	 * @return The values as numbers, or `null` if a value is not an integer written in plain digits.
+	 */
+	private static long[] asNumbers(String[] values) {
+		long[] result = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			String value = values[i];
+			if (value.isEmpty() || value.length() > 19) {
+				return null;
+			}
+			try {
+				result[i] = Long.parseLong(value);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (!Long.toString(result[i]).equals(value)) {
+				return null; // `007` would not come back the same
+			}
+		}
+		return result;
+	}
+
+	private static void writeNumbers(DataOutputStream out, long[] values) throws IOException {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		int runs = 0;
+		for (int i = 0; i < values.length; i++) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+			if (i == 0 || values[i] != values[i - 1]) {
+				runs++;
+			}
+		}
+		if (runs * 4 <= values.length) {
+			out.writeByte(RUN_LENGTH);
+			out.writeInt(runs);
+			int start = 0;
+			for (int i = 1; i <= values.length; i++) {
+				if (i == values.length || values[i] != values[start]) {
+					out.writeLong(values[start]);
+					out.writeInt(i - start);
+					start = i;
+				}
+			}
+			return;
+		}
+		out.writeByte(BIT_PACKED);
+		out.writeLong(min);
+		long[] deltas = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			deltas[i] = values[i] - min;
+		}
+		int bits = bitsFor(max - min);
+		out.writeByte(bits);
+		packBits(out, deltas, bits);
+	}
+
+	private static int bitsFor(long maxValue) {
+		return maxValue == 0 ? 0 : 64 - Long.numberOfLeadingZeros(maxValue);
+	}
+
+	private static void packBits(DataOutputStream out, long[] values, int bits) throws IOException {
+		if (bits == 0) {
+			return;
+		}
+		long[] words = new long[(int) (((long) values.length * bits + 63) / 64)];
+		for (int i = 0; i < values.length; i++) {
+			long bitIndex = (long) i * bits;
+			int word = (int) (bitIndex >>> 6);
+			int shift = (int) (bitIndex & 63);
+			words[word] |= values[i] << shift;
+			if (shift + bits > 64) {
+				words[word + 1] |= values[i] >>> (64 - shift);
+			}
+		}
+		for (long word : words) {
+			out.writeLong(word);
+		}
+	}
+
+	private static long[] unpackBits(DataInputStream in, int count, int bits) throws IOException {
+		long[] values = new long[count];
+		if (bits == 0) {
+			return values;
+		}
+		long[] words = new long[(int) (((long) count * bits + 63) / 64)];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = in.readLong();
+		}
+		long mask = bits == 64 ? -1L : (1L << bits) - 1;
+		for (int i = 0; i < count; i++) {
+			long bitIndex = (long) i * bits;
+			int word = (int) (bitIndex >>> 6);
+			int shift = (int) (bitIndex & 63);
+			long value = words[word] >>> shift;
+			if (shift + bits > 64) {
+				value |= words[word + 1] << (64 - shift);
+			}
+			values[i] = value & mask;
+		}
+		return values;
+	}
+
+	static void writeString(DataOutput out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,313 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import com.kendb.catalog.TableMetadata;
+
+/**
+ * The `Compactor` is a background thread that writes a table again without its deleted rows
+ * once the deleted rows are a large enough part of the table.
+ * The copy is made without holding the table lock and is slowed down to a byte rate, only the
+ * rows and deletes that came in during the copy are moved over while the table is locked.
+ * If the table was rewritten in the meantime the copy is thrown away and tried again later.
+ * The new file is put in place holding the row lock of `TableLocks`, so a process sharing the data folder
+ * cannot write deleted row numbers of the old file into the new one.
+ */
+public class Compactor implements Runnable {
+
+	public static double GARBAGE_RATIO = Double.parseDouble(System.getProperty("kendb.compaction.garbageRatio", "0.3")); // part of deleted rows that starts a compaction
+	public static long INTERVAL_MILLIS = Long.getLong("kendb.compaction.intervalMillis", 10000); // time between checks of the tables
+	public static long BYTES_PER_SECOND = Long.getLong("kendb.compaction.bytesPerSecond", 8L * 1024 * 1024); // copy rate limit, 0 for no limit
+
+	static Thread thread;
+
+	Path databaseRoot;
+
+	private Compactor(Path databaseRoot) {
+		this.databaseRoot = databaseRoot;
+	}
+
+	/**
+	 * Start the compaction thread for all databases under the root, if it is not running yet.
+	 *
+	 * @param databaseRoot Path of the folder with the databases.
+	 */
+	public static synchronized void start(Path databaseRoot) {
+		if (thread != null && thread.isAlive()) {
+			return;
+		}
+		thread = new Thread(new Compactor(databaseRoot), "kendb-compactor");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(INTERVAL_MILLIS);
+				compactAll();
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				// the table may have been dropped, try again on the next round
+			}
+		}
+	}
+
+	private void compactAll() throws IOException, InterruptedException {
+		if (!Files.isDirectory(databaseRoot)) {
+			return;
+		}
+		List<Path> tables = new ArrayList<>();
+		try (Stream<Path> databases = Files.list(databaseRoot)) {
+			for (Path database : (Iterable<Path>) databases::iterator) {
+				// a transaction is being committed in this database
+				if (!Files.isDirectory(database) || Files.exists(database.resolve("lockfile.lock"))) {
+					continue;
+				}
+				try (Stream<Path> files = Files.list(database)) {
+					files.filter(file -> file.getFileName().toString().endsWith(".txt")).forEach(tables::add);
+				}
+				// partitions in other folders
+				try (Stream<Path> files = Files.list(database)) {
+					for (Path file : (Iterable<Path>) files::iterator) {
+						if (file.getFileName().toString().endsWith(".partitions")) {
+							for (Path partition : Partitioning.listPartitionFiles(file.resolveSibling(file.getFileName().toString().replace(".partitions", ".txt")))) {
+								if (!partition.getParent().equals(database)) {
+									tables.add(partition);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		for (Path table : tables) {
+			try {
+				if (getGarbageRatio(table) >= GARBAGE_RATIO) {
+					compact(table);
+				}
+			} catch (IOException e) {
+				// skip this table for now
+			}
+		}
+	}
+
+	/**
+	 * @return The part of the rows of a table that are deleted.
+	 */
+	static double getGarbageRatio(Path tableFile) throws IOException {
+		long deleted = Tombstones.count(tableFile);
+		if (deleted == 0) {
+			return 0;
+		}
+		TableLocks locks = TableLocks.of(tableFile);
+		locks.readLock().lock();
+		try {
+			TableMetadata metadata = TableMetadata.load(tableFile);
+			if (metadata == null) {
+				return 0;
+			}
+			long rows = ZoneMap.load(tableFile, metadata).getRowCount();
+			if (CompressedTable.exists(tableFile)) {
+				rows += new CompressedTable(tableFile, metadata).getRowCount();
+			}
+			return rows == 0 ? 0 : (double) deleted / rows;
+		} finally {
+			locks.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Write a table again without its deleted rows.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return `true` if the table was compacted, `false` if it changed during the copy.
+	 * @throws IOException          If an I/O error occurs.
+	 * @throws InterruptedException If the thread is stopped.
+	 */
+	public static boolean compact(Path tableFile) throws IOException, InterruptedException {
+		TableLocks locks = TableLocks.of(tableFile);
+		TableFile table = new TableFile(tableFile);
+		TableMetadata metadata = table.getMetadata();
+		if (metadata == null) {
+			return false;
+		}
+
+		// remember what the copy is made of
+		long generation;
+		long textLength;
+		long deletionLength;
+		BitSet deleted;
+		BloomIndex bloomSettings;
+		CompressedTable compressed;
+		locks.readLock().lock();
+		try {
+			generation = locks.getGeneration();
+			textLength = Files.size(tableFile);
+			deletionLength = Files.exists(Tombstones.path(tableFile)) ? Files.size(Tombstones.path(tableFile)) : 0;
+			deleted = Tombstones.load(tableFile);
+			bloomSettings = BloomIndex.loadSettings(table);
+			compressed = CompressedTable.exists(tableFile) ? new CompressedTable(tableFile, metadata) : null;
+		} finally {
+			locks.readLock().unlock();
+		}
+		if (deleted == null) {
+			return false;
+		}
+
+		Path workFolder = tableFile.resolveSibling(".tmp").resolve("compact-" + System.nanoTime());
+		Files.createDirectories(workFolder);
+		try {
+			Path newTableFile = workFolder.resolve(tableFile.getFileName());
+			Throttle throttle = new Throttle();
+			// row numbers that are gone in the new file, to move later deletes to their new row numbers
+			List<Long> removedRows = new ArrayList<>();
+			long[] nextRow = {0};
+			boolean textRows;
+			try (BufferedWriter writer = Files.newBufferedWriter(newTableFile);
+					CompressedTable.Writer compressedWriter = compressed == null ? null
+							: new CompressedTable.Writer(CompressedTable.path(newTableFile), metadata, compressed.isDeflated())) {
+				writer.write(metadata.getHeader());
+				writer.newLine();
+				if (compressed != null) {
+					// the rows of the text file are compressed too, the new text file starts empty
+					compressed.scan(null, (rowNumber, row) -> {
+						nextRow[0] = rowNumber + 1;
+						if (deleted.get((int) rowNumber)) {
+							removedRows.add(rowNumber);
+						} else {
+							compressedWriter.add(row);
+						}
+						throttle.take(row.length * 8L);
+						return true;
+					});
+				}
+				try (FileChannel channel = FileChannel.open(tableFile, StandardOpenOption.READ);
+						RowReader reader = new RowReader(channel, 0)) {
+					reader.readLine(); // header
+					textRows = reader.getPosition() < textLength;
+					String line;
+					while (reader.getPosition() < textLength && (line = reader.readLine()) != null) {
+						long rowNumber = nextRow[0]++;
+						if (line.isBlank() || deleted.get((int) rowNumber)) {
+							removedRows.add(rowNumber);
+						} else if (compressed != null) {
+							compressedWriter.add(line.split("\\|"));
+						} else {
+							writer.write(line);
+							writer.newLine();
+						}
+						throttle.take(line.length());
+					}
+				}
+			}
+			TableFile newTable = new TableFile(newTableFile);
+			ZoneMap.load(newTableFile, metadata);
+			if (bloomSettings != null) {
+				bloomSettings.createFor(newTable);
+			}
+
+			locks.writeLock().lock();
+			try (Closeable rowLock = locks.lockRows()) {
+				// another process on the same data folder may have rewritten the table, its deletes are not counted here
+				Path deletionFile = Tombstones.path(tableFile);
+				if (locks.getGeneration() != generation || !Files.exists(tableFile) || Files.size(tableFile) < textLength
+						|| !Files.exists(deletionFile) || Files.size(deletionFile) < deletionLength) {
+					return false;
+				}
+				// rows appended during the copy
+				List<String> tail = new ArrayList<>();
+				try (FileChannel channel = FileChannel.open(tableFile, StandardOpenOption.READ);
+						RowReader reader = new RowReader(channel, textRows ? textLength : 0)) {
+					if (!textRows) {
+						reader.readLine(); // header, it may have been written without a line ending
+					}
+					String line;
+					while ((line = reader.readLine()) != null) {
+						long rowNumber = nextRow[0]++;
+						if (line.isBlank()) {
+							removedRows.add(rowNumber);
+						} else {
+							tail.add(line);
+						}
+					}
+				}
+				if (!tail.isEmpty()) {
+					newTable.append(tail);
+				}
+				// rows deleted during the copy
+				BitSet newDeletes = Tombstones.load(Tombstones.path(tableFile), deletionLength);
+				if (newDeletes != null) {
+					List<Long> moved = new ArrayList<>();
+					for (int row = newDeletes.nextSetBit(0); row >= 0; row = newDeletes.nextSetBit(row + 1)) {
+						int removedBefore = Collections.binarySearch(removedRows, (long) row);
+						moved.add(row - (long) (removedBefore >= 0 ? removedBefore : -removedBefore - 1));
+					}
+					Tombstones.append(newTableFile, moved);
+				}
+				replace(tableFile, newTableFile, ".kdbz");
+				replace(tableFile, newTableFile, ".zonemap");
+				replace(tableFile, newTableFile, ".bloom");
+				replace(tableFile, newTableFile, ".del");
+				Files.move(newTableFile, tableFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				locks.nextGeneration();
+				locks.changed();
+				return true;
+			} finally {
+				locks.writeLock().unlock();
+			}
+		} finally {
+			try (Stream<Path> files = Files.list(workFolder)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					Files.deleteIfExists(file);
+				}
+			}
+			Files.deleteIfExists(workFolder);
+		}
+	}
+
+	/**
+	 * Move a file of the new table over the same file of the old table, or delete the old one
+	 * if the new table has no such file.
+	 */
+	private static void replace(Path tableFile, Path newTableFile, String extension) throws IOException {
+		Path newFile = ZoneMap.sidecarPath(newTableFile, extension);
+		Path oldFile = ZoneMap.sidecarPath(tableFile, extension);
+		if (Files.exists(newFile)) {
+			Files.move(newFile, oldFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} else {
+			Files.deleteIfExists(oldFile);
+		}
+	}
+
+	/**
+	 * The `Throttle` slows the copy down to `BYTES_PER_SECOND` so it does not take the disk from queries.
+	 */
+	static class Throttle {
+		long start = System.nanoTime();
+		long bytes = 0;
+
+		void take(long count) throws IOException {
+			bytes += count;
+			// only look at the clock when another 64 KB were copied
+			if (BYTES_PER_SECOND <= 0 || bytes % 65536 >= count) {
+				return;
+			}
+			long aheadMillis = bytes * 1000 / BYTES_PER_SECOND - (System.nanoTime() - start) / 1000000;
+			if (aheadMillis > 0) {
+				try {
+					Thread.sleep(aheadMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Compaction stopped");
+				}
+			}
+		}
+	}
+}
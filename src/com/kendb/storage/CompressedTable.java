@@ -0,0 +1,231 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import com.kendb.catalog.TableMetadata;
+
+/**
+ * The `CompressedTable` is for the compressed rows of a table, kept in `<table>.kdbz`.
+ * The file is a list of blocks, each block starts with the min and max value of every column
+ * so it can be skipped without reading the rest. The columns of the block are encoded
+ * by `ColumnBlock` and can be packed once more with Deflate.
+ * The file is never changed in place, it is written again by COMPRESS TABLE.
+ */
+public class CompressedTable {
+
+	public static int BLOCK_ROWS = Integer.getInteger("kendb.compressedBlockRows", 4096); // rows per compressed block
+	static int MAGIC = 0x4B44425A; // KDBZ
+	static final byte CODEC_NONE = 0;
+	static final byte CODEC_DEFLATE = 1;
+
+	Path file;
+	TableMetadata metadata;
+	List<ZoneMap.Block> blocks = new ArrayList<>();
+	long rowCount = 0;
+	boolean deflated = false;
+
+	/**
+	 * Open the compressed rows of a table and read the header of every block.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @param metadata  Metadata of the table.
+	 * @throws IOException If the compressed file cannot be read.
+	 */
+	public CompressedTable(Path tableFile, TableMetadata metadata) throws IOException {
+		this.file = path(tableFile);
+		this.metadata = metadata;
+		try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r")) {
+			if (input.length() < 4 || input.readInt() != MAGIC) {
+				throw new IOException("Not a compressed table file: " + file);
+			}
+			while (input.getFilePointer() < input.length()) {
+				int blockRows = input.readInt();
+				int columnCount = input.readInt();
+				ZoneMap.Block block = new ZoneMap.Block(0, rowCount, columnCount);
+				block.rowCount = blockRows;
+				for (int c = 0; c < columnCount; c++) {
+					if (input.readBoolean()) {
+						block.min[c] = ColumnBlock.readString(input);
+						block.max[c] = ColumnBlock.readString(input);
+					}
+				}
+				block.offset = input.getFilePointer();
+				deflated |= input.readByte() == CODEC_DEFLATE;
+				input.readInt(); // raw length
+				int storedLength = input.readInt();
+				input.seek(input.getFilePointer() + storedLength);
+				blocks.add(block);
+				rowCount += blockRows;
+			}
+		}
+	}
+
+	/**
+	 * Path of the compressed rows of a table.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The path of the `.kdbz` file.
+	 */
+	public static Path path(Path tableFile) {
+		return ZoneMap.sidecarPath(tableFile, ".kdbz");
+	}
+
+	public static boolean exists(Path tableFile) {
+		return Files.exists(path(tableFile));
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public List<ZoneMap.Block> getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * @return `true` if the blocks are packed with Deflate.
+	 */
+	public boolean isDeflated() {
+		return deflated;
+	}
+
+	/**
+	 * Read the compressed rows that match the filter.
+	 *
+	 * @param filter  The filter for blocks and rows, or `null` for all rows.
+	 * @param visitor Receives the matching rows.
+	 * @return `false` if the visitor stopped the scan.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public boolean scan(ScanFilter filter, RowVisitor visitor) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r")) {
+			for (ZoneMap.Block block : blocks) {
+				if (filter != null && !filter.mayMatch(block)) {
+					continue;
+				}
+				ColumnBlock data = readBlock(input, block);
+				BitSet selected;
+				if (filter == null) {
+					selected = new BitSet(data.getRowCount());
+					selected.set(0, data.getRowCount());
+				} else {
+					selected = filter.select(data);
+				}
+				for (int r = selected.nextSetBit(0); r >= 0; r = selected.nextSetBit(r + 1)) {
+					if (!visitor.visit(block.firstRow + r, data.getRow(r))) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private ColumnBlock readBlock(RandomAccessFile input, ZoneMap.Block block) throws IOException {
+		input.seek(block.offset);
+		byte codec = input.readByte();
+		int rawLength = input.readInt();
+		byte[] stored = new byte[input.readInt()];
+		input.readFully(stored);
+		byte[] raw = stored;
+		if (codec == CODEC_DEFLATE) {
+			raw = new byte[rawLength];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(stored);
+				inflater.inflate(raw);
+			} catch (DataFormatException e) {
+				throw new IOException("Damaged block in " + file, e);
+			} finally {
+				inflater.end();
+			}
+		}
+		return ColumnBlock.decode(raw, block.rowCount, metadata.getColumnCount());
+	}
+
+	/**
+	 * The `Writer` is for writing a new compressed file block by block.
+	 */
+	public static class Writer implements Closeable {
+		DataOutputStream out;
+		TableMetadata metadata;
+		boolean deflate;
+		List<String[]> rows = new ArrayList<>();
+
+		/**
+		 * Constructor for the Writer.
+		 *
+		 * @param file     Path of the new compressed file.
+		 * @param metadata Metadata of the table.
+		 * @param deflate  `true` to pack every block with Deflate too.
+		 * @throws IOException If the file cannot be created.
+		 */
+		public Writer(Path file, TableMetadata metadata, boolean deflate) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+			this.metadata = metadata;
+			this.deflate = deflate;
+			out.writeInt(MAGIC);
+		}
+
+		/**
+		 * Add a row, a block is written every `BLOCK_ROWS` rows.
+		 *
+		 * @param row The row values.
+		 * @throws IOException If an I/O error occurs.
+		 */
+		public void add(String[] row) throws IOException {
+			rows.add(row);
+			if (rows.size() >= BLOCK_ROWS) {
+				writeBlock();
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			int columnCount = metadata.getColumnCount();
+			ZoneMap.Block stats = new ZoneMap.Block(0, 0, columnCount);
+			for (String[] row : rows) {
+				stats.include(metadata, row);
+			}
+			out.writeInt(rows.size());
+			out.writeInt(columnCount);
+			for (int c = 0; c < columnCount; c++) {
+				out.writeBoolean(stats.min[c] != null);
+				if (stats.min[c] != null) {
+					ColumnBlock.writeString(out, stats.min[c]);
+					ColumnBlock.writeString(out, stats.max[c]);
+				}
+			}
+			byte[] raw = ColumnBlock.encode(rows, columnCount);
+			byte[] stored = raw;
+			if (deflate) {
+				Deflater deflater = new Deflater();
+				deflater.setInput(raw);
+				deflater.finish();
+				ByteArrayOutputStream packed = new ByteArrayOutputStream(raw.length / 2 + 16);
+				byte[] buffer = new byte[8192];
+				while (!deflater.finished()) {
+					packed.write(buffer, 0, deflater.deflate(buffer));
+				}
+				deflater.end();
+				stored = packed.toByteArray();
+			}
+			out.writeByte(deflate ? CODEC_DEFLATE : CODEC_NONE);
+			out.writeInt(raw.length);
+			out.writeInt(stored.length);
+			out.write(stored);
+			rows.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!rows.isEmpty()) {
+				writeBlock();
+			}
+			out.close();
+		}
+	}
+}
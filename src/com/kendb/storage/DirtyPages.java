@@ -0,0 +1,86 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * The `DirtyPages` collects small writes into a file by page, so every changed page is
+ * read and written once no matter how many rows on it were changed.
+ */
+public class DirtyPages {
+
+	public static int PAGE_SIZE = 4096;
+
+	FileChannel channel;
+	TreeMap<Long, ByteBuffer> pages = new TreeMap<>();
+
+	/**
+	 * Constructor for the DirtyPages.
+	 *
+	 * @param channel The channel of the file, opened for reading and writing.
+	 */
+	public DirtyPages(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Change bytes of the file, they are written on `flush`.
+	 *
+	 * @param offset The byte offset in the file.
+	 * @param bytes  The new bytes, they must not go past the end of the file.
+	 * @throws IOException If a page cannot be read.
+	 */
+	public void write(long offset, byte[] bytes) throws IOException {
+		int done = 0;
+		while (done < bytes.length) {
+			long pageNumber = (offset + done) / PAGE_SIZE;
+			ByteBuffer page = page(pageNumber);
+			int start = (int) (offset + done - pageNumber * PAGE_SIZE);
+			int count = Math.min(bytes.length - done, PAGE_SIZE - start);
+			page.put(start, bytes, done, count);
+			done += count;
+		}
+	}
+
+	/**
+	 * @return The number of pages that were changed.
+	 */
+	public int size() {
+		return pages.size();
+	}
+
+	/**
+	 * Write the changed pages back in file order.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void flush() throws IOException {
+		for (Map.Entry<Long, ByteBuffer> entry : pages.entrySet()) {
+			ByteBuffer page = entry.getValue();
+			page.rewind();
+			long position = entry.getKey() * PAGE_SIZE;
+			while (page.hasRemaining()) {
+				position += channel.write(page, position);
+			}
+		}
+		pages.clear();
+	}
+
+	private ByteBuffer page(long pageNumber) throws IOException {
+		ByteBuffer page = pages.get(pageNumber);
+		if (page == null) {
+			long position = pageNumber * PAGE_SIZE;
+			// the last page of the file is shorter
+			page = ByteBuffer.allocate((int) Math.min(PAGE_SIZE, channel.size() - position));
+			while (page.hasRemaining()) {
+				if (channel.read(page, position + page.position()) < 0) {
+					break;
+				}
+			}
+			pages.put(pageNumber, page);
+		}
+		return page;
+	}
+}
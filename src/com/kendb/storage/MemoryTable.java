@@ -0,0 +1,490 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import com.kendb.catalog.TableMetadata;
+import com.kendb.catalog.TableStatistics;
+
+/**
+ * The `MemoryTable` is a table of one session that is kept in memory only, no file is read or written.
+ * Every column is an array: an INT column keeps its numbers in a `long[]`, other columns keep their text.
+ * A hash index on the first primary key column, or the first column, finds the rows of an `=` query
+ * without reading the other rows. Deleted rows are only marked until half of the rows are deleted.
+ * The path of a memory table is never created, it keeps the table apart from the tables of other sessions.
+ */
+public class MemoryTable extends TableFile {
+
+	static int INITIAL_ROWS = 64; // rows the arrays have room for when the table is created
+
+	Column[] columns;
+	int[] widths; // number of values of every row, a row may have fewer values than columns
+	Map<Integer, String[]> extraValues = new HashMap<>(); // values of a row after the last column
+	int rowCount;
+	BitSet deleted = new BitSet();
+	int deletedCount;
+	long dataBytes;
+	int indexColumn;
+	Map<String, int[]> index;
+	TableStatistics statistics;
+
+	/**
+	 * Constructor for the MemoryTable.
+	 *
+	 * @param path     Path the table is known by, the file is never created.
+	 * @param metadata Metadata of the table.
+	 */
+	public MemoryTable(Path path, TableMetadata metadata) {
+		super(path, metadata);
+		List<String> primaryKeys = metadata.getPrimaryKeys();
+		indexColumn = Math.max(0, primaryKeys.isEmpty() ? 0 : metadata.indexOf(primaryKeys.get(0)));
+		clear(INITIAL_ROWS);
+	}
+
+	/**
+	 * @return The index of the column with the hash index.
+	 */
+	public int getIndexColumn() {
+		return indexColumn;
+	}
+
+	/**
+	 * @return The number of rows, deleted rows not counted.
+	 */
+	public long getRowCount() {
+		return rowCount - deletedCount;
+	}
+
+	/**
+	 * @return The bytes the rows would need in a table file, used by the cost model like the size of a file.
+	 */
+	public long getDataBytes() {
+		return dataBytes;
+	}
+
+	/**
+	 * @return The statistics of the last ANALYZE, or `null`.
+	 */
+	public TableStatistics getStatistics() {
+		return statistics;
+	}
+
+	public void setStatistics(TableStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Read the rows of the table that match the filter. If the filter gives the values of the
+	 * index column only the rows with these values are tested.
+	 *
+	 * @param filter  The filter of the rows, or `null` for all rows.
+	 * @param visitor Receives the matching rows.
+	 * @throws IOException If the visitor fails.
+	 */
+	@Override
+	public void scan(ScanFilter filter, RowVisitor visitor) throws IOException {
+		locks.readLock().lock();
+		try {
+			BitSet selected = filter == null ? null : lookup(filter);
+			for (int r = nextRow(selected, 0); r >= 0; r = nextRow(selected, r + 1)) {
+				String[] row = getRow(r);
+				if ((filter == null || filter.test(row)) && !visitor.visit(r, row)) {
+					return;
+				}
+			}
+		} finally {
+			locks.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Add rows to the end of the table.
+	 *
+	 * @param rows The rows as they are stored, values joined with `|`.
+	 */
+	@Override
+	public void append(List<String> rows) {
+		locks.writeLock().lock();
+		try {
+			for (String row : rows) {
+				addRow(row.split("\\|"));
+			}
+			locks.changed();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace all rows of the table.
+	 *
+	 * @param rows The new rows as they are stored, values joined with `|`.
+	 */
+	@Override
+	public void rewrite(List<String> rows) {
+		locks.writeLock().lock();
+		try {
+			clear(Math.max(INITIAL_ROWS, rows.size()));
+			for (String row : rows) {
+				addRow(row.split("\\|"));
+			}
+			locks.nextGeneration();
+			locks.changed();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public long delete(ScanFilter filter, Predicate<String[]> choose) throws IOException {
+		locks.writeLock().lock();
+		try {
+			BitSet chosen = new BitSet();
+			scan(filter, (rowNumber, row) -> {
+				if (choose.test(row)) {
+					chosen.set((int) rowNumber);
+				}
+				return true;
+			});
+			for (int r = chosen.nextSetBit(0); r >= 0; r = chosen.nextSetBit(r + 1)) {
+				removeFromIndex(r);
+				dataBytes -= rowBytes(getRow(r));
+				deleted.set(r);
+			}
+			int deletedRows = chosen.cardinality();
+			deletedCount += deletedRows;
+			if (deletedCount * 2 > rowCount) {
+				compact();
+			}
+			if (deletedRows > 0) {
+				locks.changed();
+			}
+			return deletedRows;
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Change the rows that match the filter in place.
+	 *
+	 * @param filter The filter of the rows to change.
+	 * @param change Gives the new values of a matching row.
+	 * @return The number of changed rows.
+	 * @throws IOException If the filter fails.
+	 */
+	@Override
+	public long update(ScanFilter filter, UnaryOperator<String[]> change) throws IOException {
+		locks.writeLock().lock();
+		try {
+			Map<Integer, String[]> changed = new LinkedHashMap<>();
+			scan(filter, (rowNumber, row) -> {
+				changed.put((int) rowNumber, change.apply(row));
+				return true;
+			});
+			for (Map.Entry<Integer, String[]> entry : changed.entrySet()) {
+				int r = entry.getKey();
+				removeFromIndex(r);
+				dataBytes -= rowBytes(getRow(r));
+				setRow(r, entry.getValue());
+				addToIndex(r);
+			}
+			if (!changed.isEmpty()) {
+				locks.changed();
+			}
+			return changed.size();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * A memory table is not compressed, its numbers are already kept as numbers.
+	 */
+	@Override
+	public long[] compress(boolean deflate) throws IOException {
+		throw new IOException("Table " + metadata.getTableName() + " is kept in memory and cannot be compressed");
+	}
+
+	/**
+	 * Move the rows together over the deleted rows, the row numbers change.
+	 *
+	 * @return `false` if there were no deleted rows.
+	 */
+	public boolean compact() {
+		locks.writeLock().lock();
+		try {
+			if (deletedCount == 0) {
+				return false;
+			}
+			List<String[]> rows = new ArrayList<>(rowCount - deletedCount);
+			for (int r = nextRow(null, 0); r >= 0; r = nextRow(null, r + 1)) {
+				rows.add(getRow(r));
+			}
+			clear(Math.max(INITIAL_ROWS, rows.size()));
+			for (String[] row : rows) {
+				addRow(row);
+			}
+			locks.nextGeneration();
+			return true;
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove all rows and free the memory, used when the table is dropped.
+	 */
+	public void drop() {
+		locks.writeLock().lock();
+		try {
+			clear(0);
+			statistics = null;
+			locks.nextGeneration();
+			locks.changed();
+		} finally {
+			locks.writeLock().unlock();
+		}
+		TableLocks.tables.remove(path.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * The rows of the index column that have one of the values the filter asks for.
+	 *
+	 * @return The row numbers, or `null` if any row can match.
+	 */
+	private BitSet lookup(ScanFilter filter) {
+		List<String> values = indexColumn < columns.length ? filter.valuesOf(indexColumn) : null;
+		if (values == null) {
+			return null;
+		}
+		BitSet selected = new BitSet();
+		for (String value : values) {
+			int[] rows = index.get(BloomFilter.key(metadata, indexColumn, value));
+			if (rows != null) {
+				for (int i = 1; i <= rows[0]; i++) {
+					selected.set(rows[i]);
+				}
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * The next row from `from` on that is not deleted, and is selected if there is a selection.
+	 *
+	 * @return The row number, or -1 if there is none.
+	 */
+	private int nextRow(BitSet selected, int from) {
+		int r = selected == null ? deleted.nextClearBit(from) : selected.nextSetBit(from);
+		return r >= 0 && r < rowCount ? r : -1;
+	}
+
+	private String[] getRow(int r) {
+		String[] extra = extraValues.isEmpty() ? null : extraValues.get(r);
+		String[] row = new String[widths[r] + (extra == null ? 0 : extra.length)];
+		for (int c = 0; c < widths[r]; c++) {
+			row[c] = columns[c].get(r);
+		}
+		if (extra != null) {
+			System.arraycopy(extra, 0, row, widths[r], extra.length);
+		}
+		return row;
+	}
+
+	private void addRow(String[] values) {
+		if (rowCount == widths.length) {
+			int capacity = Math.max(INITIAL_ROWS, rowCount * 2);
+			widths = Arrays.copyOf(widths, capacity);
+			for (Column column : columns) {
+				column.resize(capacity);
+			}
+		}
+		setRow(rowCount, values);
+		addToIndex(rowCount);
+		rowCount++;
+	}
+
+	private void setRow(int r, String[] values) {
+		int width = Math.min(values.length, columns.length);
+		for (int c = 0; c < width; c++) {
+			columns[c].set(r, values[c]);
+		}
+		widths[r] = width;
+		if (values.length > columns.length) {
+			extraValues.put(r, Arrays.copyOfRange(values, columns.length, values.length));
+		} else if (!extraValues.isEmpty()) {
+			extraValues.remove(r);
+		}
+		dataBytes += rowBytes(values);
+	}
+
+	private void clear(int capacity) {
+		columns = new Column[metadata.getColumnCount()];
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = metadata.isIntColumn(c) ? new LongColumn(capacity) : new TextColumn(capacity);
+		}
+		widths = new int[capacity];
+		extraValues.clear();
+		rowCount = 0;
+		deleted.clear();
+		deletedCount = 0;
+		dataBytes = 0;
+		index = new HashMap<>();
+	}
+
+	/**
+	 * The key of a row in the index, a missing value counts as empty.
+	 */
+	private String indexKey(int r) {
+		return BloomFilter.key(metadata, indexColumn, indexColumn < widths[r] ? columns[indexColumn].get(r) : "");
+	}
+
+	/**
+	 * Every key of the index has the count of its rows followed by the row numbers.
+	 */
+	private void addToIndex(int r) {
+		if (indexColumn >= columns.length) {
+			return;
+		}
+		String key = indexKey(r);
+		int[] rows = index.get(key);
+		if (rows == null) {
+			rows = new int[2];
+			index.put(key, rows);
+		} else if (rows[0] + 1 == rows.length) {
+			rows = Arrays.copyOf(rows, rows.length * 2);
+			index.put(key, rows);
+		}
+		rows[++rows[0]] = r;
+	}
+
+	private void removeFromIndex(int r) {
+		if (indexColumn >= columns.length) {
+			return;
+		}
+		String key = indexKey(r);
+		int[] rows = index.get(key);
+		if (rows == null) {
+			return;
+		}
+		for (int i = 1; i <= rows[0]; i++) {
+			if (rows[i] == r) {
+				rows[i] = rows[rows[0]--];
+				break;
+			}
+		}
+		if (rows[0] == 0) {
+			index.remove(key);
+		}
+	}
+
+	/**
+	 * The length of a row in a table file, values joined with `|` and the line ending.
+	 */
+	private static long rowBytes(String[] row) {
+		long bytes = row.length;
+		for (String value : row) {
+			bytes += value.length();
+		}
+		return bytes;
+	}
+
+	/**
+	 * The values of one column.
+	 */
+	abstract static class Column {
+
+		abstract String get(int row);
+
+		abstract void set(int row, String value);
+
+		abstract void resize(int rows);
+	}
+
+	/**
+	 * An INT column. Values that are not written like a number, such as `NULL`, `'7'` or `007`,
+	 * are kept as text beside the numbers so the table gives them back as they were stored.
+	 */
+	static class LongColumn extends Column {
+		long[] values;
+		Map<Integer, String> texts = new HashMap<>();
+
+		LongColumn(int rows) {
+			values = new long[rows];
+		}
+
+		@Override
+		String get(int row) {
+			if (!texts.isEmpty()) {
+				String text = texts.get(row);
+				if (text != null) {
+					return text;
+				}
+			}
+			return Long.toString(values[row]);
+		}
+
+		@Override
+		void set(int row, String value) {
+			if (isNumber(value)) {
+				values[row] = Long.parseLong(value);
+				if (!texts.isEmpty()) {
+					texts.remove(row);
+				}
+			} else {
+				texts.put(row, value);
+			}
+		}
+
+		@Override
+		void resize(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+
+		/**
+		 * @return `true` if the value is the text `Long.toString` gives for a number.
+		 */
+		static boolean isNumber(String value) {
+			int start = value.startsWith("-") ? 1 : 0;
+			int length = value.length() - start;
+			if (length == 0 || length > 18 || (value.charAt(start) == '0' && (length > 1 || start == 1))) {
+				return false;
+			}
+			for (int i = start; i < value.length(); i++) {
+				if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A column of text values.
+	 */
+	static class TextColumn extends Column {
+		String[] values;
+
+		TextColumn(int rows) {
+			values = new String[rows];
+		}
+
+		@Override
+		String get(int row) {
+			return values[row];
+		}
+
+		@Override
+		void set(int row, String value) {
+			values[row] = value;
+		}
+
+		@Override
+		void resize(int rows) {
+			values = Arrays.copyOf(values, rows);
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The `PageCache` keeps pages of table files outside the Java heap, so a large working set does not
+ * make garbage collection slower. The memory is taken in direct buffer slabs as pages are needed, up to
+ * `kendb.pageCache.bytes` (0 turns the cache off), and split into frames of `kendb.pageCache.pageBytes`.
+ * A page is pinned while it is read and only unpinned pages are evicted, with the clock algorithm.
+ * Before a table is read its generation, size and modified time are checked: appended rows drop only the
+ * last pages of the file, other changes drop all its pages.
+ */
+public class PageCache {
+
+	public static long CAPACITY_BYTES = Long.getLong("kendb.pageCache.bytes", 64L * 1024 * 1024); // off-heap memory for pages
+	public static int PAGE_BYTES = Integer.getInteger("kendb.pageCache.pageBytes", 64 * 1024); // bytes of a page
+	static int SLAB_BYTES = 16 * 1024 * 1024; // memory allocated at once
+
+	static PageCache shared;
+
+	int pageBytes;
+	int framesPerSlab;
+	int frameCount;
+	List<ByteBuffer> slabs = new ArrayList<>();
+	PageKey[] frameKeys;
+	int[] frameLengths;
+	int[] pins;
+	boolean[] loading;
+	boolean[] referenced;
+	Deque<Integer> freeFrames = new ArrayDeque<>();
+	int allocatedFrames = 0;
+	long allocatedBytes = 0;
+	int hand = 0;
+	Map<PageKey, Integer> frames = new HashMap<>();
+	Map<Path, long[]> files = new HashMap<>(); // generation, size and modified time when the pages were read
+	boolean closed = false;
+	long hits = 0;
+	long misses = 0;
+	long evictions = 0;
+
+	/**
+	 * A page of a file.
+	 */
+	static class PageKey {
+		Path file;
+		long page;
+
+		PageKey(Path file, long page) {
+			this.file = file;
+			this.page = page;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof PageKey && ((PageKey) other).page == page && ((PageKey) other).file.equals(file);
+		}
+
+		@Override
+		public int hashCode() {
+			return file.hashCode() * 31 + Long.hashCode(page);
+		}
+	}
+
+	/**
+	 * A pinned page, the bytes stay valid until it is closed.
+	 */
+	public static class Page implements Closeable {
+		PageCache cache;
+		int frame;
+		ByteBuffer bytes;
+
+		Page(PageCache cache, int frame, ByteBuffer bytes) {
+			this.cache = cache;
+			this.frame = frame;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return The bytes of the page, fewer than the page size at the end of the file.
+		 */
+		public ByteBuffer getBytes() {
+			return bytes;
+		}
+
+		@Override
+		public void close() {
+			if (cache != null) {
+				cache.unpin(frame);
+				cache = null;
+			}
+		}
+	}
+
+	/**
+	 * Constructor for the PageCache.
+	 *
+	 * @param capacity  The off-heap memory for pages in bytes.
+	 * @param pageBytes The bytes of a page.
+	 */
+	public PageCache(long capacity, int pageBytes) {
+		this.pageBytes = pageBytes;
+		this.framesPerSlab = Math.max(1, SLAB_BYTES / pageBytes);
+		this.frameCount = (int) Math.min(Integer.MAX_VALUE - 8, capacity / pageBytes);
+		this.frameKeys = new PageKey[frameCount];
+		this.frameLengths = new int[frameCount];
+		this.pins = new int[frameCount];
+		this.loading = new boolean[frameCount];
+		this.referenced = new boolean[frameCount];
+	}
+
+	/**
+	 * @return The cache shared by all tables of this process, or `null` if it is turned off.
+	 */
+	public static synchronized PageCache getInstance() {
+		if (shared == null && CAPACITY_BYTES >= PAGE_BYTES) {
+			shared = new PageCache(CAPACITY_BYTES, PAGE_BYTES);
+		}
+		return shared;
+	}
+
+	public int getPageBytes() {
+		return pageBytes;
+	}
+
+	/**
+	 * Drop the pages of a file that changed since they were read, call it before reading the file.
+	 *
+	 * @param file       The normalized path of the file.
+	 * @param generation The generation of the table, it changes when rows are rewritten.
+	 * @param size       The size of the file.
+	 * @param modified   The modified time of the file.
+	 */
+	public synchronized void validate(Path file, long generation, long size, long modified) {
+		long[] known = files.get(file);
+		if (known == null) {
+			files.put(file, new long[] {generation, size, modified});
+			return;
+		}
+		if (known[0] != generation || size < known[1] || (size == known[1] && modified != known[2])) {
+			drop(file, 0);
+		} else if (size > known[1]) {
+			// rows were appended, only the last page changed
+			drop(file, known[1] / pageBytes);
+		}
+		known[0] = generation;
+		known[1] = size;
+		known[2] = modified;
+	}
+
+	/**
+	 * Pin a page of a file, it is read from the channel if it is not cached.
+	 *
+	 * @param channel The channel of the file.
+	 * @param file    The normalized path of the file.
+	 * @param page    The index of the page.
+	 * @return The page, close it when its bytes are not needed anymore.
+	 * @throws IOException If the page cannot be read.
+	 */
+	public Page pin(FileChannel channel, Path file, long page) throws IOException {
+		PageKey key = new PageKey(file, page);
+		int frame;
+		synchronized (this) {
+			Integer cached = frames.get(key);
+			while (cached != null && loading[cached]) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				cached = frames.get(key);
+			}
+			if (cached != null) {
+				hits++;
+				pins[cached]++;
+				referenced[cached] = true;
+				return new Page(this, cached, frameBytes(cached));
+			}
+			misses++;
+			frame = closed ? -1 : takeFrame();
+			if (frame == -1) {
+				// every frame is pinned, read the page without caching it
+				return new Page(null, -1, read(channel, page, ByteBuffer.allocate(pageBytes)));
+			}
+			frameKeys[frame] = key;
+			frames.put(key, frame);
+			pins[frame] = 1;
+			loading[frame] = true;
+			referenced[frame] = true;
+		}
+
+		// other readers of the page wait, readers of other pages go on
+		boolean loaded = false;
+		try {
+			ByteBuffer bytes = read(channel, page, slice(frame, pageBytes));
+			synchronized (this) {
+				frameLengths[frame] = bytes.limit();
+				loaded = true;
+				return new Page(this, frame, frameBytes(frame));
+			}
+		} finally {
+			synchronized (this) {
+				loading[frame] = false;
+				if (!loaded) {
+					frames.remove(key);
+					frameKeys[frame] = null;
+					unpin(frame);
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	private ByteBuffer read(FileChannel channel, long page, ByteBuffer buffer) throws IOException {
+		long position = page * pageBytes;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read == -1) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private synchronized void unpin(int frame) {
+		if (--pins[frame] == 0 && frameKeys[frame] == null) {
+			freeFrames.add(frame);
+		}
+	}
+
+	/**
+	 * Find a frame for a new page: a free one, a new one while there is memory left, or the first
+	 * unpinned page the clock hand finds that was not used since the hand passed it last.
+	 *
+	 * @return The frame, or -1 if every frame is pinned.
+	 */
+	private int takeFrame() {
+		if (!freeFrames.isEmpty()) {
+			return freeFrames.poll();
+		}
+		if (allocatedFrames < frameCount) {
+			if (allocatedFrames == slabs.size() * framesPerSlab) {
+				int slabFrames = Math.min(framesPerSlab, frameCount - allocatedFrames);
+				slabs.add(ByteBuffer.allocateDirect(slabFrames * pageBytes));
+				allocatedBytes += (long) slabFrames * pageBytes;
+			}
+			return allocatedFrames++;
+		}
+		for (int step = 0; step < 2 * frameCount; step++) {
+			int frame = hand;
+			hand = (hand + 1) % frameCount;
+			if (pins[frame] > 0) {
+				continue;
+			}
+			if (referenced[frame]) {
+				referenced[frame] = false;
+				continue;
+			}
+			if (frameKeys[frame] != null) {
+				frames.remove(frameKeys[frame]);
+				frameKeys[frame] = null;
+				evictions++;
+			}
+			return frame;
+		}
+		return -1;
+	}
+
+	/**
+	 * Forget the pages of a file from a page on, pinned pages are freed when they are unpinned.
+	 */
+	private void drop(Path file, long fromPage) {
+		for (int frame = 0; frame < allocatedFrames; frame++) {
+			PageKey key = frameKeys[frame];
+			if (key != null && key.page >= fromPage && key.file.equals(file) && !loading[frame]) {
+				frames.remove(key);
+				frameKeys[frame] = null;
+				if (pins[frame] == 0) {
+					freeFrames.add(frame);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget all pages of a file, used when the file is deleted.
+	 *
+	 * @param file The normalized path of the file.
+	 */
+	public synchronized void invalidate(Path file) {
+		drop(file, 0);
+		files.remove(file);
+	}
+
+	private ByteBuffer slice(int frame, int length) {
+		ByteBuffer slab = slabs.get(frame / framesPerSlab).duplicate();
+		int start = (frame % framesPerSlab) * pageBytes;
+		slab.position(start).limit(start + length);
+		return slab.slice();
+	}
+
+	private ByteBuffer frameBytes(int frame) {
+		return slice(frame, frameLengths[frame]).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Drop all pages and give the memory back, pinned pages stay readable until they are closed.
+	 * Later reads go to the files.
+	 */
+	public synchronized void close() {
+		closed = true;
+		frames.clear();
+		Arrays.fill(frameKeys, null);
+		freeFrames.clear();
+		files.clear();
+		slabs = new ArrayList<>();
+		allocatedFrames = frameCount;
+		allocatedBytes = 0;
+	}
+
+	/**
+	 * @return The statistics of the cache as one line.
+	 */
+	public synchronized String getStats() {
+		long lookups = hits + misses;
+		return "Page cache: " + frames.size() + " of " + frameCount + " pages of " + pageBytes + " bytes, "
+				+ allocatedBytes / 1024 + " KB off-heap, "
+				+ hits + " hits, " + misses + " misses, hit rate "
+				+ (lookups == 0 ? "0.0" : String.format("%.1f", 100.0 * hits / lookups)) + "%, " + evictions + " evictions";
+	}
+}
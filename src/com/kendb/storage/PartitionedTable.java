@@ -0,0 +1,317 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The `PartitionedTable` is a table whose rows are kept in the table files of its partitions,
+ * the table file itself holds only the header. Rows are appended to the partition of their key,
+ * a point query on the key reads one partition and other scans read all partitions at once.
+ * The lock of the table file is held for writing while rows change, so scans see whole changes.
+ */
+public class PartitionedTable extends TableFile {
+
+	static int BATCH_ROWS = 256; // rows handed from a partition thread to the reader at once
+	static List<String[]> END = new ArrayList<>(); // marks the end of a partition in the queue
+
+	Partitioning partitioning;
+	List<TableFile> partitions = new ArrayList<>();
+
+	/**
+	 * Constructor for the PartitionedTable.
+	 *
+	 * @param path         Path of the table file.
+	 * @param partitioning The partitioning of the table.
+	 * @throws IOException If a partition cannot be read.
+	 */
+	public PartitionedTable(Path path, Partitioning partitioning) throws IOException {
+		super(path);
+		this.partitioning = partitioning;
+		for (Path partition : partitioning.getPartitions()) {
+			partitions.add(new TableFile(partition));
+		}
+	}
+
+	public Partitioning getPartitioning() {
+		return partitioning;
+	}
+
+	@Override
+	public List<TableFile> getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * Read the matching rows of the partitions that can have them. Every partition is read by its own
+	 * thread, the rows reach the visitor in this thread, a partition after another as they come.
+	 */
+	@Override
+	public void scan(ScanFilter filter, RowVisitor visitor) throws IOException {
+		List<TableFile> selected = selectPartitions(filter);
+		locks.readLock().lock();
+		try {
+			if (selected.size() == 1) {
+				selected.get(0).scan(filter, visitor);
+				return;
+			}
+			BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<>(Math.max(4, Partitioning.THREADS * 4));
+			AtomicBoolean stopped = new AtomicBoolean();
+			List<Future<Void>> scans = new ArrayList<>();
+			for (TableFile partition : selected) {
+				scans.add(Partitioning.pool().submit(() -> {
+					List<List<String[]>> batch = new ArrayList<>(Collections.singletonList(new ArrayList<>()));
+					try {
+						partition.scan(filter, (rowNumber, row) -> {
+							batch.get(0).add(row);
+							if (batch.get(0).size() >= BATCH_ROWS) {
+								put(queue, batch.set(0, new ArrayList<>()));
+							}
+							return !stopped.get();
+						});
+						if (!batch.get(0).isEmpty()) {
+							put(queue, batch.get(0));
+						}
+					} finally {
+						put(queue, END);
+					}
+					return null;
+				}));
+			}
+
+			IOException failure = null;
+			long rowNumber = 0;
+			int running = selected.size();
+			while (running > 0) {
+				List<String[]> rows;
+				try {
+					rows = queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					stopped.set(true);
+					throw new InterruptedIOException();
+				}
+				if (rows == END) {
+					running--;
+					continue;
+				}
+				// after the visitor stopped the rest is only taken so the threads can finish
+				for (int i = 0; i < rows.size() && !stopped.get(); i++) {
+					try {
+						if (!visitor.visit(rowNumber++, rows.get(i))) {
+							stopped.set(true);
+						}
+					} catch (IOException e) {
+						failure = e;
+						stopped.set(true);
+					}
+				}
+			}
+			for (Future<Void> scan : scans) {
+				try {
+					scan.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				} catch (ExecutionException e) {
+					throw Partitioning.asIOException(e.getCause());
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			locks.readLock().unlock();
+		}
+	}
+
+	private static void put(BlockingQueue<List<String[]>> queue, List<String[]> rows) throws IOException {
+		try {
+			queue.put(rows);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Append every row to the partition of its key, the partitions are written at once.
+	 */
+	@Override
+	public void append(List<String> rows) throws IOException {
+		List<List<String>> partitionRows = new ArrayList<>();
+		for (int i = 0; i < partitions.size(); i++) {
+			partitionRows.add(new ArrayList<>());
+		}
+		for (String row : rows) {
+			partitionRows.get(partitioning.partitionOf(row.split("\\|"))).add(row);
+		}
+		locks.writeLock().lock();
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < partitions.size(); i++) {
+				TableFile partition = partitions.get(i);
+				List<String> added = partitionRows.get(i);
+				if (!added.isEmpty()) {
+					tasks.add(() -> {
+						partition.append(added);
+						return null;
+					});
+				}
+			}
+			Partitioning.runAll(tasks);
+			locks.changed();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public long[] compress(boolean deflate) throws IOException {
+		locks.writeLock().lock();
+		try {
+			List<Callable<long[]>> tasks = new ArrayList<>();
+			for (TableFile partition : partitions) {
+				tasks.add(() -> partition.compress(deflate));
+			}
+			long[] sizes = new long[2];
+			for (long[] partitionSizes : Partitioning.runAll(tasks)) {
+				sizes[0] += partitionSizes[0];
+				sizes[1] += partitionSizes[1];
+			}
+			locks.changed();
+			return sizes;
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void rewrite(List<String> rows) throws IOException {
+		List<List<String>> partitionRows = new ArrayList<>();
+		for (int i = 0; i < partitions.size(); i++) {
+			partitionRows.add(new ArrayList<>());
+		}
+		for (String row : rows) {
+			partitionRows.get(partitioning.partitionOf(row.split("\\|"))).add(row);
+		}
+		locks.writeLock().lock();
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < partitions.size(); i++) {
+				TableFile partition = partitions.get(i);
+				List<String> partitionRowList = partitionRows.get(i);
+				tasks.add(() -> {
+					partition.rewrite(partitionRowList);
+					return null;
+				});
+			}
+			Partitioning.runAll(tasks);
+			locks.changed();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public long delete(ScanFilter filter, Predicate<String[]> choose) throws IOException {
+		locks.writeLock().lock();
+		try {
+			List<Callable<Long>> tasks = new ArrayList<>();
+			for (TableFile partition : selectPartitions(filter)) {
+				tasks.add(() -> partition.delete(filter, choose));
+			}
+			long deleted = 0;
+			for (long partitionDeleted : Partitioning.runAll(tasks)) {
+				deleted += partitionDeleted;
+			}
+			if (deleted > 0) {
+				locks.changed();
+			}
+			return deleted;
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Change the matching rows in their partitions. A row whose new key belongs to another partition
+	 * is left as it is, then deleted and appended to the partition of the new key.
+	 */
+	@Override
+	public long update(ScanFilter filter, UnaryOperator<String[]> change) throws IOException {
+		locks.writeLock().lock();
+		try {
+			List<String> movedRows = Collections.synchronizedList(new ArrayList<>());
+			List<Callable<Long>> tasks = new ArrayList<>();
+			BitSet selected = partitioning.select(filter);
+			for (int p = selected.nextSetBit(0); p >= 0; p = selected.nextSetBit(p + 1)) {
+				int index = p;
+				TableFile partition = partitions.get(index);
+				tasks.add(() -> {
+					List<String> leaving = new ArrayList<>();
+					long changed = partition.update(filter, row -> {
+						String[] newRow = change.apply(row);
+						if (partitioning.partitionOf(newRow) == index) {
+							return newRow;
+						}
+						leaving.add(String.join("|", newRow));
+						return row;
+					});
+					if (!leaving.isEmpty()) {
+						partition.delete(new ScanFilter() {
+							@Override
+							public boolean mayMatch(ZoneMap.Block block) {
+								return filter == null || filter.mayMatch(block);
+							}
+
+							@Override
+							public boolean mayMatchRow(ByteBuffer bytes, int start, int end) {
+								return filter == null || filter.mayMatchRow(bytes, start, end);
+							}
+
+							@Override
+							public boolean useBloomFilters() {
+								return filter == null || filter.useBloomFilters();
+							}
+
+							@Override
+							public boolean test(String[] row) {
+								return (filter == null || filter.test(row)) && partitioning.partitionOf(change.apply(row)) != index;
+							}
+						});
+						movedRows.addAll(leaving);
+					}
+					return changed;
+				});
+			}
+			long changed = 0;
+			for (long partitionChanged : Partitioning.runAll(tasks)) {
+				changed += partitionChanged;
+			}
+			if (!movedRows.isEmpty()) {
+				append(movedRows);
+			}
+			if (changed > 0) {
+				locks.changed();
+			}
+			return changed;
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	private List<TableFile> selectPartitions(ScanFilter filter) {
+		List<TableFile> selected = new ArrayList<>();
+		BitSet indexes = partitioning.select(filter);
+		for (int p = indexes.nextSetBit(0); p >= 0; p = indexes.nextSetBit(p + 1)) {
+			selected.add(partitions.get(p));
+		}
+		return selected;
+	}
+}
@@ -0,0 +1,235 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.kendb.catalog.TableMetadata;
+
+/**
+ * The `Partitioning` of a table spreads its rows over several table files by the hash of one column.
+ * It is kept in `<table>.partitions`: a line like `HASH(id) 4`, then the file of every partition.
+ * A partition is a table file of its own named `<table>.p<i>.txt`, next to the table or, for
+ * `kendb.partition.dirs`, under `<folder>/<database>/` of one of the folders in turn.
+ */
+public class Partitioning {
+
+	public static String PARTITION_DIRS = System.getProperty("kendb.partition.dirs", ""); // folders for the partitions of new tables, comma separated, empty for the database folder
+	public static int THREADS = Integer.getInteger("kendb.partition.threads", Runtime.getRuntime().availableProcessors()); // partitions read or changed at once
+
+	static Pattern HEADER = Pattern.compile("HASH\\((\\w+)\\) (\\d+)");
+	static ExecutorService pool;
+
+	Path tableFile;
+	TableMetadata metadata;
+	int column;
+	List<Path> partitions;
+
+	private Partitioning(Path tableFile, TableMetadata metadata, int column, List<Path> partitions) {
+		this.tableFile = tableFile;
+		this.metadata = metadata;
+		this.column = column;
+		this.partitions = partitions;
+	}
+
+	public static Path path(Path tableFile) {
+		return ZoneMap.sidecarPath(tableFile, ".partitions");
+	}
+
+	/**
+	 * Load the partitioning of a table.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @param metadata  Metadata of the table.
+	 * @return The partitioning, or `null` if the table is not partitioned.
+	 * @throws IOException If the partitions file cannot be read.
+	 */
+	public static Partitioning load(Path tableFile, TableMetadata metadata) throws IOException {
+		Path file = path(tableFile);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		List<String> lines = Files.readAllLines(file);
+		Matcher matcher = lines.isEmpty() ? null : HEADER.matcher(lines.get(0).trim());
+		if (matcher == null || !matcher.matches()) {
+			throw new IOException("Invalid partitions file " + file);
+		}
+		int column = metadata.indexOf(matcher.group(1));
+		List<Path> partitions = readPartitionFiles(tableFile, lines);
+		if (column == -1 || partitions.size() != Integer.parseInt(matcher.group(2))) {
+			throw new IOException("Invalid partitions file " + file);
+		}
+		return new Partitioning(tableFile, metadata, column, partitions);
+	}
+
+	/**
+	 * Create the empty partitions of a new table.
+	 *
+	 * @param tableFile Path of the table file, it holds only the header.
+	 * @param metadata  Metadata of the table.
+	 * @param column    The index of the partition key column.
+	 * @param count     The number of partitions.
+	 * @return The partitioning.
+	 * @throws IOException If a partition cannot be created.
+	 */
+	public static Partitioning create(Path tableFile, TableMetadata metadata, int column, int count) throws IOException {
+		String[] folders = PARTITION_DIRS.isBlank() ? new String[] {""} : PARTITION_DIRS.split(",");
+		String database = tableFile.toAbsolutePath().getParent().getFileName().toString();
+		String table = ZoneMap.sidecarPath(tableFile, "").getFileName().toString();
+		List<String> lines = new ArrayList<>();
+		lines.add("HASH(" + metadata.getColumnNames()[column] + ") " + count);
+		List<Path> partitions = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			String folder = folders[i % folders.length].trim();
+			String name = table + ".p" + i + ".txt";
+			Path partition = folder.isEmpty() ? tableFile.resolveSibling(name) : Paths.get(folder, database, name).toAbsolutePath();
+			Files.createDirectories(partition.getParent());
+			// left over from a table of the same name in another data folder
+			TableFile.deleteSidecars(partition);
+			Files.write(partition, Collections.singletonList(metadata.getHeader()));
+			lines.add(folder.isEmpty() ? name : partition.toString());
+			partitions.add(partition);
+		}
+		Files.write(path(tableFile), lines);
+		return new Partitioning(tableFile, metadata, column, partitions);
+	}
+
+	/**
+	 * Delete the partitions of a table and their files, used when the table is dropped.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static void delete(Path tableFile) throws IOException {
+		Path file = path(tableFile);
+		if (!Files.exists(file)) {
+			return;
+		}
+		for (Path partition : readPartitionFiles(tableFile, Files.readAllLines(file))) {
+			TableLocks locks = TableLocks.of(partition);
+			locks.writeLock().lock();
+			try {
+				Files.deleteIfExists(partition);
+				TableFile.deleteSidecars(partition);
+			} finally {
+				locks.writeLock().unlock();
+			}
+		}
+		Files.delete(file);
+	}
+
+	/**
+	 * The partition files of a table, without reading its header.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The partition files, empty if the table is not partitioned.
+	 * @throws IOException If the partitions file cannot be read.
+	 */
+	public static List<Path> listPartitionFiles(Path tableFile) throws IOException {
+		Path file = path(tableFile);
+		return Files.exists(file) ? readPartitionFiles(tableFile, Files.readAllLines(file)) : Collections.emptyList();
+	}
+
+	private static List<Path> readPartitionFiles(Path tableFile, List<String> lines) {
+		List<Path> partitions = new ArrayList<>();
+		for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+			if (!line.isBlank()) {
+				partitions.add(tableFile.resolveSibling(line.trim()));
+			}
+		}
+		return partitions;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+
+	public List<Path> getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * The partition of a partition key value. Values that are equal for WHERE, like `5` and `'5'`
+	 * in an INT column or text in other case, go to the same partition.
+	 *
+	 * @param value The value of the partition key.
+	 * @return The index of the partition.
+	 */
+	public int partitionOf(String value) {
+		return (int) Math.floorMod(BloomFilter.hash(BloomFilter.key(metadata, column, value)), (long) partitions.size());
+	}
+
+	public int partitionOf(String[] row) {
+		return row.length > column ? partitionOf(row[column]) : 0;
+	}
+
+	/**
+	 * The partitions that can have rows matching a filter, only one for a point query on the partition key.
+	 *
+	 * @param filter The filter, or `null` for all rows.
+	 * @return The indexes of the partitions.
+	 */
+	public BitSet select(ScanFilter filter) {
+		BitSet selected = new BitSet(partitions.size());
+		List<String> values = filter == null ? null : filter.valuesOf(column);
+		if (values == null) {
+			selected.set(0, partitions.size());
+		} else {
+			for (String value : values) {
+				selected.set(partitionOf(value));
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Run tasks on the partition threads and wait for all of them.
+	 *
+	 * @param tasks The tasks, one per partition.
+	 * @return The results in the order of the tasks.
+	 * @throws IOException If a task failed.
+	 */
+	static <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+		List<T> results = new ArrayList<>();
+		try {
+			if (tasks.size() == 1) {
+				results.add(tasks.get(0).call());
+				return results;
+			}
+			for (Future<T> future : pool().invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw asIOException(e.getCause());
+		} catch (Exception e) {
+			throw asIOException(e);
+		}
+	}
+
+	static IOException asIOException(Throwable e) {
+		if (e instanceof IOException) {
+			return (IOException) e;
+		}
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		return new IOException(e);
+	}
+
+	static synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(Math.max(1, THREADS), task -> {
+				Thread thread = new Thread(task, "kendb-partition");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return pool;
+	}
+}
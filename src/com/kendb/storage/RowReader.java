@@ -0,0 +1,253 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The `RowReader` is for reading the lines of a table file from a byte offset.
+ * Unlike `BufferedReader` it keeps track of the byte position of every line.
+ * Trailing spaces are dropped, they are padding left by rows that were updated in place.
+ * With a page cache the lines are read from the cached pages, and a line that fits in one page
+ * can be checked on its bytes before a `String` is made of it.
+ */
+public class RowReader implements Closeable {
+
+	InputStream input;
+	PageCache cache;
+	FileChannel channel;
+	Path file;
+	PageCache.Page page;
+	long pageIndex = -1;
+	long position;
+	long lineOffset;
+	int lineLength;
+	byte[] line = new byte[256];
+	ByteBuffer lineBuffer = ByteBuffer.wrap(line);
+	ByteBuffer lineBytes;
+	int lineStart;
+	int lineEnd;
+
+	/**
+	 * Constructor for the RowReader.
+	 *
+	 * @param channel The channel of the table file, it is not closed by this reader.
+	 * @param offset  The byte offset to start reading from.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public RowReader(FileChannel channel, long offset) throws IOException {
+		channel.position(offset);
+		this.input = new BufferedInputStream(Channels.newInputStream(channel), 65536) {
+			@Override
+			public void close() {
+				// the channel belongs to the caller
+			}
+		};
+		this.position = offset;
+	}
+
+	/**
+	 * Constructor for a RowReader that reads through the page cache.
+	 *
+	 * @param channel The channel of the table file, it is not closed by this reader.
+	 * @param file    The normalized path of the table file, the pages are cached under it.
+	 * @param offset  The byte offset to start reading from.
+	 * @param cache   The page cache.
+	 */
+	public RowReader(FileChannel channel, Path file, long offset, PageCache cache) {
+		this.channel = channel;
+		this.file = file;
+		this.cache = cache;
+		this.position = offset;
+	}
+
+	/**
+	 * Read the next line without its line ending.
+	 *
+	 * @return The line, or `null` at the end of the file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public String readLine() throws IOException {
+		return nextLine() ? getLine() : null;
+	}
+
+	/**
+	 * Go to the next line, its bytes are in `getLineBytes` from `getLineStart` to `getLineEnd`.
+	 *
+	 * @return `false` at the end of the file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public boolean nextLine() throws IOException {
+		lineOffset = position;
+		if (cache != null ? !nextCachedLine() : !nextStreamLine()) {
+			return false;
+		}
+		int end = lineEnd;
+		if (end > lineStart && lineBytes.get(end - 1) == '\r') {
+			end--;
+		}
+		lineLength = end - lineStart;
+		while (end > lineStart && lineBytes.get(end - 1) == ' ') {
+			end--;
+		}
+		lineEnd = end;
+		return true;
+	}
+
+	private boolean nextStreamLine() throws IOException {
+		int length = 0;
+		int b;
+		while ((b = input.read()) != -1) {
+			position++;
+			if (b == '\n') {
+				break;
+			}
+			line = grow(length);
+			line[length++] = (byte) b;
+		}
+		if (b == -1 && length == 0) {
+			return false;
+		}
+		lineBytes = lineBuffer;
+		lineStart = 0;
+		lineEnd = length;
+		return true;
+	}
+
+	/**
+	 * Find the line in the cached pages, a line that goes over the end of a page is copied.
+	 */
+	private boolean nextCachedLine() throws IOException {
+		int pageBytes = cache.getPageBytes();
+		int copied = -1;
+		while (true) {
+			long index = position / pageBytes;
+			if (index != pageIndex) {
+				closePage();
+				page = cache.pin(channel, file, index);
+				pageIndex = index;
+			}
+			ByteBuffer bytes = page.getBytes();
+			int start = (int) (position - index * pageBytes);
+			if (start >= bytes.limit()) {
+				// the end of the file
+				if (copied <= 0) {
+					return false;
+				}
+				break;
+			}
+			int end = start;
+			while (end < bytes.limit() && bytes.get(end) != '\n') {
+				end++;
+			}
+			boolean found = end < bytes.limit();
+			position += end - start + (found ? 1 : 0);
+			if (copied == -1 && found) {
+				lineBytes = bytes;
+				lineStart = start;
+				lineEnd = end;
+				return true;
+			}
+			copied = Math.max(copied, 0);
+			line = grow(copied + end - start);
+			bytes.duplicate().position(start).limit(end).get(line, copied, end - start);
+			copied += end - start;
+			if (found || bytes.limit() < pageBytes) {
+				break;
+			}
+		}
+		lineBytes = lineBuffer;
+		lineStart = 0;
+		lineEnd = copied;
+		return true;
+	}
+
+	private byte[] grow(int length) {
+		if (length >= line.length) {
+			line = Arrays.copyOf(line, Math.max(line.length * 2, length + 1));
+			lineBuffer = ByteBuffer.wrap(line);
+		}
+		return line;
+	}
+
+	/**
+	 * @return The line found by the last `nextLine`, without padding.
+	 */
+	public String getLine() {
+		if (lineBytes.hasArray()) {
+			return new String(lineBytes.array(), lineBytes.arrayOffset() + lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[lineEnd - lineStart];
+		lineBytes.duplicate().position(lineStart).limit(lineEnd).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The bytes holding the line found by the last `nextLine`, valid until the next call.
+	 */
+	public ByteBuffer getLineBytes() {
+		return lineBytes;
+	}
+
+	public int getLineStart() {
+		return lineStart;
+	}
+
+	public int getLineEnd() {
+		return lineEnd;
+	}
+
+	/**
+	 * @return `true` if the line found by the last `nextLine` is empty or only spaces.
+	 */
+	public boolean isBlankLine() {
+		for (int i = lineStart; i < lineEnd; i++) {
+			if ((lineBytes.get(i) & 0xFF) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The byte offset of the line returned by the last `readLine`.
+	 */
+	public long getLineOffset() {
+		return lineOffset;
+	}
+
+	/**
+	 * @return The number of bytes of the line returned by the last `readLine`, padding included
+	 *         and line ending excluded. A new row of at most this length can be written over it.
+	 */
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	/**
+	 * @return The byte offset of the next line.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	private void closePage() {
+		if (page != null) {
+			page.close();
+			page = null;
+			pageIndex = -1;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closePage();
+		if (input != null) {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.kendb.storage;
+
+import java.io.IOException;
+
+/**
+ * The `RowVisitor` receives the rows of a table scan.
+ */
+public interface RowVisitor {
+
+	/**
+	 * Receive one row.
+	 *
+	 * @param rowNumber The position of the row in the table, starting at 0.
+	 * @param row       The row values.
+	 * @return `false` to stop the scan.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	boolean visit(long rowNumber, String[] row) throws IOException;
+}
@@ -0,0 +1,148 @@
+package com.kendb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The `ScanFilter` is for choosing the rows of a table scan.
+ */
+public interface ScanFilter {
+
+	/**
+	 * Check the statistics of a block before it is read.
+	 *
+	 * @param block The block of the table.
+	 * @return `false` if no row of the block can match, the block is skipped.
+	 */
+	boolean mayMatch(ZoneMap.Block block);
+
+	/**
+	 * Check a single row.
+	 *
+	 * @param row The row values.
+	 * @return `true` if the row matches.
+	 */
+	boolean test(String[] row);
+
+	/**
+	 * Check the bytes of a stored row before its values are made, rows that pass are still tested.
+	 *
+	 * @param bytes The bytes holding the row, values joined with `|`.
+	 * @param start The index of the first byte of the row.
+	 * @param end   The index after the last byte of the row.
+	 * @return `false` if the row cannot match, it is skipped without making its values.
+	 */
+	default boolean mayMatchRow(ByteBuffer bytes, int start, int end) {
+		return true;
+	}
+
+	/**
+	 * @return `false` if the Bloom filters of the table should not be read, the zone maps are still used.
+	 */
+	default boolean useBloomFilters() {
+		return true;
+	}
+
+	/**
+	 * The values a column has in every matching row, used to read only the partitions of a point query.
+	 *
+	 * @param column The index of the column.
+	 * @return The values, or `null` if a matching row can have any value.
+	 */
+	default List<String> valuesOf(int column) {
+		return null;
+	}
+
+	/**
+	 * Choose the rows of a compressed block, by default every row is built and tested.
+	 *
+	 * @param block The decoded block.
+	 * @return The matching rows of the block.
+	 */
+	default BitSet select(ColumnBlock block) {
+		BitSet selected = new BitSet(block.getRowCount());
+		for (int r = 0; r < block.getRowCount(); r++) {
+			if (test(block.getRow(r))) {
+				selected.set(r);
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * A filter of the rows that match any of the filters, used to change the rows of several statements in one scan.
+	 *
+	 * @param filters The filters.
+	 * @return The filter.
+	 */
+	static ScanFilter anyOf(List<? extends ScanFilter> filters) {
+		if (filters.size() == 1) {
+			return filters.get(0);
+		}
+		return new ScanFilter() {
+			@Override
+			public boolean mayMatch(ZoneMap.Block block) {
+				for (ScanFilter filter : filters) {
+					if (filter.mayMatch(block)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public boolean test(String[] row) {
+				for (ScanFilter filter : filters) {
+					if (filter.test(row)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public boolean mayMatchRow(ByteBuffer bytes, int start, int end) {
+				for (ScanFilter filter : filters) {
+					if (filter.mayMatchRow(bytes, start, end)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public boolean useBloomFilters() {
+				for (ScanFilter filter : filters) {
+					if (!filter.useBloomFilters()) {
+						return false;
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public List<String> valuesOf(int column) {
+				List<String> values = new ArrayList<>();
+				for (ScanFilter filter : filters) {
+					List<String> filterValues = filter.valuesOf(column);
+					if (filterValues == null) {
+						return null;
+					}
+					values.addAll(filterValues);
+				}
+				return values;
+			}
+
+			@Override
+			public BitSet select(ColumnBlock block) {
+				BitSet selected = new BitSet(block.getRowCount());
+				for (ScanFilter filter : filters) {
+					selected.or(filter.select(block));
+				}
+				return selected;
+			}
+		};
+	}
+}
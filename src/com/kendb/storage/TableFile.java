@@ -0,0 +1,436 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import com.kendb.catalog.TableMetadata;
+import com.kendb.catalog.TableStatistics;
+
+/**
+ * The `TableFile` is for reading and writing the rows of one table file.
+ * Rows are read block by block so blocks can be skipped with the zone map.
+ * A compressed table keeps its older rows in `<table>.kdbz`, they come before the rows of the text file.
+ * Deleted rows are only marked in `<table>.del` and skipped by scans until the table is compacted.
+ */
+public class TableFile {
+
+	Path path;
+	TableMetadata metadata;
+	TableLocks locks;
+
+	/**
+	 * Constructor for the TableFile.
+	 *
+	 * @param path Path of the table file.
+	 * @throws IOException If the table file cannot be read.
+	 */
+	public TableFile(Path path) throws IOException {
+		this.path = path;
+		this.metadata = TableMetadata.load(path);
+		this.locks = TableLocks.of(path);
+	}
+
+	/**
+	 * Constructor for a table whose rows are not read from its file.
+	 *
+	 * @param path     Path of the table file.
+	 * @param metadata Metadata of the table.
+	 */
+	TableFile(Path path, TableMetadata metadata) {
+		this.path = path;
+		this.metadata = metadata;
+		this.locks = TableLocks.of(path);
+	}
+
+	/**
+	 * Open a table, the rows of a partitioned table are read and written in its partitions.
+	 *
+	 * @param path Path of the table file.
+	 * @return The table.
+	 * @throws IOException If the table file cannot be read.
+	 */
+	public static TableFile open(Path path) throws IOException {
+		TableFile table = new TableFile(path);
+		Partitioning partitioning = table.metadata == null ? null : Partitioning.load(path, table.metadata);
+		return partitioning == null ? table : new PartitionedTable(path, partitioning);
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The table files that hold the rows, only this one unless the table is partitioned.
+	 */
+	public List<TableFile> getPartitions() {
+		return Collections.singletonList(this);
+	}
+
+	/**
+	 * @return The metadata of the table, or `null` if the table file is empty.
+	 */
+	public TableMetadata getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * Read the rows of the table that match the filter.
+	 *
+	 * @param filter  The filter for blocks and rows, or `null` for all rows.
+	 * @param visitor Receives the matching rows.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void scan(ScanFilter filter, RowVisitor visitor) throws IOException {
+		if (metadata == null) {
+			return;
+		}
+		locks.readLock().lock();
+		try {
+			BitSet deleted = Tombstones.load(path);
+			scanRows(filter, (rowNumber, offset, length, row) ->
+					(deleted != null && deleted.get((int) rowNumber)) || visitor.visit(rowNumber, row));
+		} finally {
+			locks.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The `LocatedRowVisitor` receives rows together with where they are stored in the text file.
+	 */
+	private interface LocatedRowVisitor {
+
+		/**
+		 * @param offset The byte offset of the row in the text file, -1 for a compressed row.
+		 * @param length The number of bytes the row may use in place.
+		 */
+		boolean visit(long rowNumber, long offset, int length, String[] row) throws IOException;
+	}
+
+	/**
+	 * Read the rows that match the filter, deleted rows included.
+	 */
+	private void scanRows(ScanFilter filter, LocatedRowVisitor visitor) throws IOException {
+		CompressedTable compressed = CompressedTable.exists(path) ? new CompressedTable(path, metadata) : null;
+		ZoneMap zoneMap = ZoneMap.load(path, metadata);
+		if (filter != null && filter.useBloomFilters()) {
+			BloomIndex bloomIndex = BloomIndex.load(this);
+			if (bloomIndex != null) {
+				bloomIndex.attach(compressed == null ? Collections.emptyList() : compressed.getBlocks(), zoneMap.getBlocks());
+			}
+		}
+		long firstRow = 0;
+		if (compressed != null) {
+			if (!compressed.scan(filter, (rowNumber, row) -> visitor.visit(rowNumber, -1, 0, row))) {
+				return;
+			}
+			firstRow = compressed.getRowCount();
+		}
+		PageCache cache = PageCache.getInstance();
+		Path file = path.toAbsolutePath().normalize();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (cache != null) {
+				cache.validate(file, locks.getGeneration(), channel.size(), Files.getLastModifiedTime(path).toMillis());
+			}
+			RowReader reader = null;
+			try {
+				for (ZoneMap.Block block : zoneMap.getBlocks()) {
+					if (filter != null && !filter.mayMatch(block)) {
+						continue;
+					}
+					if (reader == null || reader.getPosition() != block.getOffset()) {
+						if (reader != null) {
+							reader.close();
+						}
+						reader = cache == null ? new RowReader(channel, block.getOffset()) : new RowReader(channel, file, block.getOffset(), cache);
+					}
+					long rowNumber = firstRow + block.getFirstRow();
+					for (int i = 0; i < block.getRowCount(); i++, rowNumber++) {
+						if (!reader.nextLine()) {
+							return;
+						}
+						if (reader.isBlankLine()
+								|| (filter != null && !filter.mayMatchRow(reader.getLineBytes(), reader.getLineStart(), reader.getLineEnd()))) {
+							continue;
+						}
+						String[] row = reader.getLine().split("\\|");
+						if ((filter == null || filter.test(row))
+								&& !visitor.visit(rowNumber, reader.getLineOffset(), reader.getLineLength(), row)) {
+							return;
+						}
+					}
+				}
+			} finally {
+				if (reader != null) {
+					reader.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Append rows to the end of the table and add them to the zone map and Bloom filters.
+	 *
+	 * @param rows The rows as they are stored, values joined with `|`.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void append(List<String> rows) throws IOException {
+		locks.writeLock().lock();
+		try {
+			appendRows(rows);
+			locks.changed();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	private void appendRows(List<String> rows) throws IOException {
+		ZoneMap zoneMap = ZoneMap.loadIfFresh(path, metadata);
+		BloomIndex bloomIndex = zoneMap == null ? null : BloomIndex.loadIfFresh(this);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long offset = channel.size();
+			StringBuilder data = new StringBuilder();
+			if (offset > 0) {
+				// the header is written without a line ending when the table is created
+				ByteBuffer last = ByteBuffer.allocate(1);
+				channel.read(last, offset - 1);
+				if (last.get(0) != '\n') {
+					data.append(System.lineSeparator());
+					offset += System.lineSeparator().length();
+				}
+			}
+			for (String row : rows) {
+				if (zoneMap != null) {
+					String[] values = row.split("\\|");
+					zoneMap.add(offset, values);
+					if (bloomIndex != null) {
+						bloomIndex.add(zoneMap.getBlocks().size() - 1, values);
+					}
+				}
+				String line = row + System.lineSeparator();
+				data.append(line);
+				offset += line.getBytes(StandardCharsets.UTF_8).length;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(data.toString().getBytes(StandardCharsets.UTF_8));
+			long position = channel.size();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		}
+		if (zoneMap != null) {
+			zoneMap.save();
+		}
+		if (bloomIndex != null) {
+			bloomIndex.save();
+		}
+	}
+
+	/**
+	 * Move all rows of the table into the compressed file, the text file keeps only the header.
+	 *
+	 * @param deflate `true` to pack every block with Deflate too.
+	 * @return The size of the table in bytes before and after.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public long[] compress(boolean deflate) throws IOException {
+		locks.writeLock().lock();
+		try (Closeable rowLock = locks.lockRows()) {
+			Path compressedFile = CompressedTable.path(path);
+			long before = Files.size(path) + (Files.exists(compressedFile) ? Files.size(compressedFile) : 0);
+			Path newFile = ZoneMap.sidecarPath(path, ".kdbz.tmp");
+			try (CompressedTable.Writer writer = new CompressedTable.Writer(newFile, metadata, deflate)) {
+				scan(null, (rowNumber, row) -> {
+					writer.add(row);
+					return true;
+				});
+			}
+			Files.move(newFile, compressedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.write(path, Collections.singletonList(metadata.getHeader()));
+			rowsRewritten();
+			return new long[] {before, Files.size(path) + Files.size(compressedFile)};
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace all rows of the table, the header is kept.
+	 * The rows of a compressed table are written back to the text file.
+	 *
+	 * @param rows The new rows as they are stored, values joined with `|`.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void rewrite(List<String> rows) throws IOException {
+		locks.writeLock().lock();
+		try (Closeable rowLock = locks.lockRows()) {
+			List<String> lines = new ArrayList<>(rows.size() + 1);
+			lines.add(metadata.getHeader());
+			lines.addAll(rows);
+			Files.write(path, lines);
+			Files.deleteIfExists(CompressedTable.path(path));
+			rowsRewritten();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Delete the rows that match the filter. The rows are only marked as deleted,
+	 * so the cost depends on the matching blocks and not on the size of the table.
+	 *
+	 * @param filter The filter of the rows to delete.
+	 * @return The number of deleted rows.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public long delete(ScanFilter filter) throws IOException {
+		return delete(filter, row -> true);
+	}
+
+	/**
+	 * Delete the rows that match the filter and are chosen one by one, used to delete a number of
+	 * equal rows. Rows deleted before are not shown to `choose`.
+	 *
+	 * @param filter The filter of the rows to delete.
+	 * @param choose Says for every matching row if it is deleted, called from several threads for a partitioned table.
+	 * @return The number of deleted rows.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public long delete(ScanFilter filter, Predicate<String[]> choose) throws IOException {
+		locks.writeLock().lock();
+		try (Closeable rowLock = locks.lockRows()) {
+			List<Long> deletedRows = new ArrayList<>();
+			scan(filter, (rowNumber, row) -> !choose.test(row) || deletedRows.add(rowNumber));
+			if (!deletedRows.isEmpty()) {
+				Tombstones.append(path, deletedRows);
+				locks.changed();
+			}
+			return deletedRows.size();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Change the rows that match the filter. A changed row that fits in the bytes of the old row
+	 * is written over it and padded with spaces, only the pages with changed rows are written.
+	 * Other rows, and rows of the compressed file, are deleted and appended again.
+	 *
+	 * @param filter The filter of the rows to change.
+	 * @param change Gives the new values of a matching row.
+	 * @return The number of changed rows.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public long update(ScanFilter filter, UnaryOperator<String[]> change) throws IOException {
+		locks.writeLock().lock();
+		try (Closeable rowLock = locks.lockRows();
+				FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			BitSet deleted = Tombstones.load(path);
+			DirtyPages pages = new DirtyPages(channel);
+			Map<Long, String[]> changedInPlace = new LinkedHashMap<>();
+			List<Long> movedRows = new ArrayList<>();
+			List<String> movedData = new ArrayList<>();
+			scanRows(filter, (rowNumber, offset, length, row) -> {
+				if (deleted != null && deleted.get((int) rowNumber)) {
+					return true;
+				}
+				String[] newRow = change.apply(row);
+				byte[] data = String.join("|", newRow).getBytes(StandardCharsets.UTF_8);
+				if (offset >= 0 && data.length <= length) {
+					byte[] padded = Arrays.copyOf(data, length);
+					Arrays.fill(padded, data.length, length, (byte) ' ');
+					pages.write(offset, padded);
+					changedInPlace.put(rowNumber, newRow);
+				} else {
+					movedRows.add(rowNumber);
+					movedData.add(String.join("|", newRow));
+				}
+				return true;
+			});
+
+			if (!changedInPlace.isEmpty()) {
+				// the statistics only grow, they stay correct for the old values too
+				ZoneMap zoneMap = ZoneMap.loadIfFresh(path, metadata);
+				BloomIndex bloomIndex = zoneMap == null ? null : BloomIndex.loadIfFresh(this);
+				long firstTextRow = CompressedTable.exists(path) ? new CompressedTable(path, metadata).getRowCount() : 0;
+				pages.flush();
+				if (zoneMap != null) {
+					for (Map.Entry<Long, String[]> entry : changedInPlace.entrySet()) {
+						int block = zoneMap.blockOf(entry.getKey() - firstTextRow);
+						zoneMap.include(block, entry.getValue());
+						if (bloomIndex != null) {
+							bloomIndex.add(block, entry.getValue());
+						}
+					}
+					zoneMap.save();
+					if (bloomIndex != null) {
+						bloomIndex.save();
+					}
+				}
+				// a compaction copy made before this would miss the change
+				locks.nextGeneration();
+			}
+			if (!movedRows.isEmpty()) {
+				Tombstones.append(path, movedRows);
+				appendRows(movedData);
+			}
+			if (!changedInPlace.isEmpty() || !movedRows.isEmpty()) {
+				locks.changed();
+			}
+			return changedInPlace.size() + movedRows.size();
+		} finally {
+			locks.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * The rows were written again, so the deleted rows are gone and row numbers changed.
+	 */
+	private void rowsRewritten() throws IOException {
+		ZoneMap.delete(path);
+		Tombstones.delete(path);
+		BloomIndex.rebuildIfPresent(this);
+		locks.nextGeneration();
+		locks.changed();
+	}
+
+	/**
+	 * Delete the files kept next to a table, used when the table is dropped.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static void deleteSidecars(Path tableFile) throws IOException {
+		ZoneMap.delete(tableFile);
+		Files.deleteIfExists(CompressedTable.path(tableFile));
+		BloomIndex.delete(tableFile);
+		Tombstones.delete(tableFile);
+		Partitioning.delete(tableFile);
+		TableStatistics.delete(tableFile);
+		Files.deleteIfExists(ZoneMap.sidecarPath(tableFile, ".lock"));
+		if (PageCache.getInstance() != null) {
+			PageCache.getInstance().invalidate(tableFile.toAbsolutePath().normalize());
+		}
+		TableLocks locks = TableLocks.of(tableFile);
+		locks.nextGeneration();
+		locks.changed();
+	}
+
+	/**
+	 * The version of a table, it is different after every change of the table,
+	 * also changes made by another process.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The change count in this process, the size and the modified time of the table file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static long[] version(Path tableFile) throws IOException {
+		if (!Files.exists(tableFile)) {
+			return new long[] {TableLocks.of(tableFile).getVersion(), -1, -1};
+		}
+		return new long[] {TableLocks.of(tableFile).getVersion(), Files.size(tableFile), Files.getLastModifiedTime(tableFile).toMillis()};
+	}
+}
@@ -0,0 +1,113 @@
+package com.kendb.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * The `TableLocks` keeps a read/write lock per table file, shared by the session and the compaction thread.
+ * It also counts how often the rows of a table were rewritten, so the compaction thread can notice
+ * that its copy of a table is out of date, and how often the table was changed at all.
+ * Deleted rows are kept as row numbers, other processes using the same data folder are kept out
+ * while they are written or numbered again by a file lock on `<table>.lock`.
+ */
+public class TableLocks {
+
+	static ConcurrentHashMap<Path, TableLocks> tables = new ConcurrentHashMap<>();
+	static List<Consumer<Path>> changeListeners = new CopyOnWriteArrayList<>();
+
+	Path tableFile;
+	ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	AtomicLong generation = new AtomicLong();
+	AtomicLong version = new AtomicLong();
+
+	private TableLocks(Path tableFile) {
+		this.tableFile = tableFile;
+	}
+
+	/**
+	 * Get the locks of a table.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The locks of the table.
+	 */
+	public static TableLocks of(Path tableFile) {
+		return tables.computeIfAbsent(tableFile.toAbsolutePath().normalize(), TableLocks::new);
+	}
+
+	/**
+	 * Get told about every change of a table, used to drop cached results.
+	 *
+	 * @param listener Receives the normalized path of the changed table file.
+	 */
+	public static void addChangeListener(Consumer<Path> listener) {
+		changeListeners.add(listener);
+	}
+
+	public ReentrantReadWriteLock.ReadLock readLock() {
+		return lock.readLock();
+	}
+
+	public ReentrantReadWriteLock.WriteLock writeLock() {
+		return lock.writeLock();
+	}
+
+	/**
+	 * Lock the row numbers of the table against other processes, held while deleted rows are found
+	 * and written and while the rows are written again. Call it holding the write lock, which keeps out
+	 * the threads of this process.
+	 *
+	 * @return The lock, closing it releases the lock.
+	 * @throws IOException If the lock file cannot be opened.
+	 */
+	public Closeable lockRows() throws IOException {
+		FileChannel channel = FileChannel.open(ZoneMap.sidecarPath(tableFile, ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			channel.lock();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		// closing the channel releases its lock
+		return channel;
+	}
+
+	/**
+	 * @return The number of times the rows of the table were rewritten.
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Record that the rows of the table were rewritten and row numbers changed.
+	 */
+	public void nextGeneration() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * @return The number of times the table was changed in this process.
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Record that rows of the table were added, changed or removed.
+	 */
+	public void changed() {
+		version.incrementAndGet();
+		for (Consumer<Path> listener : changeListeners) {
+			listener.accept(tableFile);
+		}
+	}
+}
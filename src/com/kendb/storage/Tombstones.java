@@ -0,0 +1,85 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The `Tombstones` is for the deleted rows of a table, kept in `<table>.del`.
+ * A delete only appends the numbers of the deleted rows to this file, the rows stay in the table
+ * until the compaction thread writes the table again without them.
+ */
+public class Tombstones {
+
+	/**
+	 * Path of the deleted row numbers of a table.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The path of the `.del` file.
+	 */
+	public static Path path(Path tableFile) {
+		return ZoneMap.sidecarPath(tableFile, ".del");
+	}
+
+	/**
+	 * Read the deleted rows of a table.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @return The deleted row numbers, or `null` if no row is deleted.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static BitSet load(Path tableFile) throws IOException {
+		return load(path(tableFile), 0);
+	}
+
+	/**
+	 * Read the row numbers of a deletion file starting at a byte offset.
+	 *
+	 * @param deletionFile Path of the `.del` file.
+	 * @param offset       Byte offset to start from, used to read only the newer deletes.
+	 * @return The deleted row numbers, or `null` if there are none.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static BitSet load(Path deletionFile, long offset) throws IOException {
+		if (!Files.exists(deletionFile) || Files.size(deletionFile) <= offset) {
+			return null;
+		}
+		BitSet deleted = new BitSet();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(deletionFile)))) {
+			in.skipNBytes(offset);
+			long count = (Files.size(deletionFile) - offset) / Long.BYTES;
+			for (long i = 0; i < count; i++) {
+				deleted.set((int) in.readLong());
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Add deleted row numbers, the cost depends only on the number of deleted rows.
+	 *
+	 * @param tableFile  Path of the table file.
+	 * @param rowNumbers The row numbers to delete.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static void append(Path tableFile, Collection<Long> rowNumbers) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(path(tableFile), StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+			for (long rowNumber : rowNumbers) {
+				out.writeLong(rowNumber);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of deleted rows of a table.
+	 */
+	public static long count(Path tableFile) throws IOException {
+		Path deletionFile = path(tableFile);
+		return Files.exists(deletionFile) ? Files.size(deletionFile) / Long.BYTES : 0;
+	}
+
+	public static void delete(Path tableFile) throws IOException {
+		Files.deleteIfExists(path(tableFile));
+	}
+}
@@ -0,0 +1,319 @@
+package com.kendb.storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import com.kendb.catalog.TableMetadata;
+
+/**
+ * The `ZoneMap` keeps the min and max value of every column for each block of rows in a table.
+ * A scan uses it to skip blocks that cannot match the where condition.
+ * It is stored next to the table as `<table>.zonemap` and rebuilt when the table file was
+ * changed without it.
+ */
+public class ZoneMap {
+
+	public static int BLOCK_ROWS = Integer.getInteger("kendb.blockRows", 256); // rows per block
+
+	Path tableFile;
+	Path zoneMapFile;
+	TableMetadata metadata;
+	long tableLength;
+	long tableModified;
+	long dataOffset;
+	long rowCount = 0;
+	List<Block> blocks = new ArrayList<>();
+
+	/**
+	 * Statistics of one block of rows.
+	 */
+	public static class Block {
+		long offset;
+		long firstRow;
+		int rowCount;
+		String[] min;
+		String[] max;
+		BloomFilter[] bloomFilters; // set by BloomIndex for the columns that have a filter
+
+		Block(long offset, long firstRow, int columnCount) {
+			this.offset = offset;
+			this.firstRow = firstRow;
+			this.min = new String[columnCount];
+			this.max = new String[columnCount];
+		}
+
+		/**
+		 * Widen the min and max values of the block with the values of a row.
+		 *
+		 * @param metadata Metadata of the table, used to compare values.
+		 * @param row      The row values.
+		 */
+		void include(TableMetadata metadata, String[] row) {
+			for (int i = 0; i < row.length && i < min.length; i++) {
+				String value = TableMetadata.unquote(row[i]);
+				if (value.isEmpty()) {
+					continue;
+				}
+				if (min[i] == null || metadata.compareValues(i, value, min[i]) < 0) {
+					min[i] = value;
+				}
+				if (max[i] == null || metadata.compareValues(i, value, max[i]) > 0) {
+					max[i] = value;
+				}
+			}
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public long getFirstRow() {
+			return firstRow;
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		/**
+		 * @return The smallest value of the column in this block, or `null` if unknown.
+		 */
+		public String getMin(int column) {
+			return column < min.length ? min[column] : null;
+		}
+
+		/**
+		 * @return The largest value of the column in this block, or `null` if unknown.
+		 */
+		public String getMax(int column) {
+			return column < max.length ? max[column] : null;
+		}
+
+		/**
+		 * @return The Bloom filter of the column in this block, or `null` if there is none.
+		 */
+		public BloomFilter getBloomFilter(int column) {
+			return bloomFilters != null && column < bloomFilters.length ? bloomFilters[column] : null;
+		}
+	}
+
+	private ZoneMap(Path tableFile, TableMetadata metadata) {
+		this.tableFile = tableFile;
+		this.zoneMapFile = sidecarPath(tableFile, ".zonemap");
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Load the zone map of a table, it is rebuilt if it is missing or out of date.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @param metadata  Metadata of the table.
+	 * @return The zone map.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static ZoneMap load(Path tableFile, TableMetadata metadata) throws IOException {
+		ZoneMap zoneMap = loadIfFresh(tableFile, metadata);
+		if (zoneMap == null) {
+			zoneMap = new ZoneMap(tableFile, metadata);
+			zoneMap.rebuild();
+			zoneMap.save();
+		}
+		return zoneMap;
+	}
+
+	/**
+	 * Load the zone map of a table only if it matches the table file.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @param metadata  Metadata of the table.
+	 * @return The zone map, or `null` if it is missing or out of date.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static ZoneMap loadIfFresh(Path tableFile, TableMetadata metadata) throws IOException {
+		ZoneMap zoneMap = new ZoneMap(tableFile, metadata);
+		return zoneMap.read() ? zoneMap : null;
+	}
+
+	/**
+	 * Delete the zone map of a table, used when the table is dropped or rewritten.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static void delete(Path tableFile) throws IOException {
+		Files.deleteIfExists(sidecarPath(tableFile, ".zonemap"));
+	}
+
+	/**
+	 * Path of a file that belongs to a table, like `Customers.zonemap` for `Customers.txt`.
+	 *
+	 * @param tableFile Path of the table file.
+	 * @param extension The extension of the sidecar file.
+	 * @return The path of the sidecar file.
+	 */
+	public static Path sidecarPath(Path tableFile, String extension) {
+		String name = tableFile.getFileName().toString();
+		if (name.endsWith(".txt")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		return tableFile.resolveSibling(name + extension);
+	}
+
+	/**
+	 * Create the new file a sidecar is written to before it is moved in place. It gets the permissions
+	 * of the table file, a temporary file is only readable by its owner.
+	 *
+	 * @param tableFile   Path of the table file.
+	 * @param sidecarFile Path of the sidecar file.
+	 * @return The new empty file next to the sidecar.
+	 * @throws IOException If the file cannot be created.
+	 */
+	public static Path createSidecarFile(Path tableFile, Path sidecarFile) throws IOException {
+		Path newFile = Files.createTempFile(sidecarFile.getParent(), sidecarFile.getFileName().toString(), ".tmp");
+		try {
+			Files.setPosixFilePermissions(newFile, Files.getPosixFilePermissions(tableFile));
+		} catch (UnsupportedOperationException | NoSuchFileException e) {
+			// not a POSIX file system, or the table is gone, the file keeps its permissions
+		}
+		return newFile;
+	}
+
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return The byte offset where the next appended row starts.
+	 */
+	public long getTableLength() {
+		return tableLength;
+	}
+
+	/**
+	 * Add a row that was written to the table at the given offset.
+	 *
+	 * @param offset The byte offset of the row.
+	 * @param row    The row values, `null` for a blank line.
+	 */
+	public void add(long offset, String[] row) {
+		Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+		if (block == null || block.rowCount >= BLOCK_ROWS) {
+			block = new Block(offset, rowCount, metadata.getColumnCount());
+			blocks.add(block);
+		}
+		block.rowCount++;
+		rowCount++;
+		if (row != null) {
+			block.include(metadata, row);
+		}
+	}
+
+	/**
+	 * Find the block of a row of the text file.
+	 *
+	 * @param rowNumber The row number, counted from the first row of the text file.
+	 * @return The index of the block.
+	 */
+	public int blockOf(long rowNumber) {
+		int low = 0;
+		int high = blocks.size() - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (blocks.get(middle).firstRow <= rowNumber) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Widen the min and max values of a block with a row that was changed in place.
+	 *
+	 * @param block The index of the block.
+	 * @param row   The new row values.
+	 */
+	public void include(int block, String[] row) {
+		blocks.get(block).include(metadata, row);
+	}
+
+	/**
+	 * Write the zone map next to the table and remember the table file it belongs to.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void save() throws IOException {
+		tableLength = Files.size(tableFile);
+		tableModified = Files.getLastModifiedTime(tableFile).toMillis();
+		// written to a new file first so a reader in another thread never sees half of it
+		Path newFile = createSidecarFile(tableFile, zoneMapFile);
+		try (BufferedWriter writer = Files.newBufferedWriter(newFile)) {
+			writer.write("ZONEMAP|" + tableLength + "|" + tableModified + "|" + dataOffset);
+			writer.newLine();
+			for (Block block : blocks) {
+				StringBuilder line = new StringBuilder();
+				line.append(block.offset).append("|").append(block.rowCount);
+				for (int i = 0; i < block.min.length; i++) {
+					line.append("|").append(block.min[i] == null ? "" : block.min[i]);
+					line.append("|").append(block.max[i] == null ? "" : block.max[i]);
+				}
+				writer.write(line.toString());
+				writer.newLine();
+			}
+		}
+		Files.move(newFile, zoneMapFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private boolean read() throws IOException {
+		if (!Files.exists(zoneMapFile)) {
+			return false;
+		}
+		List<String> lines = Files.readAllLines(zoneMapFile);
+		if (lines.isEmpty()) {
+			return false;
+		}
+		String[] head = lines.get(0).split("\\|");
+		if (head.length < 4 || !head[0].equals("ZONEMAP")) {
+			return false;
+		}
+		tableLength = Long.parseLong(head[1]);
+		tableModified = Long.parseLong(head[2]);
+		dataOffset = Long.parseLong(head[3]);
+		if (tableLength != Files.size(tableFile) || tableModified != Files.getLastModifiedTime(tableFile).toMillis()) {
+			return false;
+		}
+		int columnCount = metadata.getColumnCount();
+		for (int i = 1; i < lines.size(); i++) {
+			String[] parts = lines.get(i).split("\\|", -1);
+			Block block = new Block(Long.parseLong(parts[0]), rowCount, columnCount);
+			block.rowCount = Integer.parseInt(parts[1]);
+			for (int c = 0; c < columnCount && 3 + 2 * c < parts.length; c++) {
+				block.min[c] = parts[2 + 2 * c].isEmpty() ? null : parts[2 + 2 * c];
+				block.max[c] = parts[3 + 2 * c].isEmpty() ? null : parts[3 + 2 * c];
+			}
+			blocks.add(block);
+			rowCount += block.rowCount;
+		}
+		return true;
+	}
+
+	private void rebuild() throws IOException {
+		blocks.clear();
+		rowCount = 0;
+		try (FileChannel channel = FileChannel.open(tableFile, StandardOpenOption.READ);
+				RowReader reader = new RowReader(channel, 0)) {
+			reader.readLine(); // header
+			dataOffset = reader.getPosition();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				add(reader.getLineOffset(), line.isBlank() ? null : line.split("\\|"));
+			}
+		}
+	}
+}
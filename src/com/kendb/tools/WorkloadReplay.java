@@ -0,0 +1,387 @@
+package com.kendb.tools;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.kendb.audit.AuditLog;
+import com.kendb.audit.AuditRecord;
+import com.kendb.query.QueryChecker;
+import com.kendb.replication.ReplicationPrimary;
+import com.kendb.storage.Partitioning;
+
+/**
+ * The `WorkloadReplay` runs the statements of the query log again, against a copy of the databases,
+ * and reports the throughput and the latency of every statement type. It is for trying a new version
+ * of KenDB with the statements users really ran.
+ *
+ * <pre>
+ * java com.kendb.tools.WorkloadReplay [--log file|folder] [--source folder] [--target folder] [--keep]
+ *         [--threads n] [--pacing fast|original|factor] [--user names] [--table names] [--limit n]
+ * </pre>
+ *
+ * Most statements run on `--threads` threads at once. The statements of a user always run on the same
+ * thread, in the order of the log, the users share the threads. CREATE, DROP, COMPRESS and COMPACT
+ * wait for the running statements and run alone, so tables exist before they are used.
+ * The statements of a transaction are logged when it commits and replayed one by one, BEGIN is skipped.
+ */
+public class WorkloadReplay {
+
+	static Pattern LOG_LINE = Pattern.compile("\\[User: (.*?) \\]\\[Database: (.*?) \\].*?\\[Query: (.*)\\] \\[Query Type: (\\w+)\\]\\[Timestamp: (.*?) \\]"); // line of the query log
+	static Set<String> ALONE_TYPES = new HashSet<>(Arrays.asList("CREATE", "DROP", "COMPRESS", "COMPACT")); // statements that run without others
+
+	int threads = 1;
+	double speed = 0; // 0 as fast as possible, 1 for the original pacing
+	Set<String> users = new HashSet<>();
+	Set<String> tables = new HashSet<>();
+	long limit = Long.MAX_VALUE;
+
+	/**
+	 * A statement of the query log.
+	 */
+	static class LoggedQuery {
+		String user;
+		String database;
+		String query;
+		long timestamp;
+
+		LoggedQuery(String user, String database, String query, long timestamp) {
+			this.user = user;
+			this.database = database;
+			this.query = query;
+			this.timestamp = timestamp;
+		}
+	}
+
+	/**
+	 * The latencies of one statement type.
+	 */
+	static class TypeStats {
+		long[] latencies = new long[64]; // nanoseconds
+		int count = 0;
+		int errors = 0;
+
+		synchronized void add(long nanos, boolean failed) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+			if (failed) {
+				errors++;
+			}
+		}
+
+		/**
+		 * @return The latency in milliseconds that this part of the statements did not exceed.
+		 */
+		double percentile(long[] sorted, double part) {
+			int index = (int) Math.ceil(part * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+		}
+	}
+
+	/**
+	 * Read the statements of the query log. A folder holds the current log and the rotated ones,
+	 * they are read oldest first.
+	 *
+	 * @param log The log file or folder.
+	 * @return The valid statements in the order they ran.
+	 * @throws IOException If the log cannot be read.
+	 */
+	public static List<LoggedQuery> readLog(Path log) throws IOException {
+		List<Path> files = new ArrayList<>();
+		if (Files.isDirectory(log)) {
+			try (Stream<Path> list = Files.list(log)) {
+				list.filter(file -> file.getFileName().toString().matches("logs_query(-.+)?\\.txt"))
+						.sorted().forEach(files::add); // rotated files, `logs_query-<time>.txt`, sort before `logs_query.txt`
+			}
+		} else {
+			files.add(log);
+		}
+		List<LoggedQuery> queries = new ArrayList<>();
+		for (Path file : files) {
+			for (String line : Files.readAllLines(file)) {
+				Matcher matcher = LOG_LINE.matcher(line);
+				if (!matcher.find() || !matcher.group(4).equalsIgnoreCase("Valid")) {
+					continue;
+				}
+				long timestamp;
+				try {
+					timestamp = Timestamp.valueOf(matcher.group(5).trim()).getTime();
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+				queries.add(new LoggedQuery(matcher.group(1).trim(), matcher.group(2).trim(), matcher.group(3).trim(), timestamp));
+			}
+		}
+		// sessions write the log through their own buffers, so the lines are not always in time order
+		queries.sort(Comparator.comparingLong(query -> query.timestamp));
+		return queries;
+	}
+
+	/**
+	 * Choose the statements to replay.
+	 *
+	 * @param queries The statements of the log.
+	 * @return The statements of the chosen users and tables without BEGIN, CREATE and DROP of every user.
+	 */
+	List<LoggedQuery> filter(List<LoggedQuery> queries) {
+		List<LoggedQuery> chosen = new ArrayList<>();
+		for (LoggedQuery query : queries) {
+			if (chosen.size() >= limit) {
+				break;
+			}
+			String type = AuditRecord.TYPES[AuditRecord.typeOf(query.query)];
+			if (type.equals("BEGIN")) {
+				continue;
+			}
+			// the tables of other users are needed too
+			boolean schema = type.equals("CREATE") || type.equals("DROP");
+			if (!users.isEmpty() && !schema && !users.contains(query.user.toLowerCase())) {
+				continue;
+			}
+			if (!tables.isEmpty() && Arrays.stream(QueryChecker.getTableNames(query.query).split(","))
+					.noneMatch(table -> tables.contains(table.toLowerCase()))) {
+				continue;
+			}
+			chosen.add(query);
+		}
+		return chosen;
+	}
+
+	/**
+	 * Run the statements against the databases of `QueryChecker.DATA_DIR` and print the report.
+	 *
+	 * @param queries The statements to replay.
+	 * @param report  Receives the report, the output of the statements is dropped.
+	 * @throws IOException If the replay cannot run.
+	 */
+	void replay(List<LoggedQuery> queries, PrintStream report) throws IOException {
+		// statements print their results and errors, only the report is wanted
+		PrintStream console = System.out;
+		PrintStream errors = System.err;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+		Map<String, TypeStats> stats = new TreeMap<>();
+		for (String type : AuditRecord.TYPES) {
+			stats.put(type, new TypeStats());
+		}
+		// one thread per worker, so the statements of a user run in the order of the log
+		ExecutorService[] workers = new ExecutorService[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = Executors.newSingleThreadExecutor();
+		}
+		ThreadLocal<QueryChecker> sessions = ThreadLocal.withInitial(() -> new QueryChecker(Writer.nullWriter()));
+		Semaphore running = new Semaphore(threads * 2);
+		QueryChecker aloneSession = new QueryChecker(Writer.nullWriter());
+		long behind = 0;
+		long start = System.nanoTime();
+		try {
+			long firstTimestamp = queries.isEmpty() ? 0 : queries.get(0).timestamp;
+			for (LoggedQuery query : queries) {
+				if (speed > 0) {
+					long due = start + (long) ((query.timestamp - firstTimestamp) * 1e6 / speed);
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					} else {
+						behind = Math.max(behind, -wait);
+					}
+				}
+				String type = AuditRecord.TYPES[AuditRecord.typeOf(query.query)];
+				if (ALONE_TYPES.contains(type)) {
+					running.acquire(threads * 2);
+					try {
+						run(aloneSession, query, stats.get(type));
+					} finally {
+						running.release(threads * 2);
+					}
+					continue;
+				}
+				running.acquire();
+				workers[Math.floorMod(query.user.toLowerCase().hashCode(), threads)].execute(() -> {
+					try {
+						run(sessions.get(), query, stats.get(type));
+					} finally {
+						running.release();
+					}
+				});
+			}
+			running.acquire(threads * 2);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			for (ExecutorService worker : workers) {
+				worker.shutdownNow();
+			}
+			System.setOut(console);
+			System.setErr(errors);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		int failed = stats.values().stream().mapToInt(typeStats -> typeStats.errors).sum();
+		report.println("Replayed " + queries.size() + " statement(s) on " + threads + " thread(s) "
+				+ (speed == 0 ? "as fast as possible" : speed == 1 ? "at the original pacing" : "at " + speed + " times the original pacing"));
+		report.println(String.format("Elapsed %.3f s, %.1f statements/s, %d error(s)", elapsed / 1e9, queries.size() / (elapsed / 1e9), failed)
+				+ (speed > 0 ? String.format(", at most %.1f ms behind the original pacing", behind / 1e6) : ""));
+		List<String[]> rows = new ArrayList<>();
+		for (Map.Entry<String, TypeStats> entry : stats.entrySet()) {
+			TypeStats typeStats = entry.getValue();
+			if (typeStats.count == 0) {
+				continue;
+			}
+			long[] sorted = Arrays.copyOf(typeStats.latencies, typeStats.count);
+			Arrays.sort(sorted);
+			rows.add(new String[] {entry.getKey(), String.valueOf(typeStats.count), String.valueOf(typeStats.errors),
+					String.format("%.1f", typeStats.count / (elapsed / 1e9)),
+					String.format("%.3f", typeStats.percentile(sorted, 0.5)), String.format("%.3f", typeStats.percentile(sorted, 0.9)),
+					String.format("%.3f", typeStats.percentile(sorted, 0.99)), String.format("%.3f", sorted[sorted.length - 1] / 1e6)});
+		}
+		printTable(report, new String[] {"Type", "Count", "Errors", "Per second", "p50 (ms)", "p90 (ms)", "p99 (ms)", "Max (ms)"}, rows);
+	}
+
+	private static void run(QueryChecker session, LoggedQuery query, TypeStats stats) {
+		boolean failed = false;
+		long started = System.nanoTime();
+		try {
+			session.traverseQuery(query.query, query.user, false);
+		} catch (Exception e) {
+			failed = true;
+		}
+		stats.add(System.nanoTime() - started, failed);
+	}
+
+	private static void printTable(PrintStream out, String[] colNames, List<String[]> rows) {
+		int[] columnWidths = new int[colNames.length];
+		for (int i = 0; i < colNames.length; i++) {
+			columnWidths[i] = colNames[i].length();
+			for (String[] row : rows) {
+				columnWidths[i] = Math.max(columnWidths[i], row[i].length());
+			}
+		}
+		StringBuilder border = new StringBuilder("+");
+		for (int width : columnWidths) {
+			border.append("-".repeat(width + 2)).append("+");
+		}
+		out.println(border);
+		printRow(out, colNames, columnWidths);
+		out.println(border);
+		for (String[] row : rows) {
+			printRow(out, row, columnWidths);
+		}
+		out.println(border);
+	}
+
+	private static void printRow(PrintStream out, String[] values, int[] columnWidths) {
+		StringBuilder line = new StringBuilder("|");
+		for (int i = 0; i < values.length; i++) {
+			line.append(" ").append(values[i]).append(" ".repeat(columnWidths[i] - values[i].length())).append(" |");
+		}
+		out.println(line);
+	}
+
+	private static Set<String> names(String list) {
+		return Arrays.stream(list.split(",")).map(name -> name.trim().toLowerCase()).filter(name -> !name.isEmpty()).collect(Collectors.toSet());
+	}
+
+	private static void usage(String error) {
+		System.out.println(error);
+		System.out.println("Usage: java com.kendb.tools.WorkloadReplay [--log file|folder] [--source folder] [--target folder] [--keep]");
+		System.out.println("        [--threads n] [--pacing fast|original|factor] [--user names] [--table names] [--limit n]");
+		System.exit(1);
+	}
+
+	/**
+	 * Copy the databases, replay the log against the copy and print the report.
+	 *
+	 * @param args The options, see the class comment.
+	 * @throws Exception If the replay fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		WorkloadReplay replay = new WorkloadReplay();
+		Path log = Paths.get("src", "resources", "Logs", "logs_query.txt");
+		Path source = Paths.get(QueryChecker.DATA_DIR);
+		Path target = null;
+		boolean keep = false;
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.equals("--keep")) {
+				keep = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				usage("Missing value of " + option);
+			}
+			String value = args[++i];
+			try {
+				switch (option) {
+					case "--log":
+						log = Paths.get(value);
+						break;
+					case "--source":
+						source = Paths.get(value);
+						break;
+					case "--target":
+						target = Paths.get(value);
+						break;
+					case "--threads":
+						replay.threads = Integer.parseInt(value);
+						break;
+					case "--pacing":
+						replay.speed = value.equalsIgnoreCase("fast") ? 0 : value.equalsIgnoreCase("original") ? 1 : Double.parseDouble(value);
+						break;
+					case "--user":
+						replay.users = names(value);
+						break;
+					case "--table":
+						replay.tables = names(value);
+						break;
+					case "--limit":
+						replay.limit = Long.parseLong(value);
+						break;
+					default:
+						usage("Unknown option " + option);
+				}
+			} catch (NumberFormatException e) {
+				usage("Invalid value of " + option + ": " + value);
+			}
+		}
+		if (replay.threads < 1 || replay.speed < 0 || replay.limit < 0) {
+			usage("Threads must be at least 1, the pacing and the limit must not be negative");
+		}
+		if (!Files.exists(log)) {
+			usage("Query log not found: " + log);
+		}
+
+		if (target == null) {
+			target = Files.createTempDirectory("kendb-replay");
+		} else if (Files.exists(target)) {
+			usage("Target folder already exists: " + target);
+		}
+		List<LoggedQuery> queries = replay.filter(readLog(log));
+		System.out.println("Copying the databases of " + source + " to " + target);
+		for (Path database : ReplicationPrimary.listDatabases(source)) {
+			ReplicationPrimary.copyDatabase(database, target.resolve(database.getFileName().toString()));
+		}
+		// everything the statements write stays in the copy
+		QueryChecker.DATA_DIR = target.toString() + File.separator;
+		AuditLog.AUDIT_PATH = target.resolve(".audit").toString();
+		Partitioning.PARTITION_DIRS = "";
+		try {
+			replay.replay(queries, System.out);
+		} finally {
+			if (!keep) {
+				ReplicationPrimary.deleteFolder(target);
+			} else {
+				System.out.println("The databases after the replay are in " + target);
+			}
+		}
+		System.exit(0);
+	}
+}
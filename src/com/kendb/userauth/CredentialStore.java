@@ -0,0 +1,322 @@
+package com.kendb.userauth;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.*;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The `CredentialStore` keeps the users of `user_information.txt` and `user_security.txt` in hash maps.
+ * The files are read once, and again only if another process changed them, sign up adds to both.
+ * A password is kept as `pbkdf2$rounds$salt$hash` (PBKDF2 with HMAC-SHA256 and a random salt),
+ * an old MD5 password is replaced the first time its user logs in.
+ * A session token lets a user start another session without password and security question, it holds
+ * the user and when it expires and is signed with HMAC-SHA256 by the key in `session.key`.
+ */
+public class CredentialStore {
+
+	static String USERS_PATH = "src/resources/Users/";
+	static String SEPARATOR = "&$&";
+	static int ITERATIONS = Integer.getInteger("kendb.auth.iterations", 120000); // PBKDF2 rounds of a new password
+	static long TOKEN_HOURS = Long.getLong("kendb.auth.tokenHours", 12); // hours a session token can be used
+	static CredentialStore instance;
+
+	Path userFile;
+	Path securityFile;
+	Path keyFile;
+	Map<String, String> passwords = new HashMap<>(); // stored password of every user key
+	Map<String, String[]> questions = new HashMap<>(); // security question and answer of every user key
+	long[] loadedVersion; // size and modified time of both files when they were read
+	byte[] tokenKey;
+	SecureRandom random = new SecureRandom();
+
+	/**
+	 * Constructor for the CredentialStore.
+	 *
+	 * @param folder The folder of the user files.
+	 * @throws IOException If a user file cannot be read.
+	 */
+	public CredentialStore(Path folder) throws IOException {
+		Files.createDirectories(folder);
+		userFile = folder.resolve("user_information.txt");
+		securityFile = folder.resolve("user_security.txt");
+		keyFile = folder.resolve("session.key");
+		reloadIfChanged();
+	}
+
+	/**
+	 * @return The store of the users of this process.
+	 * @throws IOException If a user file cannot be read.
+	 */
+	public static synchronized CredentialStore getInstance() throws IOException {
+		if (instance == null) {
+			instance = new CredentialStore(Paths.get(USERS_PATH));
+		}
+		return instance;
+	}
+
+	/**
+	 * The key a user is stored by, the MD5 of the user id as in the user files.
+	 *
+	 * @param userId The user id.
+	 * @return The key.
+	 */
+	public static String userKey(String userId) {
+		return toHex(digest("MD5", userId.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @return `true` if a user with the id signed up.
+	 * @throws IOException If a user file cannot be read.
+	 */
+	public synchronized boolean exists(String userId) throws IOException {
+		reloadIfChanged();
+		return passwords.containsKey(userKey(userId));
+	}
+
+	/**
+	 * Check the password of a user. An MD5 password that matches is replaced by a PBKDF2 one.
+	 *
+	 * @param userId   The user id.
+	 * @param password The password as entered.
+	 * @return `true` if the user exists and the password is right.
+	 * @throws IOException If the user file cannot be read or written.
+	 */
+	public synchronized boolean verifyPassword(String userId, String password) throws IOException {
+		reloadIfChanged();
+		String key = userKey(userId);
+		String stored = passwords.get(key);
+		if (stored == null) {
+			return false;
+		}
+		if (!stored.startsWith("pbkdf2$")) {
+			byte[] md5 = digest("MD5", password.getBytes(StandardCharsets.UTF_8));
+			if (!MessageDigest.isEqual(toHex(md5).getBytes(StandardCharsets.US_ASCII), stored.getBytes(StandardCharsets.US_ASCII))) {
+				return false;
+			}
+			replacePassword(key, hashPassword(password));
+			return true;
+		}
+		String[] parts = stored.split("\\$");
+		byte[] salt = Base64.getDecoder().decode(parts[2]);
+		byte[] hash = Base64.getDecoder().decode(parts[3]);
+		return MessageDigest.isEqual(hash, pbkdf2(password, salt, Integer.parseInt(parts[1]), hash.length * 8));
+	}
+
+	/**
+	 * @return The security question and answer of a user, or `null` if the user has none.
+	 * @throws IOException If a user file cannot be read.
+	 */
+	public synchronized String[] getSecurityQuestion(String userId) throws IOException {
+		reloadIfChanged();
+		return questions.get(userKey(userId));
+	}
+
+	/**
+	 * Add a user to both files.
+	 *
+	 * @param userId           The new user id.
+	 * @param password         The password.
+	 * @param securityQuestion The security question.
+	 * @param securityAnswer   The answer to the security question.
+	 * @return `false` if a user with the id exists, nothing is added then.
+	 * @throws IOException If a user file cannot be written.
+	 */
+	public synchronized boolean addUser(String userId, String password, String securityQuestion, String securityAnswer) throws IOException {
+		reloadIfChanged();
+		String key = userKey(userId);
+		if (passwords.containsKey(key)) {
+			return false;
+		}
+		String stored = hashPassword(password);
+		Files.write(userFile, Collections.singletonList(key + SEPARATOR + stored), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		Files.write(securityFile, Collections.singletonList(key + SEPARATOR + securityQuestion + SEPARATOR + securityAnswer),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		passwords.put(key, stored);
+		questions.put(key, new String[] {securityQuestion, securityAnswer});
+		loadedVersion = fileVersion();
+		return true;
+	}
+
+	/**
+	 * Make a session token for a user who logged in.
+	 *
+	 * @param userId The user id.
+	 * @return The token, `payload.signature` in URL safe Base64.
+	 * @throws IOException If the signing key cannot be read or made.
+	 */
+	public synchronized String issueToken(String userId) throws IOException {
+		long expires = System.currentTimeMillis() + TOKEN_HOURS * 3600 * 1000;
+		byte[] payload = (expires + "|" + userId).getBytes(StandardCharsets.UTF_8);
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+	}
+
+	/**
+	 * Check a session token, the user files are not read unless another process changed them.
+	 *
+	 * @param token The token from `issueToken`.
+	 * @return The user id, or `null` if the token is not signed by this store, has expired or its user is gone.
+	 * @throws IOException If the signing key or a user file cannot be read.
+	 */
+	public synchronized String verifyToken(String token) throws IOException {
+		int dot = token.indexOf('.');
+		if (dot <= 0) {
+			return null;
+		}
+		byte[] payload;
+		byte[] signature;
+		try {
+			payload = Base64.getUrlDecoder().decode(token.substring(0, dot));
+			signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (!MessageDigest.isEqual(signature, sign(payload))) {
+			return null;
+		}
+		String[] parts = new String(payload, StandardCharsets.UTF_8).split("\\|", 2);
+		if (parts.length < 2 || Long.parseLong(parts[0]) < System.currentTimeMillis() || !exists(parts[1])) {
+			return null;
+		}
+		return parts[1];
+	}
+
+	/**
+	 * Read both files again if their size or modified time changed since they were read.
+	 */
+	private void reloadIfChanged() throws IOException {
+		long[] version = fileVersion();
+		if (Arrays.equals(version, loadedVersion)) {
+			return;
+		}
+		passwords.clear();
+		questions.clear();
+		// the first line of a user counts, like the scan of the files did before
+		for (String[] line : readLines(userFile)) {
+			if (line.length >= 2) {
+				passwords.putIfAbsent(line[0], line[1]);
+			}
+		}
+		for (String[] line : readLines(securityFile)) {
+			if (line.length >= 3) {
+				questions.putIfAbsent(line[0], new String[] {line[1], line[2]});
+			}
+		}
+		loadedVersion = version;
+	}
+
+	private static List<String[]> readLines(Path file) throws IOException {
+		List<String[]> lines = new ArrayList<>();
+		if (Files.exists(file)) {
+			for (String line : Files.readAllLines(file)) {
+				if (!line.isEmpty()) {
+					lines.add(line.split("&\\$&"));
+				}
+			}
+		}
+		return lines;
+	}
+
+	private long[] fileVersion() throws IOException {
+		long[] version = new long[4];
+		Path[] files = {userFile, securityFile};
+		for (int i = 0; i < files.length; i++) {
+			if (Files.exists(files[i])) {
+				version[i * 2] = Files.size(files[i]);
+				version[i * 2 + 1] = Files.getLastModifiedTime(files[i]).toMillis();
+			} else {
+				version[i * 2] = -1;
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * Write the new password of a user over the line of the old one.
+	 */
+	private void replacePassword(String key, String stored) throws IOException {
+		List<String> lines = new ArrayList<>(Files.readAllLines(userFile));
+		for (int i = 0; i < lines.size(); i++) {
+			if (lines.get(i).startsWith(key + SEPARATOR)) {
+				lines.set(i, key + SEPARATOR + stored);
+				break;
+			}
+		}
+		Path newFile = userFile.resolveSibling(userFile.getFileName() + ".tmp");
+		Files.write(newFile, lines);
+		Files.move(newFile, userFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		passwords.put(key, stored);
+		loadedVersion = fileVersion();
+	}
+
+	private String hashPassword(String password) {
+		byte[] salt = new byte[16];
+		random.nextBytes(salt);
+		byte[] hash = pbkdf2(password, salt, ITERATIONS, 256);
+		return "pbkdf2$" + ITERATIONS + "$" + Base64.getEncoder().encodeToString(salt) + "$" + Base64.getEncoder().encodeToString(hash);
+	}
+
+	private static byte[] pbkdf2(String password, byte[] salt, int iterations, int bits) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, bits);
+		try {
+			return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("PBKDF2 is not available", e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/**
+	 * Sign data with the key of the tokens, the key is made once and kept for tokens of later runs.
+	 */
+	private byte[] sign(byte[] data) throws IOException {
+		if (tokenKey == null) {
+			if (Files.exists(keyFile)) {
+				tokenKey = Files.readAllBytes(keyFile);
+			} else {
+				tokenKey = new byte[32];
+				random.nextBytes(tokenKey);
+				Files.write(keyFile, tokenKey);
+				try {
+					Files.setPosixFilePermissions(keyFile, PosixFilePermissions.fromString("rw-------"));
+				} catch (UnsupportedOperationException e) {
+					// not a POSIX file system, the file keeps its default permissions
+				}
+			}
+		}
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(tokenKey, "HmacSHA256"));
+			return mac.doFinal(data);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HMAC-SHA256 is not available", e);
+		}
+	}
+
+	private static byte[] digest(String algorithm, byte[] data) {
+		try {
+			return MessageDigest.getInstance(algorithm).digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(algorithm + " is not available", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+}